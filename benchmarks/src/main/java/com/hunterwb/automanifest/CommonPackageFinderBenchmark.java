@@ -0,0 +1,69 @@
+package com.hunterwb.automanifest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.lang.model.element.PackageElement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds the packages of {@code roots} root elements spread over
+ * {@code packages} distinct packages through a fresh finder
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommonPackageFinderBenchmark {
+
+    @Param({"1000", "100000"})
+    public int roots;
+
+    @Param({"10", "1000"})
+    public int packages;
+
+    /**
+     * {@code common}: all packages share {@code com.example.app}, {@code disjoint}: no common package
+     */
+    @Param({"common", "disjoint"})
+    public String layout;
+
+    private Model.Env env;
+
+    private PackageElement[] rootPackages;
+
+    @Setup public void setup() {
+        env = new Model.Env();
+        PackageElement[] distinct = new PackageElement[packages];
+        for (int i = 0; i < packages; i++) {
+            String name = layout.equals("common")
+                    ? "com.example.app.module" + (i % 37) + ".sub" + i
+                    : "org" + i + ".example.module" + (i % 37);
+            distinct[i] = env.elements.pkg(name);
+        }
+        rootPackages = new PackageElement[roots];
+        for (int i = 0; i < roots; i++) {
+            rootPackages[i] = distinct[(i * 31) % packages];
+        }
+    }
+
+    @Benchmark public String visitPackages() {
+        CommonPackageFinder finder = new CommonPackageFinder(env.getMessager());
+        finder.entry = new Index.Entry();
+        for (PackageElement p : rootPackages) {
+            finder.visitPackage(p);
+        }
+        return finder.getValue();
+    }
+}
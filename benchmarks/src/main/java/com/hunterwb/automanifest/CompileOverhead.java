@@ -0,0 +1,254 @@
+package com.hunterwb.automanifest;
+
+import javax.annotation.processing.Processor;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Measures what running {@link AutoManifest} costs inside {@code javac}.
+ * <p>
+ * Generates synthetic source trees, compiles each one in-process through
+ * {@link ToolProvider#getSystemJavaCompiler()} with and without the processor
+ * for every requested {@code --release}, and reports the wall time and the
+ * bytes allocated by the compiling thread. Exits with status 1 if the
+ * processor adds more than {@code --max-overhead} percent of wall time to any
+ * configuration.
+ * <pre>
+ * java -Xmx8g -cp benchmarks/target/benchmarks.jar com.hunterwb.automanifest.CompileOverhead
+ *     [--sizes 1000,10000,100000] [--layouts flat,deep] [--releases 7,8]
+ *     [--methods 8] [--runs 3] [--max-overhead 10] [--dir /tmp/automanifest-overhead]
+ * </pre>
+ * The releases default to those of the {@code javac-release-*} profiles of the
+ * project that the running JDK still supports.
+ */
+public final class CompileOverhead {
+
+    private static final String OPTIONS = "-Aautomanifest=Automatic-Module-Name,Main-Class,Premain-Class,Agent-Class";
+
+    private final PrintStream out = System.out;
+
+    private List<Integer> sizes = Arrays.asList(1000, 10000, 100000);
+
+    private List<String> layouts = Arrays.asList("flat", "deep");
+
+    private List<String> releases = Arrays.asList("6", "7", "8");
+
+    private int methods = 8;
+
+    private int runs = 3;
+
+    private double maxOverhead = 10;
+
+    private Path dir = Paths.get(System.getProperty("java.io.tmpdir"), "automanifest-overhead");
+
+    private final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+
+    public static void main(String[] args) throws IOException {
+        CompileOverhead c = new CompileOverhead();
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length) throw new IllegalArgumentException("Missing value for " + args[i]);
+            String value = args[i + 1];
+            if (args[i].equals("--sizes")) {
+                c.sizes = new ArrayList<Integer>();
+                for (String s : value.split(",")) c.sizes.add(Integer.parseInt(s));
+            } else if (args[i].equals("--layouts")) {
+                c.layouts = Arrays.asList(value.split(","));
+            } else if (args[i].equals("--releases")) {
+                c.releases = Arrays.asList(value.split(","));
+            } else if (args[i].equals("--methods")) {
+                c.methods = Integer.parseInt(value);
+            } else if (args[i].equals("--runs")) {
+                c.runs = Integer.parseInt(value);
+            } else if (args[i].equals("--max-overhead")) {
+                c.maxOverhead = Double.parseDouble(value);
+            } else if (args[i].equals("--dir")) {
+                c.dir = Paths.get(value);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (!c.run()) System.exit(1);
+    }
+
+    private boolean run() throws IOException {
+        if (compiler == null) throw new IllegalStateException("No system Java compiler, run on a JDK");
+        boolean ok = true;
+        out.println("classes layout  release      without (ms)         with (ms)  overhead   alloc without     alloc with");
+        for (int size : sizes) {
+            for (String layout : layouts) {
+                Path src = dir.resolve(layout + '-' + size).resolve("src");
+                List<File> files = generate(src, size, layout.equals("deep"));
+                for (String release : releases) {
+                    if (!supported(release)) {
+                        out.println(String.format(Locale.ROOT, "%7d %-7s %7s  not supported by this JDK", size, layout, release));
+                        continue;
+                    }
+                    Result without = null;
+                    Result with = null;
+                    // alternate so that drift of the machine affects both equally, first round warms up
+                    for (int i = 0; i <= runs; i++) {
+                        Result r1 = compile(files, release, false);
+                        Result r2 = compile(files, release, true);
+                        if (i == 0) continue;
+                        if (without == null || r1.millis < without.millis) without = r1;
+                        if (with == null || r2.millis < with.millis) with = r2;
+                    }
+                    double overhead = 100.0 * (with.millis - without.millis) / without.millis;
+                    boolean pass = overhead <= maxOverhead;
+                    ok &= pass;
+                    out.println(String.format(Locale.ROOT, "%7d %-7s %7s %17.1f %17.1f %8.1f%% %12.1f MB %11.1f MB%s",
+                            size, layout, release, without.millis, with.millis, overhead,
+                            without.allocated / 1e6, with.allocated / 1e6, pass ? "" : "  OVER BUDGET"));
+                }
+                delete(src.getParent());
+            }
+        }
+        return ok;
+    }
+
+    private boolean supported(String release) {
+        try {
+            compiler.getTask(null, null, null, Arrays.asList("--release", release), null, null);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private Result compile(List<File> files, String release, boolean processor) throws IOException {
+        Path classes = Files.createTempDirectory(dir, "classes");
+        try {
+            List<String> options = new ArrayList<String>();
+            options.add("--release");
+            options.add(release);
+            options.add("-nowarn");
+            options.add("-Xlint:-options");
+            options.add("-d");
+            options.add(classes.toString());
+            if (processor) {
+                options.add(OPTIONS);
+            } else {
+                options.add("-proc:none");
+            }
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+            StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, Locale.ROOT, StandardCharsets.UTF_8);
+            try {
+                JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null, fileManager.getJavaFileObjectsFromFiles(files));
+                if (processor) {
+                    task.setProcessors(Collections.<Processor>singleton(new AutoManifest()));
+                }
+                System.gc();
+                long allocated = allocatedBytes();
+                long start = System.nanoTime();
+                boolean success = task.call();
+                long nanos = System.nanoTime() - start;
+                allocated = allocatedBytes() - allocated;
+                if (!success) throw new IllegalStateException(diagnostics.getDiagnostics().toString());
+                return new Result(nanos / 1e6, allocated);
+            } finally {
+                fileManager.close();
+            }
+        } finally {
+            delete(classes);
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Writes {@code size} top level classes, each with a nested class and
+     * {@link #methods} methods. A flat layout puts up to 1000 classes in each of
+     * a few packages below {@code com.example}, a deep layout spreads them over
+     * a tree of packages 6 levels deep. One class gets a {@code main} method.
+     */
+    private List<File> generate(Path src, int size, boolean deep) throws IOException {
+        delete(src);
+        List<File> files = new ArrayList<File>(size);
+        for (int i = 0; i < size; i++) {
+            String pkg;
+            if (deep) {
+                StringBuilder sb = new StringBuilder("com.example");
+                for (int level = 0, n = i; level < 6; level++, n /= 4) {
+                    sb.append(".p").append(level).append('_').append(n % 4);
+                }
+                pkg = sb.toString();
+            } else {
+                pkg = "com.example.p" + i / 1000;
+            }
+            String name = "Type" + i;
+            Path file = src.resolve(pkg.replace('.', File.separatorChar)).resolve(name + ".java");
+            Files.createDirectories(file.getParent());
+            Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+            try {
+                w.write("package " + pkg + ";\n\n");
+                w.write("public class " + name + " {\n");
+                w.write("    private final java.util.List<String> values = new java.util.ArrayList<String>();\n");
+                for (int m = 0; m < methods; m++) {
+                    w.write("    public int method" + m + "(String s, int x) { values.add(s); return x * " + m + " + values.size(); }\n");
+                }
+                w.write("    public static void main(String s) {}\n");
+                if (i == size / 2) {
+                    w.write("    public static void main(String[] args) {}\n");
+                }
+                w.write("    public static class Nested {\n");
+                for (int m = 0; m < methods; m++) {
+                    w.write("        static long method" + m + "(long[] a) { return a.length + " + m + "L; }\n");
+                }
+                w.write("        public static void premain(Object o) {}\n");
+                w.write("    }\n");
+                w.write("}\n");
+            } finally {
+                w.close();
+            }
+            files.add(file.toFile());
+        }
+        return files;
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) return;
+        Stream<Path> walk = Files.walk(path);
+        try {
+            List<Path> paths = new ArrayList<Path>();
+            walk.forEach(paths::add);
+            Collections.reverse(paths);
+            for (Path p : paths) {
+                Files.delete(p);
+            }
+        } finally {
+            walk.close();
+        }
+    }
+
+    private static final class Result {
+
+        final double millis;
+
+        final long allocated;
+
+        Result(double millis, long allocated) {
+            this.millis = millis;
+            this.allocated = allocated;
+        }
+    }
+}
@@ -0,0 +1,691 @@
+package com.hunterwb.automanifest;
+
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ElementVisitor;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.NoType;
+import javax.lang.model.type.NullType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.TypeVariable;
+import javax.lang.model.type.TypeVisitor;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Minimal in-memory implementation of the element and type model, just enough
+ * for the code paths that are benchmarked, so that javac startup and its
+ * symbol completion are not part of the measurements
+ */
+final class Model {
+
+    private Model() {}
+
+    static final class NameImpl implements javax.lang.model.element.Name {
+
+        private final String s;
+
+        NameImpl(String s) {
+            this.s = s;
+        }
+
+        @Override public boolean contentEquals(CharSequence cs) {
+            return s.contentEquals(cs);
+        }
+
+        @Override public int length() {
+            return s.length();
+        }
+
+        @Override public char charAt(int index) {
+            return s.charAt(index);
+        }
+
+        @Override public CharSequence subSequence(int start, int end) {
+            return s.subSequence(start, end);
+        }
+
+        @Override public String toString() {
+            return s;
+        }
+    }
+
+    abstract static class AbstractElement implements Element {
+
+        private final ElementKind kind;
+
+        private final javax.lang.model.element.Name simpleName;
+
+        private final Set<Modifier> modifiers;
+
+        Element enclosing;
+
+        final List<Element> enclosed = new ArrayList<Element>();
+
+        AbstractElement(ElementKind kind, String simpleName, Set<Modifier> modifiers) {
+            this.kind = kind;
+            this.simpleName = new NameImpl(simpleName);
+            this.modifiers = modifiers;
+        }
+
+        @Override public ElementKind getKind() {
+            return kind;
+        }
+
+        @Override public Set<Modifier> getModifiers() {
+            return modifiers;
+        }
+
+        @Override public javax.lang.model.element.Name getSimpleName() {
+            return simpleName;
+        }
+
+        @Override public Element getEnclosingElement() {
+            return enclosing;
+        }
+
+        @Override public List<? extends Element> getEnclosedElements() {
+            return enclosed;
+        }
+
+        @Override public List<? extends AnnotationMirror> getAnnotationMirrors() {
+            return Collections.emptyList();
+        }
+
+        @Override public <A extends Annotation> A getAnnotation(Class<A> annotationType) {
+            return null;
+        }
+
+        @Override public <A extends Annotation> A[] getAnnotationsByType(Class<A> annotationType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public String toString() {
+            return simpleName.toString();
+        }
+    }
+
+    static final class PackageImpl extends AbstractElement implements PackageElement {
+
+        private final javax.lang.model.element.Name qualifiedName;
+
+        PackageImpl(String qualifiedName) {
+            super(ElementKind.PACKAGE, qualifiedName.substring(qualifiedName.lastIndexOf('.') + 1), Collections.<Modifier>emptySet());
+            this.qualifiedName = new NameImpl(qualifiedName);
+        }
+
+        @Override public javax.lang.model.element.Name getQualifiedName() {
+            return qualifiedName;
+        }
+
+        @Override public boolean isUnnamed() {
+            return qualifiedName.length() == 0;
+        }
+
+        @Override public TypeMirror asType() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public <R, P> R accept(ElementVisitor<R, P> v, P p) {
+            return v.visitPackage(this, p);
+        }
+    }
+
+    static final class TypeImpl extends AbstractElement implements TypeElement {
+
+        private final javax.lang.model.element.Name qualifiedName;
+
+        private final String binaryName;
+
+        private final DeclaredTypeImpl type = new DeclaredTypeImpl(this);
+
+        TypeImpl(Element enclosing, String simpleName) {
+            super(ElementKind.CLASS, simpleName, EnumSet.of(Modifier.PUBLIC));
+            this.enclosing = enclosing;
+            if (enclosing instanceof PackageImpl) {
+                PackageImpl p = (PackageImpl) enclosing;
+                String prefix = p.isUnnamed() ? "" : p.getQualifiedName() + ".";
+                qualifiedName = new NameImpl(prefix + simpleName);
+                binaryName = prefix + simpleName;
+            } else {
+                TypeImpl outer = (TypeImpl) enclosing;
+                qualifiedName = new NameImpl(outer.getQualifiedName() + "." + simpleName);
+                binaryName = outer.binaryName + '$' + simpleName;
+            }
+            ((AbstractElement) enclosing).enclosed.add(this);
+        }
+
+        @Override public javax.lang.model.element.Name getQualifiedName() {
+            return qualifiedName;
+        }
+
+        @Override public NestingKind getNestingKind() {
+            return enclosing instanceof PackageElement ? NestingKind.TOP_LEVEL : NestingKind.MEMBER;
+        }
+
+        @Override public TypeMirror getSuperclass() {
+            return NoTypeImpl.NONE;
+        }
+
+        @Override public List<? extends TypeMirror> getInterfaces() {
+            return Collections.emptyList();
+        }
+
+        @Override public List<? extends TypeParameterElement> getTypeParameters() {
+            return Collections.emptyList();
+        }
+
+        @Override public TypeMirror asType() {
+            return type;
+        }
+
+        @Override public <R, P> R accept(ElementVisitor<R, P> v, P p) {
+            return v.visitType(this, p);
+        }
+    }
+
+    static final class MethodImpl extends AbstractElement implements ExecutableElement {
+
+        private final ExecutableTypeImpl type;
+
+        MethodImpl(TypeImpl enclosing, String name, Set<Modifier> modifiers, TypeMirror returnType, List<TypeMirror> parameterTypes) {
+            super(ElementKind.METHOD, name, modifiers);
+            this.enclosing = enclosing;
+            this.type = new ExecutableTypeImpl(returnType, parameterTypes);
+            enclosing.enclosed.add(this);
+        }
+
+        @Override public List<? extends TypeParameterElement> getTypeParameters() {
+            return Collections.emptyList();
+        }
+
+        @Override public TypeMirror getReturnType() {
+            return type.getReturnType();
+        }
+
+        @Override public List<? extends VariableElement> getParameters() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public TypeMirror getReceiverType() {
+            return NoTypeImpl.NONE;
+        }
+
+        @Override public boolean isVarArgs() {
+            return false;
+        }
+
+        @Override public boolean isDefault() {
+            return false;
+        }
+
+        @Override public List<? extends TypeMirror> getThrownTypes() {
+            return Collections.emptyList();
+        }
+
+        @Override public AnnotationValue getDefaultValue() {
+            return null;
+        }
+
+        @Override public TypeMirror asType() {
+            return type;
+        }
+
+        @Override public <R, P> R accept(ElementVisitor<R, P> v, P p) {
+            return v.visitExecutable(this, p);
+        }
+    }
+
+    abstract static class AbstractType implements TypeMirror {
+
+        private final TypeKind kind;
+
+        AbstractType(TypeKind kind) {
+            this.kind = kind;
+        }
+
+        @Override public TypeKind getKind() {
+            return kind;
+        }
+
+        @Override public List<? extends AnnotationMirror> getAnnotationMirrors() {
+            return Collections.emptyList();
+        }
+
+        @Override public <A extends Annotation> A getAnnotation(Class<A> annotationType) {
+            return null;
+        }
+
+        @Override public <A extends Annotation> A[] getAnnotationsByType(Class<A> annotationType) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    static final class NoTypeImpl extends AbstractType implements NoType {
+
+        static final NoTypeImpl VOID = new NoTypeImpl(TypeKind.VOID);
+
+        static final NoTypeImpl NONE = new NoTypeImpl(TypeKind.NONE);
+
+        private NoTypeImpl(TypeKind kind) {
+            super(kind);
+        }
+
+        @Override public <R, P> R accept(TypeVisitor<R, P> v, P p) {
+            return v.visitNoType(this, p);
+        }
+    }
+
+    static final class DeclaredTypeImpl extends AbstractType implements DeclaredType {
+
+        private final TypeElement element;
+
+        DeclaredTypeImpl(TypeElement element) {
+            super(TypeKind.DECLARED);
+            this.element = element;
+        }
+
+        @Override public Element asElement() {
+            return element;
+        }
+
+        @Override public TypeMirror getEnclosingType() {
+            return NoTypeImpl.NONE;
+        }
+
+        @Override public List<? extends TypeMirror> getTypeArguments() {
+            return Collections.emptyList();
+        }
+
+        @Override public <R, P> R accept(TypeVisitor<R, P> v, P p) {
+            return v.visitDeclared(this, p);
+        }
+    }
+
+    static final class ArrayTypeImpl extends AbstractType implements ArrayType {
+
+        private final TypeMirror componentType;
+
+        ArrayTypeImpl(TypeMirror componentType) {
+            super(TypeKind.ARRAY);
+            this.componentType = componentType;
+        }
+
+        @Override public TypeMirror getComponentType() {
+            return componentType;
+        }
+
+        @Override public <R, P> R accept(TypeVisitor<R, P> v, P p) {
+            return v.visitArray(this, p);
+        }
+    }
+
+    static final class ExecutableTypeImpl extends AbstractType implements ExecutableType {
+
+        private final TypeMirror returnType;
+
+        private final List<TypeMirror> parameterTypes;
+
+        ExecutableTypeImpl(TypeMirror returnType, List<TypeMirror> parameterTypes) {
+            super(TypeKind.EXECUTABLE);
+            this.returnType = returnType;
+            this.parameterTypes = parameterTypes;
+        }
+
+        @Override public List<? extends TypeVariable> getTypeVariables() {
+            return Collections.emptyList();
+        }
+
+        @Override public TypeMirror getReturnType() {
+            return returnType;
+        }
+
+        @Override public List<? extends TypeMirror> getParameterTypes() {
+            return parameterTypes;
+        }
+
+        @Override public TypeMirror getReceiverType() {
+            return NoTypeImpl.NONE;
+        }
+
+        @Override public List<? extends TypeMirror> getThrownTypes() {
+            return Collections.emptyList();
+        }
+
+        @Override public <R, P> R accept(TypeVisitor<R, P> v, P p) {
+            return v.visitExecutable(this, p);
+        }
+    }
+
+    static final class ElementsImpl implements Elements {
+
+        private final Map<String, PackageImpl> packages = new HashMap<String, PackageImpl>();
+
+        private final Map<String, TypeImpl> types = new HashMap<String, TypeImpl>();
+
+        PackageImpl pkg(String qualifiedName) {
+            PackageImpl p = packages.get(qualifiedName);
+            if (p == null) {
+                p = new PackageImpl(qualifiedName);
+                packages.put(qualifiedName, p);
+            }
+            return p;
+        }
+
+        TypeImpl type(Element enclosing, String simpleName) {
+            TypeImpl t = new TypeImpl(enclosing, simpleName);
+            types.put(t.getQualifiedName().toString(), t);
+            return t;
+        }
+
+        @Override public PackageElement getPackageElement(CharSequence name) {
+            return packages.get(name.toString());
+        }
+
+        @Override public TypeElement getTypeElement(CharSequence name) {
+            return types.get(name.toString());
+        }
+
+        @Override public Map<? extends ExecutableElement, ? extends AnnotationValue> getElementValuesWithDefaults(AnnotationMirror a) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public String getDocComment(Element e) {
+            return null;
+        }
+
+        @Override public boolean isDeprecated(Element e) {
+            return false;
+        }
+
+        @Override public javax.lang.model.element.Name getBinaryName(TypeElement type) {
+            return new NameImpl(((TypeImpl) type).binaryName);
+        }
+
+        @Override public PackageElement getPackageOf(Element e) {
+            while (!(e instanceof PackageElement)) {
+                e = e.getEnclosingElement();
+            }
+            return (PackageElement) e;
+        }
+
+        @Override public List<? extends Element> getAllMembers(TypeElement type) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public List<? extends AnnotationMirror> getAllAnnotationMirrors(Element e) {
+            return Collections.emptyList();
+        }
+
+        @Override public boolean hides(Element hider, Element hidden) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public boolean overrides(ExecutableElement overrider, ExecutableElement overridden, TypeElement type) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public String getConstantExpression(Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public void printElements(Writer w, Element... elements) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public javax.lang.model.element.Name getName(CharSequence cs) {
+            return new NameImpl(cs.toString());
+        }
+
+        @Override public boolean isFunctionalInterface(TypeElement type) {
+            return false;
+        }
+    }
+
+    static final class TypesImpl implements Types {
+
+        private final Map<TypeMirror, ArrayType> arrayTypes = new HashMap<TypeMirror, ArrayType>();
+
+        @Override public Element asElement(TypeMirror t) {
+            return t instanceof DeclaredType ? ((DeclaredType) t).asElement() : null;
+        }
+
+        @Override public boolean isSameType(TypeMirror t1, TypeMirror t2) {
+            return t1 == t2;
+        }
+
+        @Override public boolean isSubtype(TypeMirror t1, TypeMirror t2) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public boolean isAssignable(TypeMirror t1, TypeMirror t2) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public boolean contains(TypeMirror t1, TypeMirror t2) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public boolean isSubsignature(ExecutableType m1, ExecutableType m2) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public List<? extends TypeMirror> directSupertypes(TypeMirror t) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public TypeMirror erasure(TypeMirror t) {
+            return t;
+        }
+
+        @Override public TypeElement boxedClass(PrimitiveType p) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public PrimitiveType unboxedType(TypeMirror t) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public TypeMirror capture(TypeMirror t) {
+            return t;
+        }
+
+        @Override public PrimitiveType getPrimitiveType(TypeKind kind) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public NullType getNullType() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public NoType getNoType(TypeKind kind) {
+            if (kind == TypeKind.VOID) return NoTypeImpl.VOID;
+            if (kind == TypeKind.NONE) return NoTypeImpl.NONE;
+            throw new IllegalArgumentException(kind.toString());
+        }
+
+        @Override public ArrayType getArrayType(TypeMirror componentType) {
+            ArrayType t = arrayTypes.get(componentType);
+            if (t == null) {
+                t = new ArrayTypeImpl(componentType);
+                arrayTypes.put(componentType, t);
+            }
+            return t;
+        }
+
+        @Override public WildcardType getWildcardType(TypeMirror extendsBound, TypeMirror superBound) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public DeclaredType getDeclaredType(TypeElement typeElem, TypeMirror... typeArgs) {
+            return (DeclaredType) typeElem.asType();
+        }
+
+        @Override public DeclaredType getDeclaredType(DeclaredType containing, TypeElement typeElem, TypeMirror... typeArgs) {
+            return (DeclaredType) typeElem.asType();
+        }
+
+        @Override public TypeMirror asMemberOf(DeclaredType containing, Element element) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    static final class MessagerImpl implements Messager {
+
+        @Override public void printMessage(Diagnostic.Kind kind, CharSequence msg) {}
+
+        @Override public void printMessage(Diagnostic.Kind kind, CharSequence msg, Element e) {}
+
+        @Override public void printMessage(Diagnostic.Kind kind, CharSequence msg, Element e, AnnotationMirror a) {}
+
+        @Override public void printMessage(Diagnostic.Kind kind, CharSequence msg, Element e, AnnotationMirror a, AnnotationValue v) {}
+    }
+
+    /**
+     * Filer over in-memory resources. Resources that were never given content
+     * do not exist and created resources are discarded, so that every
+     * invocation sees the same input.
+     */
+    static final class FilerImpl implements Filer {
+
+        final Map<String, byte[]> resources = new HashMap<String, byte[]>();
+
+        @Override public JavaFileObject createSourceFile(CharSequence name, Element... originatingElements) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public JavaFileObject createClassFile(CharSequence name, Element... originatingElements) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public FileObject createResource(JavaFileManager.Location location, CharSequence pkg, CharSequence relativeName, Element... originatingElements) {
+            return new SimpleJavaFileObject(URI.create("mem:///" + relativeName), JavaFileObject.Kind.OTHER) {
+                @Override public OutputStream openOutputStream() {
+                    return new OutputStream() {
+                        @Override public void write(int b) {}
+
+                        @Override public void write(byte[] b, int off, int len) {}
+                    };
+                }
+            };
+        }
+
+        @Override public FileObject getResource(JavaFileManager.Location location, CharSequence pkg, final CharSequence relativeName) {
+            return new SimpleJavaFileObject(URI.create("mem:///" + relativeName), JavaFileObject.Kind.OTHER) {
+                @Override public InputStream openInputStream() throws FileNotFoundException {
+                    byte[] b = resources.get(relativeName.toString());
+                    if (b == null) throw new FileNotFoundException(relativeName.toString());
+                    return new ByteArrayInputStream(b);
+                }
+            };
+        }
+    }
+
+    static final class Env implements ProcessingEnvironment {
+
+        final Map<String, String> options = new HashMap<String, String>();
+
+        final ElementsImpl elements = new ElementsImpl();
+
+        final TypesImpl types = new TypesImpl();
+
+        final MessagerImpl messager = new MessagerImpl();
+
+        final FilerImpl filer = new FilerImpl();
+
+        Env() {
+            elements.type(elements.pkg("java.lang"), "String");
+            elements.type(elements.pkg("java.lang.instrument"), "Instrumentation");
+        }
+
+        @Override public Map<String, String> getOptions() {
+            return options;
+        }
+
+        @Override public Messager getMessager() {
+            return messager;
+        }
+
+        @Override public Filer getFiler() {
+            return filer;
+        }
+
+        @Override public Elements getElementUtils() {
+            return elements;
+        }
+
+        @Override public Types getTypeUtils() {
+            return types;
+        }
+
+        @Override public SourceVersion getSourceVersion() {
+            return SourceVersion.latestSupported();
+        }
+
+        @Override public Locale getLocale() {
+            return Locale.ROOT;
+        }
+    }
+
+    static final class LastRound implements RoundEnvironment {
+
+        @Override public boolean processingOver() {
+            return true;
+        }
+
+        @Override public boolean errorRaised() {
+            return false;
+        }
+
+        @Override public Set<? extends Element> getRootElements() {
+            return Collections.emptySet();
+        }
+
+        @Override public Set<? extends Element> getElementsAnnotatedWith(TypeElement a) {
+            return Collections.emptySet();
+        }
+
+        @Override public Set<? extends Element> getElementsAnnotatedWith(Class<? extends Annotation> a) {
+            return Collections.emptySet();
+        }
+    }
+}
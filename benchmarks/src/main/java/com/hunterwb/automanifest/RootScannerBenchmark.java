@@ -0,0 +1,89 @@
+package com.hunterwb.automanifest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.type.TypeMirror;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans {@code roots} root types, each with a nested type and
+ * {@code methods} methods, for {@code main}, {@code premain} and
+ * {@code agentmain} methods and their common package, which exercises
+ * {@link MainMethodFinder} and {@link CommonPackageFinder} together the way
+ * {@link AutoManifest#process} drives them
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RootScannerBenchmark {
+
+    @Param({"1000", "10000"})
+    public int roots;
+
+    @Param({"10"})
+    public int methods;
+
+    private Model.Env env;
+
+    private Element[] rootElements;
+
+    @Setup public void setup() {
+        env = new Model.Env();
+        TypeMirror string = env.elements.getTypeElement("java.lang.String").asType();
+        TypeMirror stringArray = env.types.getArrayType(string);
+        TypeMirror instrumentation = env.elements.getTypeElement("java.lang.instrument.Instrumentation").asType();
+        Set<Modifier> publicStatic = EnumSet.of(Modifier.PUBLIC, Modifier.STATIC);
+        Set<Modifier> publicOnly = EnumSet.of(Modifier.PUBLIC);
+        List<TypeMirror> none = Collections.emptyList();
+        rootElements = new Element[roots];
+        for (int i = 0; i < roots; i++) {
+            Model.TypeImpl type = env.elements.type(env.elements.pkg("com.example.app.module" + (i % 100)), "Type" + i);
+            for (int j = 0; j < methods; j++) {
+                new Model.MethodImpl(type, "method" + j, publicOnly, Model.NoTypeImpl.VOID, none);
+            }
+            Model.TypeImpl nested = env.elements.type(type, "Nested");
+            // name matches but the signature does not
+            new Model.MethodImpl(nested, "main", publicStatic, Model.NoTypeImpl.VOID, Collections.singletonList(string));
+            if (i == roots / 2) {
+                new Model.MethodImpl(type, "main", publicStatic, Model.NoTypeImpl.VOID, Collections.singletonList(stringArray));
+                new Model.MethodImpl(nested, "premain", publicStatic, Model.NoTypeImpl.VOID, Arrays.asList(string, instrumentation));
+            }
+            rootElements[i] = type;
+        }
+    }
+
+    @Benchmark public String scan() {
+        List<RootVisitor> visitors = new ArrayList<RootVisitor>();
+        visitors.add(new CommonPackageFinder(env.getMessager()));
+        visitors.add(MainMethodFinder.main(env));
+        visitors.add(MainMethodFinder.premain(env));
+        visitors.add(MainMethodFinder.agentmain(env));
+        RootScanner scanner = new RootScanner(env.elements, visitors, null);
+        Index index = Index.empty("");
+        for (Element rootElement : rootElements) {
+            scanner.scan(rootElement, index.visit(rootElement));
+        }
+        return visitors.get(0).getValue() + visitors.get(1).getValue() + visitors.get(2).getValue();
+    }
+}
@@ -0,0 +1,49 @@
+package com.hunterwb.automanifest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The name helpers in {@link Util}. {@code splitMatchLength} is the former
+ * approach of splitting both names into components before comparing them,
+ * kept as a baseline for {@code packageMatchLength}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilBenchmark {
+
+    public String a = "com.example.application.service.internal.impl";
+
+    public String b = "com.example.application.service.api";
+
+    public Object[] components = a.split("\\.", -1);
+
+    @Benchmark public int packageMatchLength() {
+        return Util.packageMatchLength(a, b);
+    }
+
+    @Benchmark public int splitMatchLength() {
+        return Util.matchLength(a.split("\\.", -1), b.split("\\.", -1));
+    }
+
+    @Benchmark public int matchLength() {
+        return Util.matchLength(components, components);
+    }
+
+    @Benchmark public String joinToString() {
+        return Util.joinToString(components, '.');
+    }
+}
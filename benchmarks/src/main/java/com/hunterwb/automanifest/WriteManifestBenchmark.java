@@ -0,0 +1,73 @@
+package com.hunterwb.automanifest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.lang.model.element.TypeElement;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The read-merge-write of an existing {@code META-INF/MANIFEST.MF} with
+ * {@code entries} per-entry sections, run through {@link AutoManifest} with an
+ * in-memory {@link javax.annotation.processing.Filer}. With {@code changed} the
+ * main section differs and the manifest is rewritten, otherwise it is only
+ * read and compared.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteManifestBenchmark {
+
+    private static final String OPTIONS = "Main-Class:com.example.Main,Implementation-Version:1.0";
+
+    @Param({"5", "500", "50000"})
+    public int entries;
+
+    @Param({"true", "false"})
+    public boolean changed;
+
+    private Model.Env env;
+
+    private final Model.LastRound lastRound = new Model.LastRound();
+
+    @Setup public void setup() throws IOException {
+        env = new Model.Env();
+        env.options.put("automanifest", OPTIONS);
+        StringBuilder sb = new StringBuilder();
+        sb.append("Manifest-Version: 1.0\r\n");
+        sb.append("Created-By: benchmark\r\n");
+        sb.append("Main-Class: ").append(changed ? "com.example.Old" : "com.example.Main").append("\r\n");
+        sb.append("Implementation-Version: 1.0\r\n");
+        sb.append("\r\n");
+        for (int i = 0; i < entries; i++) {
+            sb.append("Name: com/example/module").append(i % 100).append("/Type").append(i).append(".class\r\n");
+            sb.append("SHA-256-Digest: 47DEQpj8HBSa+/TImW+5JCeuQeRkm5NMpJWZG3hSuFU=\r\n");
+            sb.append("\r\n");
+        }
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        b.write(sb.toString().getBytes("UTF-8"));
+        env.filer.resources.put("META-INF/MANIFEST.MF", b.toByteArray());
+    }
+
+    @Benchmark public AutoManifest writeManifest() {
+        AutoManifest processor = new AutoManifest();
+        processor.init(env);
+        processor.process(Collections.<TypeElement>emptySet(), lastRound);
+        return processor;
+    }
+}
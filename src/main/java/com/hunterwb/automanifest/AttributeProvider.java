@@ -0,0 +1,84 @@
+package com.hunterwb.automanifest;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Computes the value of an attribute that is not built in during the single
+ * walk of the root elements shared by all attributes, so that it ends up in
+ * the one write of the manifest without another processor walking every
+ * element and rewriting the manifest.
+ * <p>
+ * Providers are found with {@link java.util.ServiceLoader} on the processor
+ * path, in {@code META-INF/services/com.hunterwb.automanifest.AttributeProvider},
+ * and a new instance is created for every compilation. A provider is only used
+ * when its attribute name is given in {@code -Aautomanifest}.
+ * <p>
+ * The contributions of every root element are recorded between compilations
+ * like those of the built-in attributes, so after an incremental compilation
+ * {@link #add} is also called with the recorded contributions of the types
+ * that were not recompiled. The value must therefore only depend on the set
+ * of contributions.
+ */
+public abstract class AttributeProvider {
+
+    RootVisitor visitor;
+
+    /**
+     * The name of the computed attribute
+     */
+    public abstract String attributeName();
+
+    /**
+     * The kinds of the elements passed to {@link #visit}. Packages are only
+     * visited for {@code package-info.java} files.
+     */
+    public abstract Set<ElementKind> elementKinds();
+
+    /**
+     * Globs that the names of the elements passed to {@link #visit} must
+     * match one of, or none for all elements. The name of a type or package is
+     * its qualified name and that of any other element is the qualified name
+     * of its type, a {@code .} and its simple name. In a glob {@code *}
+     * matches within one name segment and {@code **} matches across segments.
+     */
+    public Collection<String> namePatterns() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Called once before any element is visited
+     */
+    public void init(ProcessingEnvironment env) {}
+
+    /**
+     * Visits an element of one of the {@link #elementKinds} matching the
+     * {@link #namePatterns}, which may {@link #contribute} to the value
+     */
+    public abstract void visit(Element element);
+
+    /**
+     * Records a contribution of the element being visited and passes it to
+     * {@link #add}. Contributions may not contain line breaks.
+     */
+    protected final void contribute(String value) {
+        if (value.indexOf('\n') != -1 || value.indexOf('\r') != -1) throw new IllegalArgumentException("Line break in contribution: " + value);
+        if (visitor == null || visitor.entry == null) throw new IllegalStateException("Not visiting an element");
+        visitor.found(value);
+    }
+
+    /**
+     * Adds a contribution made during this compilation or recorded by an
+     * earlier one
+     */
+    public abstract void add(String value);
+
+    /**
+     * Returns the value of the attribute, or {@code null} to leave it out
+     */
+    public abstract String getValue();
+}
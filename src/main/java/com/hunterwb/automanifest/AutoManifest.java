@@ -10,16 +10,10 @@ import javax.lang.model.element.Element;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.TypeElement;
 import javax.tools.Diagnostic;
-import java.io.BufferedOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.HashSet;
 import java.util.Set;
-import java.util.jar.Attributes;
-import java.util.jar.Manifest;
 
 /**
  * Automatically generate jar manifest
@@ -30,9 +24,12 @@ import java.util.jar.Manifest;
  * as a comma separated list:
  * {@code -Aautomanifest=Automatic-Module-Name,Main-Class}. If no arguments are
  * given the default is {@code -Aautomanifest=Main-Class}. The jar manifest file
- * is created at {@code META-INF/MANIFEST.MF} or updated if it already exists. A
- * jar file is not created and the generated manifest file must later be added
- * into the actual jar file.
+ * is created at {@code META-INF/MANIFEST.MF} or updated if it already exists.
+ * The manifest is always written the same way, with {@code Manifest-Version}
+ * first, existing attributes in their original order followed by the given
+ * ones, {@code CRLF} line endings and lines wrapped at 72 bytes, and it is left
+ * untouched if its content would not change. A jar file is not created and the
+ * generated manifest file must later be added into the actual jar file.
  * <p>
  * Supported attributes:
  * <ul>
@@ -50,11 +47,96 @@ import java.util.jar.Manifest;
  *     <li>{@code Build-Os}: {@code ${os.name} (${os.version}; ${os.arch})}</li>
  * </ul>
  * <p>
- * Any other attribute names on their own will produce a warning. Custom
- * attribute values can be used with any attribute name by including a colon
- * along with the value: {@code Custom-Attribute:custom_value}. These values may
- * not contain any commas. Only main attributes are supported, not per-entry
- * attributes.
+ * Supported git based attributes, read directly from the repository containing
+ * the class output directory without running {@code git}:
+ * <ul>
+ *     <li>{@code Build-Revision}: The commit hash of {@code HEAD}</li>
+ *     <li>{@code Build-Branch}: The name of the checked out branch. If {@code HEAD} is detached a warning is emitted.</li>
+ *     <li>{@code Build-Dirty}: {@code true} if there are staged or unstaged changes to tracked files, {@code false} otherwise</li>
+ * </ul>
+ * <p>
+ * The contributions of every compiled type to the computed attributes are
+ * recorded in {@code META-INF/automanifest.idx} next to the manifest. When only
+ * some of the types are recompiled, such as during an incremental build, the
+ * recorded contributions of the unchanged types that still exist are merged
+ * with the recompiled ones instead of being lost. The processor is registered
+ * as an aggregating incremental annotation processor for Gradle.
+ * <p>
+ * Compilations into the same directory on the file system update the manifest
+ * and the other resources one after the other, under a lock that is also
+ * respected by other processes. They write temporary files that are renamed
+ * over the originals. The attributes of an existing manifest that a
+ * compilation does not write are kept. Computed attributes are determined
+ * from the contributions recorded by all compilations in the index. A
+ * computed attribute without a value leaves the existing one in place. Any
+ * other attribute takes the value of the last compilation.
+ * <p>
+ * Any other attribute names on their own are computed by the
+ * {@link AttributeProvider} for that name on the processor path, or otherwise
+ * produce a warning. Custom attribute values can be used with any attribute
+ * name by including a colon along with the value:
+ * {@code Custom-Attribute:custom_value}. These values may not contain any
+ * commas. Only main attributes are supported, not per-entry attributes. The
+ * per-entry sections of an existing manifest are copied byte for byte without
+ * being parsed.
+ * <p>
+ * Root elements whose qualified name or package matches one of the comma
+ * separated globs of {@code -Aautomanifest.exclude} are skipped along with
+ * everything they enclose, and with {@code -Aautomanifest.include} only the
+ * matching root elements are visited. In a glob {@code *} matches within one
+ * name segment and {@code **} matches across segments. With
+ * {@code -Aautomanifest.skipGenerated} the root elements of every round after
+ * the first and the types annotated with {@code @Generated} are skipped.
+ * <p>
+ * With {@code -Aautomanifest.stats} a JSON report of the time spent and the
+ * work done by the processor is written to
+ * {@code META-INF/automanifest/stats.json}, or to the given file with
+ * {@code -Aautomanifest.stats=path/to/stats.json}.
+ * <p>
+ * With {@code -Aautomanifest.classlist} the classes of the project reachable
+ * from the {@code Main-Class} through the types of its fields, method
+ * signatures, supertypes and annotations, and transitively from those, are
+ * written to {@code META-INF/automanifest/classlist} in the format of
+ * {@code -XX:SharedClassListFile}, for creating an AppCDS archive without a
+ * training run. Types only used inside method bodies are not included.
+ * <p>
+ * With {@code -Aautomanifest.nativeImage=group/artifact} a GraalVM
+ * {@code native-image.properties} setting the {@code Main-Class} and the image
+ * name, and a {@code reflect-config.json} registering the methods of the agent
+ * classes, are written to {@code META-INF/native-image/group/artifact/}.
+ * Without a value the directory is derived from the
+ * {@code Automatic-Module-Name}.
+ * <p>
+ * With {@code -Aautomanifest.entryPoints} every class with a {@code main},
+ * {@code premain} or {@code agentmain} method is recorded in a sorted binary
+ * index read by {@link EntryPoints}.
+ * <p>
+ * With {@code -Aautomanifest.moduleInfo} a {@code module-info.class} is
+ * written for an open module named by the {@code Automatic-Module-Name} or
+ * the common package, which exports every compiled package and lists them in
+ * its {@code ModulePackages} attribute, has the {@code Main-Class} as its
+ * {@code ModuleMainClass} and provides the services of
+ * {@code META-INF/services}. It requires the modules and uses the services
+ * found by {@link ModuleDependencyFinder}, other modules and used services
+ * are given as a comma separated list like
+ * {@code -Aautomanifest.moduleInfo=java.sql,uses:com.example.Plugin}.
+ * <p>
+ * With {@code -Aautomanifest.startup} the classes initialized by the
+ * {@code Main-Class} and the agent classes are followed through the static
+ * initializers of the compiled classes and the compiled methods they call.
+ * The classes and the calls to reflection, {@code ServiceLoader} and regular
+ * expressions are reported as diagnostics and written to
+ * {@code META-INF/automanifest/startup.json}. This requires the compiler tree
+ * API of {@code javac}.
+ * <p>
+ * Classes compiled without the processor can be scanned after compilation
+ * with {@link Main}, which reads the class files of a directory or jar and
+ * writes the same manifest. It can also put a manifest into an existing jar
+ * without recompressing its other entries.
+ * <p>
+ * A processor instance can be reused for any number of compilations, also
+ * concurrently on different threads, as done by persistent compiler daemons.
+ * The parsed options are shared by all compilations with the same options.
  * <p>
  * More information:
  * <ul>
@@ -65,29 +147,33 @@ import java.util.jar.Manifest;
  */
 public final class AutoManifest implements Processor {
 
-    private static final String OPTION_NAME = "automanifest";
+    static final String STATS_OPTION_NAME = "automanifest.stats";
+
+    static final String INCLUDE_OPTION_NAME = "automanifest.include";
+
+    static final String EXCLUDE_OPTION_NAME = "automanifest.exclude";
+
+    static final String SKIP_GENERATED_OPTION_NAME = "automanifest.skipGenerated";
 
-    private static final String CREATED_BY = "Created-By";
-    private static final String AUTOMATIC_MODULE_NAME = "Automatic-Module-Name";
-    private static final String MAIN_CLASS = "Main-Class";
-    private static final String PREMAIN_CLASS = "Premain-Class";
-    private static final String AGENT_CLASS = "Agent-Class";
-    private static final String LAUNCHER_AGENT_CLASS = "Launcher-Agent-Class";
-    private static final String BUILT_BY = "Built-By";
-    private static final String BUILD_JDK_SPEC = "Build-Jdk-Spec";
-    private static final String BUILD_JDK = "Build-Jdk";
-    private static final String BUILD_OS = "Build-Os";
+    static final String CLASSLIST_OPTION_NAME = "automanifest.classlist";
 
-    private static final String MANIFEST_VERSION_VALUE = "1.0";
+    static final String NATIVE_IMAGE_OPTION_NAME = "automanifest.nativeImage";
 
-    private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+    static final String ENTRY_POINTS_OPTION_NAME = "automanifest.entryPoints";
 
-    private ProcessingEnvironment env;
+    static final String MODULE_INFO_OPTION_NAME = "automanifest.moduleInfo";
 
-    private final Map<Attributes.Name, Object> entries = new LinkedHashMap<Attributes.Name, Object>();
+    static final String STARTUP_OPTION_NAME = "automanifest.startup";
+
+    /**
+     * Every compilation runs on its own thread, which allows one instance to
+     * be reused by persistent compilers, even for concurrent compilations
+     */
+    private final ThreadLocal<Compilation> compilation = new ThreadLocal<Compilation>();
 
     @Override public Set<String> getSupportedOptions() {
-        return Collections.singleton(OPTION_NAME);
+        return new HashSet<String>(Arrays.asList(Options.NAME, STATS_OPTION_NAME, INCLUDE_OPTION_NAME, EXCLUDE_OPTION_NAME, SKIP_GENERATED_OPTION_NAME, CLASSLIST_OPTION_NAME, NATIVE_IMAGE_OPTION_NAME,
+                ENTRY_POINTS_OPTION_NAME, MODULE_INFO_OPTION_NAME, STARTUP_OPTION_NAME));
     }
 
     @Override public Set<String> getSupportedAnnotationTypes() {
@@ -103,122 +189,29 @@ public final class AutoManifest implements Processor {
     }
 
     @Override public void init(ProcessingEnvironment processingEnv) {
-        if (env != null) throw new IllegalStateException();
-        env = Util.requireNonNull(processingEnv);
+        Util.requireNonNull(processingEnv);
+        // an earlier compilation on this thread may have ended without a last round
+        compilation.remove();
         try {
-            init();
+            compilation.set(new Compilation(processingEnv));
         } catch (Exception e) {
-            env.getMessager().printMessage(Diagnostic.Kind.ERROR, Util.getStackTraceAsString(e));
-        }
-    }
-
-    private void init() {
-        String options = Util.getOrDefault(env.getOptions(), OPTION_NAME, MAIN_CLASS);
-        for (String option : options.split(",", -1)) {
-            int colon = option.indexOf(':');
-            if (colon == -1) {
-                Attributes.Name name = name(option);
-                if (name != null) {
-                    Object value = getValue(name);
-                    if (value != null) {
-                        addEntry(name, value);
-                    }
-                }
-            } else {
-                Attributes.Name name = name(option.substring(0, colon));
-                if (name != null) {
-                    String value = option.substring(colon + 1);
-                    addEntry(name, value);
-                }
-            }
-        }
-    }
-
-    private Attributes.Name name(String s) {
-        Attributes.Name name;
-        if (s.startsWith("From") || s.equalsIgnoreCase("Name")) {
-            name = null;
-        } else {
-            try {
-                name = new Attributes.Name(s);
-            } catch (IllegalArgumentException e) {
-                name = null;
-            }
-        }
-        if (name == null) {
-            env.getMessager().printMessage(Diagnostic.Kind.WARNING, "Illegal name: " + s);
-        }
-        return name;
-    }
-
-    private void addEntry(Attributes.Name name, Object value) {
-        if (entries.put(name, value) != null) {
-            env.getMessager().printMessage(Diagnostic.Kind.WARNING, "Duplicate name: " + name);
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, Util.getStackTraceAsString(e));
         }
     }
 
-    private Object getValue(Attributes.Name name) {
-        String s = name.toString();
-        if (s.equalsIgnoreCase(CREATED_BY) || s.equalsIgnoreCase(BUILD_JDK)) {
-            return System.getProperty("java.version") + " (" + System.getProperty("java.vendor") + ')';
-        } else if (s.equalsIgnoreCase(AUTOMATIC_MODULE_NAME)) {
-            return new CommonPackageFinder(env);
-        } else if (s.equalsIgnoreCase(MAIN_CLASS)) {
-            return MainMethodFinder.main(env);
-        } else if (s.equalsIgnoreCase(PREMAIN_CLASS)) {
-            return MainMethodFinder.premain(env);
-        } else if (s.equalsIgnoreCase(AGENT_CLASS) || s.equalsIgnoreCase(LAUNCHER_AGENT_CLASS)) {
-            return MainMethodFinder.agentmain(env);
-        } else if (s.equalsIgnoreCase(BUILT_BY)) {
-            return System.getProperty("user.name");
-        } else if (s.equalsIgnoreCase(BUILD_JDK_SPEC)) {
-            return System.getProperty("java.specification.version");
-        } else if (s.equalsIgnoreCase(BUILD_OS)) {
-            return System.getProperty("os.name") + " (" + System.getProperty("os.version") + "; " + System.getProperty("os.arch") + ')';
-        }
-        env.getMessager().printMessage(Diagnostic.Kind.WARNING, "Unrecognized name: " + s);
-        return null;
-    }
-
     @Override public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
-        if (!entries.isEmpty()) {
+        Compilation c = compilation.get();
+        if (c != null) {
             try {
+                c.process(roundEnv);
+            } catch (Exception e) {
+                c.printError(e);
+            } finally {
                 if (roundEnv.processingOver()) {
-                    writeManifest();
-                } else {
-                    for (Object v : entries.values()) {
-                        if (v instanceof RootVisitor) {
-                            ((RootVisitor) v).visitRootElements(roundEnv.getRootElements());
-                        }
-                    }
+                    compilation.remove();
                 }
-            } catch (Exception e) {
-                env.getMessager().printMessage(Diagnostic.Kind.ERROR, Util.getStackTraceAsString(e));
             }
         }
         return false;
     }
-
-    private void writeManifest() throws IOException {
-        InputStream inputStream = Util.openResourceInput(env, MANIFEST_NAME);
-        Manifest manifest = inputStream == null ? new Manifest() : Util.readManifestClose(inputStream);
-        updateManifest(manifest);
-        OutputStream outputStream = Util.openResourceOutput(env, MANIFEST_NAME);
-        Util.writeManifestClose(manifest, new BufferedOutputStream(outputStream));
-    }
-
-    private void updateManifest(Manifest m) {
-        Attributes attr = m.getMainAttributes();
-        Util.putIfAbsent(attr, Attributes.Name.MANIFEST_VERSION, MANIFEST_VERSION_VALUE);
-        for (Map.Entry<Attributes.Name, Object> e : entries.entrySet()) {
-            Attributes.Name name = e.getKey();
-            Object value = e.getValue();
-            if (value instanceof RootVisitor) {
-                value = ((RootVisitor) value).getValue();
-                if (value == null) continue;
-            }
-            attr.put(name, value);
-            env.getMessager().printMessage(Diagnostic.Kind.NOTE, name + ": " + value);
-        }
-    }
 }
@@ -0,0 +1,104 @@
+package com.hunterwb.automanifest;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.TypeElement;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Tells when {@code javac} has written the class file of a type and when the
+ * compilation ended, which happen after the last round of annotation
+ * processing. Uses the {@code TaskListener} of the compiler tree API through
+ * reflection, like {@link StartupAnalysis}. Before Java 9 the end of the
+ * compilation is not told, so nothing is registered, as a callback waiting
+ * for a class file that is never written would never end.
+ */
+final class ClassFileListener implements InvocationHandler {
+
+    interface Callback {
+
+        /**
+         * The class file of the type with the qualified name was written
+         */
+        void written(String qualifiedName);
+
+        /**
+         * The compilation ended, also if it failed
+         */
+        void ended();
+    }
+
+    private final Callback callback;
+
+    private final Method getKind;
+
+    private final Method getTypeElement;
+
+    private ClassFileListener(Callback callback, Method getKind, Method getTypeElement) {
+        this.callback = callback;
+        this.getKind = getKind;
+        this.getTypeElement = getTypeElement;
+    }
+
+    /**
+     * Adds the callback to the compilation, returning {@code false} if the
+     * compiler does not have the tree API of {@code javac} or does not tell
+     * when the compilation ended
+     */
+    static boolean register(ProcessingEnvironment env, Callback callback) {
+        ClassLoader loader = env.getClass().getClassLoader();
+        if (loader == null) loader = ClassLoader.getSystemClassLoader();
+        try {
+            Class<?> taskClass = Class.forName("com.sun.source.util.JavacTask", false, loader);
+            Class<?> listenerClass = Class.forName("com.sun.source.util.TaskListener", false, loader);
+            Class<?> eventClass = Class.forName("com.sun.source.util.TaskEvent", false, loader);
+            if (!hasCompilationKind(Class.forName("com.sun.source.util.TaskEvent$Kind", false, loader))) return false;
+            Object task = taskClass.getMethod("instance", ProcessingEnvironment.class).invoke(null, env);
+            ClassFileListener handler = new ClassFileListener(callback, eventClass.getMethod("getKind"), eventClass.getMethod("getTypeElement"));
+            Object listener = Proxy.newProxyInstance(listenerClass.getClassLoader(), new Class<?>[]{listenerClass}, handler);
+            taskClass.getMethod("addTaskListener", listenerClass).invoke(task, listener);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        } catch (NoSuchMethodException e) {
+            return false;
+        } catch (IllegalAccessException e) {
+            return false;
+        } catch (InvocationTargetException e) {
+            // IllegalArgumentException for a processing environment that is not the one of javac
+            return false;
+        } catch (LinkageError e) {
+            return false;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static boolean hasCompilationKind(Class<?> kindClass) {
+        Object[] kinds = kindClass.getEnumConstants();
+        if (kinds == null) return false;
+        for (Object kind : kinds) {
+            if (((Enum<?>) kind).name().equals("COMPILATION")) return true;
+        }
+        return false;
+    }
+
+    @Override public Object invoke(Object proxy, Method method, Object[] args) throws IllegalAccessException, InvocationTargetException {
+        String name = method.getName();
+        if (name.equals("equals")) return proxy == args[0];
+        if (name.equals("hashCode")) return System.identityHashCode(proxy);
+        if (name.equals("toString")) return ClassFileListener.class.getName();
+        if (!name.equals("finished")) return null;
+        // the kinds are compared by name as COMPILATION does not exist before Java 9
+        String kind = ((Enum<?>) getKind.invoke(args[0])).name();
+        if (kind.equals("GENERATE")) {
+            TypeElement type = (TypeElement) getTypeElement.invoke(args[0]);
+            if (type != null) callback.written(type.getQualifiedName().toString());
+        } else if (kind.equals("COMPILATION")) {
+            callback.ended();
+        }
+        return null;
+    }
+}
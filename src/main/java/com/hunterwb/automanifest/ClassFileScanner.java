@@ -0,0 +1,595 @@
+package com.hunterwb.automanifest;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Finds the same packages and main methods as {@link CommonPackageFinder} and
+ * {@link MainMethodFinder} in compiled class files, for classes that were not
+ * compiled with the processor. Only the constant pool, the access flags and
+ * the method names and descriptors are parsed, the classes are never loaded.
+ * <p>
+ * The files are split between a fixed number of threads, each of which
+ * collects its own {@link Result} that are merged at the end. Large class
+ * files are memory mapped, smaller ones are read into a buffer reused by the
+ * thread as mapping costs more than copying a few kilobytes. Jars are mapped
+ * as a whole with a {@link JarReader}, whose stored entries are parsed in
+ * place and whose deflated entries are inflated into the buffer of the thread.
+ * <p>
+ * A {@link NameFilter} is applied like the processor applies it to root
+ * elements: the includes to the top level class and the excludes to it and
+ * to every class enclosing a nested class, found by splitting the binary name
+ * at each {@code $}.
+ */
+final class ClassFileScanner {
+
+    private static final int MAP_THRESHOLD = 64 * 1024;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_MODULE = 0x8000;
+
+    private static final byte[] MAIN_DESCRIPTOR = Util.ascii("([Ljava/lang/String;)V");
+
+    private static final byte[][] PREMAIN_DESCRIPTORS = {
+            Util.ascii("(Ljava/lang/String;Ljava/lang/instrument/Instrumentation;)V"),
+            Util.ascii("(Ljava/lang/String;)V")
+    };
+
+    private final String[] names;
+
+    private final byte[][] methodNames;
+
+    private final byte[][][] descriptors;
+
+    private final NameFilter filter;
+
+    private final int threads;
+
+    /**
+     * @param methodNames names of the main methods to find, which must be
+     *                    {@code main}, {@code premain} or {@code agentmain}
+     * @param filter      the classes to scan or {@code null} for all
+     */
+    ClassFileScanner(Collection<String> methodNames, NameFilter filter, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("threads: " + threads);
+        this.names = methodNames.toArray(new String[methodNames.size()]);
+        this.methodNames = new byte[names.length][];
+        this.descriptors = new byte[methodNames.size()][][];
+        int i = 0;
+        for (String name : methodNames) {
+            this.methodNames[i] = Util.ascii(name);
+            this.descriptors[i] = name.equals("main") ? new byte[][]{MAIN_DESCRIPTOR} : PREMAIN_DESCRIPTORS;
+            i++;
+        }
+        this.filter = filter;
+        this.threads = threads;
+    }
+
+    static final class Result {
+
+        /**
+         * Packages of all classes, including {@code package-info}
+         */
+        final Set<String> packages;
+
+        /**
+         * Binary names of the classes declaring each main method
+         */
+        final Map<String, Set<String>> classNames;
+
+        private Result(Set<String> packages, Map<String, Set<String>> classNames) {
+            this.packages = packages;
+            this.classNames = classNames;
+        }
+    }
+
+    /**
+     * Scans a directory of class files or a jar file
+     */
+    Result scan(File file) throws IOException {
+        if (file.isDirectory()) {
+            List<File> files = new ArrayList<File>();
+            listClassFiles(file, true, files);
+            return scan(new DirectorySource(files));
+        } else if (file.isFile()) {
+            JarReader reader = JarReader.open(file);
+            if (reader != null) {
+                try {
+                    return scan(reader);
+                } finally {
+                    reader.close();
+                }
+            }
+            ZipFile zipFile = new ZipFile(file);
+            try {
+                List<ZipEntry> entries = new ArrayList<ZipEntry>();
+                for (Enumeration<? extends ZipEntry> e = zipFile.entries(); e.hasMoreElements(); ) {
+                    ZipEntry entry = e.nextElement();
+                    if (!entry.isDirectory() && isClassFile(entry.getName())) {
+                        entries.add(entry);
+                    }
+                }
+                return scan(new ZipSource(zipFile, entries));
+            } finally {
+                zipFile.close();
+            }
+        } else {
+            throw new IOException("No such file or directory: " + file);
+        }
+    }
+
+    /**
+     * Scans the class files of a mapped jar, which can be closed afterwards
+     * as no task reads it any more
+     */
+    Result scan(JarReader reader) throws IOException {
+        int[] entries = new int[reader.size()];
+        int n = 0;
+        for (int i = 0; i < entries.length; i++) {
+            if (isClassFile(reader.name(i))) entries[n++] = i;
+        }
+        return scan(new JarSource(reader, Arrays.copyOf(entries, n)));
+    }
+
+    private static void listClassFiles(File dir, boolean root, List<File> files) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) throw new IOException("Could not list " + dir);
+        for (File child : children) {
+            String name = child.getName();
+            if (child.isDirectory()) {
+                if (!(root && name.equals("META-INF"))) {
+                    listClassFiles(child, false, files);
+                }
+            } else if (name.endsWith(".class") && !(root && name.equals("module-info.class"))) {
+                files.add(child);
+            }
+        }
+    }
+
+    /**
+     * Excludes {@code module-info.class} and everything in {@code META-INF},
+     * including the versioned classes of a multi-release jar
+     */
+    private static boolean isClassFile(String entryName) {
+        return entryName.endsWith(".class") && !entryName.startsWith("META-INF/") && !entryName.equals("module-info.class");
+    }
+
+    private Result scan(final Source source) throws IOException {
+        final AtomicInteger next = new AtomicInteger();
+        int n = Math.min(threads, Math.max(1, source.size()));
+        List<Callable<Result>> tasks = new ArrayList<Callable<Result>>(n);
+        for (int t = 0; t < n; t++) {
+            tasks.add(new Callable<Result>() {
+                @Override public Result call() throws IOException {
+                    Worker worker = new Worker();
+                    try {
+                        int i;
+                        while ((i = next.getAndIncrement()) < source.size()) {
+                            ByteBuffer b = source.read(i, worker);
+                            try {
+                                worker.parse(b);
+                            } catch (RuntimeException e) {
+                                // BufferUnderflowException or IndexOutOfBoundsException from a truncated file
+                                throw new IOException("Malformed class file " + source.name(i), e);
+                            } catch (IOException e) {
+                                throw new IOException(e.getMessage() + ": " + source.name(i), e);
+                            }
+                        }
+                        return worker.result;
+                    } finally {
+                        worker.end();
+                    }
+                }
+            });
+        }
+        if (n == 1) {
+            try {
+                return merge(Collections.singletonList(tasks.get(0).call()));
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(n);
+        try {
+            List<Result> results = new ArrayList<Result>(n);
+            for (Future<Result> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return merge(results);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new AssertionError(cause);
+        } finally {
+            executor.shutdownNow();
+            awaitTermination(executor);
+        }
+    }
+
+    /**
+     * Waits for the tasks that are still running after a failure or an
+     * interrupt, as they may read a mapping that the caller releases
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.MINUTES)) break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private Result merge(List<Result> results) {
+        Set<String> packages = new TreeSet<String>();
+        Map<String, Set<String>> classNames = new TreeMap<String, Set<String>>();
+        for (String name : names) {
+            classNames.put(name, new TreeSet<String>());
+        }
+        for (Result r : results) {
+            packages.addAll(r.packages);
+            for (Map.Entry<String, Set<String>> e : r.classNames.entrySet()) {
+                classNames.get(e.getKey()).addAll(e.getValue());
+            }
+        }
+        return new Result(packages, classNames);
+    }
+
+    private abstract static class Source {
+
+        abstract int size();
+
+        abstract String name(int i);
+
+        abstract ByteBuffer read(int i, Worker worker) throws IOException;
+    }
+
+    private static final class DirectorySource extends Source {
+
+        private final List<File> files;
+
+        DirectorySource(List<File> files) {
+            this.files = files;
+        }
+
+        @Override int size() {
+            return files.size();
+        }
+
+        @Override String name(int i) {
+            return files.get(i).getPath();
+        }
+
+        @Override ByteBuffer read(int i, Worker worker) throws IOException {
+            FileInputStream inputStream = new FileInputStream(files.get(i));
+            try {
+                FileChannel channel = inputStream.getChannel();
+                long size = channel.size();
+                if (size >= MAP_THRESHOLD) {
+                    // stays valid after the channel is closed
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+                ByteBuffer b = worker.buffer((int) size);
+                while (b.hasRemaining() && channel.read(b) != -1) {}
+                b.flip();
+                return b;
+            } finally {
+                inputStream.close();
+            }
+        }
+    }
+
+    private static final class ZipSource extends Source {
+
+        private final ZipFile zipFile;
+
+        private final List<ZipEntry> entries;
+
+        ZipSource(ZipFile zipFile, List<ZipEntry> entries) {
+            this.zipFile = zipFile;
+            this.entries = entries;
+        }
+
+        @Override int size() {
+            return entries.size();
+        }
+
+        @Override String name(int i) {
+            return zipFile.getName() + '!' + entries.get(i).getName();
+        }
+
+        @Override ByteBuffer read(int i, Worker worker) throws IOException {
+            ZipEntry entry = entries.get(i);
+            long size = entry.getSize();
+            ByteBuffer b = worker.buffer(size < 0 ? 8192 : (int) size);
+            byte[] array = b.array();
+            int length = 0;
+            InputStream inputStream = zipFile.getInputStream(entry);
+            try {
+                int n;
+                while ((n = inputStream.read(array, length, array.length - length)) != -1) {
+                    length += n;
+                    if (length == array.length) {
+                        // the size is unknown or wrong
+                        b = worker.buffer(array.length * 2);
+                        System.arraycopy(array, 0, b.array(), 0, length);
+                        array = b.array();
+                    }
+                }
+            } finally {
+                inputStream.close();
+            }
+            b.limit(length);
+            return b;
+        }
+    }
+
+    private static final class JarSource extends Source {
+
+        private final JarReader reader;
+
+        private final int[] entries;
+
+        JarSource(JarReader reader, int[] entries) {
+            this.reader = reader;
+            this.entries = entries;
+        }
+
+        @Override int size() {
+            return entries.length;
+        }
+
+        @Override String name(int i) {
+            return reader.file().getPath() + '!' + reader.name(entries[i]);
+        }
+
+        @Override ByteBuffer read(int i, Worker worker) throws IOException {
+            int entry = entries[i];
+            ByteBuffer data = reader.data(entry);
+            int method = reader.method(entry);
+            if (method == JarReader.STORED) return data;
+            if (method != JarReader.DEFLATED) throw new IOException("Unsupported compression method " + method + ": " + name(i));
+            int size = reader.uncompressedSize(entry);
+            if (size < 0) throw new IOException("Invalid size: " + name(i));
+            byte[] input = worker.input(data.remaining());
+            int inputLength = data.remaining();
+            data.get(input, 0, inputLength);
+            ByteBuffer b = worker.buffer(size);
+            try {
+                JarReader.inflate(worker.inflater(), input, inputLength, b.array(), size);
+            } catch (DataFormatException e) {
+                throw new IOException("Invalid compressed data: " + name(i), e);
+            }
+            return b;
+        }
+    }
+
+    /**
+     * Parses the class files of one thread
+     */
+    private final class Worker {
+
+        private final Result result;
+
+        private ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+        private int[] offsets = new int[1024];
+
+        private byte[] input;
+
+        private Inflater inflater;
+
+        Worker() {
+            Map<String, Set<String>> classNames = new HashMap<String, Set<String>>();
+            for (String name : names) {
+                classNames.put(name, new HashSet<String>());
+            }
+            result = new Result(new HashSet<String>(), classNames);
+        }
+
+        /**
+         * Returns the buffer of this thread, cleared and with room for at least {@code size} bytes
+         */
+        ByteBuffer buffer(int size) {
+            if (buffer.capacity() < size) {
+                buffer = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+            }
+            buffer.clear();
+            buffer.limit(size);
+            return buffer;
+        }
+
+        /**
+         * Returns the array of this thread for compressed data of at least {@code size} bytes
+         */
+        byte[] input(int size) {
+            if (input == null || input.length < size) {
+                input = new byte[Math.max(size, input == null ? 8192 : input.length * 2)];
+            }
+            return input;
+        }
+
+        Inflater inflater() {
+            if (inflater == null) inflater = new Inflater(true);
+            return inflater;
+        }
+
+        void end() {
+            if (inflater != null) inflater.end();
+        }
+
+        void parse(ByteBuffer b) throws IOException {
+            if (b.getInt(0) != 0xCAFEBABE) throw new IOException("Not a class file");
+            b.position(8);
+            int count = b.getShort() & 0xFFFF;
+            if (offsets.length < count) offsets = new int[Math.max(count, offsets.length * 2)];
+            for (int i = 1; i < count; i++) {
+                int tag = b.get();
+                offsets[i] = b.position();
+                switch (tag) {
+                    case 1: // Utf8
+                        int length = b.getShort() & 0xFFFF;
+                        b.position(b.position() + length);
+                        break;
+                    case 7: // Class
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        b.position(b.position() + 2);
+                        break;
+                    case 15: // MethodHandle
+                        b.position(b.position() + 3);
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        b.position(b.position() + 4);
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        b.position(b.position() + 8);
+                        i++;
+                        break;
+                    default:
+                        throw new IOException("Unknown constant pool tag " + tag);
+                }
+            }
+            int access = b.getShort() & 0xFFFF;
+            if ((access & ACC_MODULE) != 0) return;
+            int thisClass = b.getShort() & 0xFFFF;
+            String internalName = utf8(b, offsets[b.getShort(offsets[thisClass]) & 0xFFFF]);
+            int slash = internalName.lastIndexOf('/');
+            String packageName = slash == -1 ? "" : internalName.substring(0, slash).replace('/', '.');
+            if (filter != null && filtered(packageName, internalName.replace('/', '.'))) return;
+            result.packages.add(packageName);
+            if (methodNames.length == 0) return;
+
+            b.position(b.position() + 2); // super_class
+            int interfaces = b.getShort() & 0xFFFF;
+            b.position(b.position() + 2 * interfaces);
+            int fields = b.getShort() & 0xFFFF;
+            for (int i = 0; i < fields; i++) {
+                b.position(b.position() + 6);
+                skipAttributes(b);
+            }
+            String binaryName = null;
+            int methods = b.getShort() & 0xFFFF;
+            for (int i = 0; i < methods; i++) {
+                int methodAccess = b.getShort() & 0xFFFF;
+                int name = b.getShort() & 0xFFFF;
+                int descriptor = b.getShort() & 0xFFFF;
+                skipAttributes(b);
+                if ((methodAccess & (ACC_PUBLIC | ACC_STATIC)) != (ACC_PUBLIC | ACC_STATIC)) continue;
+                for (int m = 0; m < methodNames.length; m++) {
+                    if (utf8Equals(b, offsets[name], methodNames[m]) && anyUtf8Equals(b, offsets[descriptor], descriptors[m])) {
+                        if (binaryName == null) binaryName = internalName.replace('/', '.');
+                        result.classNames.get(names[m]).add(binaryName);
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean filtered(String packageName, String binaryName) {
+        int dollar = binaryName.indexOf('$', packageName.length() + 1);
+        if (!filter.includes(packageName, dollar == -1 ? binaryName : binaryName.substring(0, dollar))) return true;
+        for (; dollar != -1; dollar = binaryName.indexOf('$', dollar + 1)) {
+            if (filter.excludes(packageName, binaryName.substring(0, dollar).replace('$', '.'))) return true;
+        }
+        return filter.excludes(packageName, binaryName.replace('$', '.'));
+    }
+
+    private static void skipAttributes(ByteBuffer b) {
+        int attributes = b.getShort() & 0xFFFF;
+        for (int i = 0; i < attributes; i++) {
+            b.position(b.position() + 2);
+            int length = b.getInt();
+            b.position(b.position() + length);
+        }
+    }
+
+    private static boolean anyUtf8Equals(ByteBuffer b, int offset, byte[][] expected) {
+        for (byte[] e : expected) {
+            if (utf8Equals(b, offset, e)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Compares the {@code CONSTANT_Utf8_info} at the offset with the bytes
+     * without decoding it
+     */
+    private static boolean utf8Equals(ByteBuffer b, int offset, byte[] expected) {
+        if ((b.getShort(offset) & 0xFFFF) != expected.length) return false;
+        for (int i = 0; i < expected.length; i++) {
+            if (b.get(offset + 2 + i) != expected[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the modified UTF-8 of the {@code CONSTANT_Utf8_info} at the offset
+     */
+    private static String utf8(ByteBuffer b, int offset) throws IOException {
+        int length = b.getShort(offset) & 0xFFFF;
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            byte c = b.get(offset + 2 + i);
+            if (c < 0) {
+                byte[] bytes = new byte[2 + length];
+                for (int j = 0; j < bytes.length; j++) {
+                    bytes[j] = b.get(offset + j);
+                }
+                return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+            }
+            chars[i] = (char) c;
+        }
+        return new String(chars);
+    }
+
+}
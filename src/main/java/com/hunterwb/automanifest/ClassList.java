@@ -0,0 +1,170 @@
+package com.hunterwb.automanifest;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.TypeVariable;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Collects the classes of the project that are statically reachable from a
+ * class through the types in the signatures of its members, its supertypes and
+ * its annotations, for an AppCDS class list
+ */
+final class ClassList {
+
+    static final String NAME = "META-INF/automanifest/classlist";
+
+    private final Elements elements;
+
+    private final Types types;
+
+    private final Set<String> rootNames = new HashSet<String>();
+
+    private final File classOutput;
+
+    private final Set<TypeElement> visited = new HashSet<TypeElement>();
+
+    private final Set<Element> visitedTypeVariables = new HashSet<Element>();
+
+    private final ArrayDeque<TypeElement> queue = new ArrayDeque<TypeElement>();
+
+    private final Set<String> classNames = new LinkedHashSet<String>();
+
+    /**
+     * The classes of the project are the root elements of the compilation and
+     * the classes already in the class output directory, if it is known
+     */
+    ClassList(Elements elements, Types types, Collection<? extends Element> rootElements, File classOutput) {
+        this.elements = elements;
+        this.types = types;
+        for (Element e : rootElements) {
+            if (e instanceof TypeElement) rootNames.add(elements.getBinaryName((TypeElement) e).toString());
+        }
+        this.classOutput = classOutput;
+    }
+
+    /**
+     * Adds the classes reachable from the type in the order they are found,
+     * starting with the type itself
+     */
+    void addReachable(TypeElement type) {
+        enqueue(type);
+        TypeElement t;
+        while ((t = queue.poll()) != null) {
+            classNames.add(elements.getBinaryName(t).toString().replace('.', '/'));
+            visitAnnotations(t);
+            visitType(t.getSuperclass());
+            for (TypeMirror i : t.getInterfaces()) {
+                visitType(i);
+            }
+            visitTypeParameters(t.getTypeParameters());
+            for (Element member : t.getEnclosedElements()) {
+                if (member.getKind().isField()) {
+                    visitAnnotations(member);
+                    visitType(member.asType());
+                } else if (member instanceof ExecutableElement) {
+                    ExecutableElement method = (ExecutableElement) member;
+                    visitAnnotations(method);
+                    visitTypeParameters(method.getTypeParameters());
+                    visitType(method.getReturnType());
+                    for (VariableElement parameter : method.getParameters()) {
+                        visitAnnotations(parameter);
+                        visitType(parameter.asType());
+                    }
+                    for (TypeMirror thrown : method.getThrownTypes()) {
+                        visitType(thrown);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The internal names of the classes, one per line, in the format of
+     * {@code -XX:SharedClassListFile}
+     */
+    byte[] toByteArray() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (String className : classNames) {
+            outputStream.write(className.getBytes(Util.UTF_8));
+            outputStream.write('\n');
+        }
+        return outputStream.toByteArray();
+    }
+
+    private void visitAnnotations(Element e) {
+        for (AnnotationMirror a : e.getAnnotationMirrors()) {
+            visitType(a.getAnnotationType());
+        }
+    }
+
+    private void visitTypeParameters(Collection<? extends TypeParameterElement> typeParameters) {
+        for (TypeParameterElement p : typeParameters) {
+            for (TypeMirror bound : p.getBounds()) {
+                visitType(bound);
+            }
+        }
+    }
+
+    private void visitType(TypeMirror t) {
+        if (t == null) return;
+        TypeKind kind = t.getKind();
+        if (kind == TypeKind.DECLARED) {
+            DeclaredType declared = (DeclaredType) t;
+            enqueue((TypeElement) declared.asElement());
+            for (TypeMirror argument : declared.getTypeArguments()) {
+                visitType(argument);
+            }
+        } else if (kind == TypeKind.ARRAY) {
+            visitType(((ArrayType) t).getComponentType());
+        } else if (kind == TypeKind.TYPEVAR) {
+            // bounds can refer back to the variable, as in T extends Comparable<T>
+            if (visitedTypeVariables.add(((TypeVariable) t).asElement())) {
+                visitType(((TypeVariable) t).getUpperBound());
+            }
+        } else if (kind == TypeKind.WILDCARD) {
+            visitType(((WildcardType) t).getExtendsBound());
+            visitType(((WildcardType) t).getSuperBound());
+        } else if (kind.name().equals("INTERSECTION")) {
+            // the bound of T extends A & B, not part of the Java 6 model
+            for (TypeMirror s : types.directSupertypes(t)) {
+                visitType(s);
+            }
+        }
+    }
+
+    private void enqueue(TypeElement type) {
+        if (visited.add(type) && isProjectClass(type)) {
+            queue.add(type);
+        }
+    }
+
+    private boolean isProjectClass(TypeElement type) {
+        String binaryName = elements.getBinaryName(type).toString();
+        if (rootNames.contains(binaryName)) return true;
+        Element e = type;
+        while (e.getEnclosingElement() instanceof TypeElement) {
+            e = e.getEnclosingElement();
+        }
+        if (rootNames.contains(elements.getBinaryName((TypeElement) e).toString())) return true;
+        return classOutput != null && new File(classOutput, binaryName.replace('.', File.separatorChar) + ".class").isFile();
+    }
+}
@@ -1,44 +1,71 @@
 package com.hunterwb.automanifest;
 
-import javax.annotation.processing.ProcessingEnvironment;
-import javax.lang.model.element.Element;
+import javax.annotation.processing.Messager;
 import javax.lang.model.element.PackageElement;
 import javax.tools.Diagnostic;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
-final class CommonPackageFinder extends RootVisitor {
+class CommonPackageFinder extends RootVisitor {
 
-    private final ProcessingEnvironment env;
+    private final Messager messager;
 
-    private String[] pkg;
+    private final Map<PackageElement, String> names = new HashMap<PackageElement, String>();
 
-    CommonPackageFinder(ProcessingEnvironment env) {
-        this.env = env;
+    private final Set<String> packages = new TreeSet<String>();
+
+    private String pkg;
+
+    CommonPackageFinder(Messager messager) {
+        this.messager = messager;
     }
 
-    @Override protected Void defaultAction(Element e, Void unused) {
-        PackageElement p = env.getElementUtils().getPackageOf(e);
-        if (p != null) {
-            apply(Util.nameComponents(p));
+    @Override boolean visitsPackages() {
+        return true;
+    }
+
+    @Override void visitPackage(PackageElement p) {
+        String name = names.get(p);
+        if (name == null) {
+            name = p.getQualifiedName().toString();
+            names.put(p, name);
+            found(name);
+        } else {
+            // already applied, only the index needs to know about this root
+            record(name);
         }
-        return null;
     }
 
-    private void apply(String[] pkg2) {
+    @Override String key() {
+        return "package";
+    }
+
+    @Override void add(String value) {
+        packages.add(value);
         if (pkg == null) {
-            pkg = pkg2;
-        } else {
-            int n = Util.matchLength(pkg, pkg2);
-            if (n != pkg.length) {
-                pkg = Util.resize(pkg2, n);
+            pkg = value;
+        } else if (pkg.length() != 0) {
+            int n = Util.packageMatchLength(pkg, value);
+            if (n != pkg.length()) {
+                pkg = pkg.substring(0, n);
             }
         }
     }
 
+    /**
+     * All packages that were added
+     */
+    Set<String> packages() {
+        return packages;
+    }
+
     @Override public String getValue() {
-        if (pkg == null || pkg.length == 0) {
-            env.getMessager().printMessage(Diagnostic.Kind.WARNING, "Found no common package");
+        if (pkg == null || pkg.length() == 0) {
+            messager.printMessage(Diagnostic.Kind.WARNING, "Found no common package");
             return null;
         }
-        return Util.joinToString(pkg, '.');
+        return pkg;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,549 @@
+package com.hunterwb.automanifest;
+
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.Name;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+
+/**
+ * The state of {@link AutoManifest} during one compilation, from
+ * {@link AutoManifest#init} until the last round
+ */
+final class Compilation {
+
+    private final ProcessingEnvironment env;
+
+    private final Map<Attributes.Name, Object> entries = new LinkedHashMap<Attributes.Name, Object>();
+
+    private final List<Element> rootElements = new ArrayList<Element>();
+
+    private Index index;
+
+    private RootScanner scanner;
+
+    private final List<RootVisitor> visitors = new ArrayList<RootVisitor>();
+
+    private Stats stats;
+
+    private boolean skipGenerated;
+
+    private boolean firstRound = true;
+
+    /**
+     * Finds the packages of the {@code module-info.class}, outside of the
+     * scanner as it visits every root element
+     */
+    private ModulePackageFinder modulePackages;
+
+    private ModuleDependencyFinder moduleDependencies;
+
+    /**
+     * Whether a {@code module-info.java} is compiled
+     */
+    private boolean declaresModule;
+
+    /**
+     * The class output if it is on the file system, where resources are
+     * created through the filer but replaced atomically
+     */
+    private File outputDirectory;
+
+    Compilation(ProcessingEnvironment env) {
+        this.env = env;
+        long start = System.nanoTime();
+        Options options = Options.of(Util.getOrDefault(env.getOptions(), Options.NAME, Options.DEFAULT));
+        if (env.getOptions().containsKey(AutoManifest.STATS_OPTION_NAME)) {
+            stats = new Stats(options.string);
+        }
+        for (String warning : options.warnings) {
+            env.getMessager().printMessage(Diagnostic.Kind.WARNING, warning);
+        }
+        Map<Attributes.Name, AttributeProvider> providers = null;
+        for (Map.Entry<Attributes.Name, Object> e : options.entries.entrySet()) {
+            Object value = e.getValue();
+            if (value == Options.PROVIDED) {
+                if (providers == null) providers = loadProviders();
+                AttributeProvider provider = providers.get(e.getKey());
+                if (provider == null) {
+                    env.getMessager().printMessage(Diagnostic.Kind.WARNING, "Unrecognized name: " + e.getKey());
+                    continue;
+                }
+                provider.init(env);
+                value = new ProviderVisitor(provider);
+            } else if (value instanceof Options.Computed) {
+                value = newVisitor((Options.Computed) value);
+            }
+            if (value instanceof RootVisitor) {
+                visitors.add((RootVisitor) value);
+                if (stats != null) stats.addVisitor(e.getKey().toString());
+            }
+            entries.put(e.getKey(), value);
+        }
+        if (env.getOptions().containsKey(AutoManifest.ENTRY_POINTS_OPTION_NAME)) {
+            // every main method is recorded, also those of attributes that were not requested
+            for (Options.Computed computed : Arrays.asList(Options.Computed.MAIN, Options.Computed.PREMAIN, Options.Computed.AGENTMAIN)) {
+                if (!options.entries.containsValue(computed)) {
+                    visitors.add(newVisitor(computed));
+                    if (stats != null) stats.addVisitor(computed.key);
+                }
+            }
+        }
+        if (env.getOptions().containsKey(AutoManifest.MODULE_INFO_OPTION_NAME)) {
+            modulePackages = new ModulePackageFinder(env.getMessager());
+            moduleDependencies = new ModuleDependencyFinder(env.getElementUtils(), SourceTrees.create(env));
+        }
+        if (entries.containsValue(Options.Git.REVISION) || entries.containsValue(Options.Git.BRANCH) || entries.containsValue(Options.Git.DIRTY)) {
+            File dir = Util.classOutputDirectory(env);
+            GitRepository.resolve(entries, dir == null ? new File("") : dir, env.getMessager());
+        }
+        if (stats != null) stats.initNanos = System.nanoTime() - start;
+        if (!visitors.isEmpty() || modulePackages != null) {
+            Map<String, String> processorOptions = env.getOptions();
+            String include = processorOptions.get(AutoManifest.INCLUDE_OPTION_NAME);
+            String exclude = processorOptions.get(AutoManifest.EXCLUDE_OPTION_NAME);
+            skipGenerated = processorOptions.containsKey(AutoManifest.SKIP_GENERATED_OPTION_NAME);
+            scanner = new RootScanner(env.getElementUtils(), visitors, NameFilter.of(include, exclude));
+            // the contributions depend on which root elements are visited
+            String indexOptions = options.string;
+            if (include != null || exclude != null || skipGenerated) {
+                indexOptions += " include=" + include + " exclude=" + exclude + " skipGenerated=" + skipGenerated;
+            }
+            if (processorOptions.containsKey(AutoManifest.ENTRY_POINTS_OPTION_NAME)) {
+                indexOptions += " entryPoints";
+            }
+            if (modulePackages != null) {
+                indexOptions += " moduleInfo";
+            }
+            start = System.nanoTime();
+            try {
+                index = Index.read(env, indexOptions);
+            } catch (IOException e) {
+                env.getMessager().printMessage(Diagnostic.Kind.WARNING, "Ignoring unreadable " + Index.NAME + ": " + e);
+                index = Index.empty(indexOptions);
+            }
+            if (stats != null) stats.indexReadNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Creates an instance of every provider on the processor path by
+     * attribute name, keeping the first if there are several for a name
+     */
+    private Map<Attributes.Name, AttributeProvider> loadProviders() {
+        Map<Attributes.Name, AttributeProvider> providers = new HashMap<Attributes.Name, AttributeProvider>();
+        try {
+            for (AttributeProvider provider : ServiceLoader.load(AttributeProvider.class, AutoManifest.class.getClassLoader())) {
+                Attributes.Name name = new Attributes.Name(provider.attributeName());
+                AttributeProvider existing = Util.putIfAbsent(providers, name, provider);
+                if (existing != null) {
+                    env.getMessager().printMessage(Diagnostic.Kind.WARNING, "Ignoring " + provider.getClass().getName() + ", "
+                            + name + " is already provided by " + existing.getClass().getName());
+                }
+            }
+        } catch (ServiceConfigurationError e) {
+            env.getMessager().printMessage(Diagnostic.Kind.ERROR, Util.getStackTraceAsString(e));
+        }
+        return providers;
+    }
+
+    private RootVisitor newVisitor(Options.Computed computed) {
+        switch (computed) {
+            case COMMON_PACKAGE:
+                return new CommonPackageFinder(env.getMessager());
+            case MAIN:
+                return MainMethodFinder.main(env);
+            case PREMAIN:
+                return MainMethodFinder.premain(env);
+            case AGENTMAIN:
+                return MainMethodFinder.agentmain(env);
+            default:
+                throw new AssertionError(computed);
+        }
+    }
+
+    void process(RoundEnvironment roundEnv) throws IOException {
+        if (entries.isEmpty()) return;
+        if (roundEnv.processingOver()) {
+            outputDirectory = Util.classOutputDirectory(env);
+            // concurrent compilations into the same directory update it one after the other
+            OutputLock lock = outputDirectory == null ? null : OutputLock.acquire(outputDirectory);
+            try {
+                finish(lock);
+            } finally {
+                if (lock != null) lock.release();
+            }
+        } else {
+            Set<? extends Element> roots = roundEnv.getRootElements();
+            Stats.Round round = null;
+            if (stats != null) {
+                round = stats.newRound();
+                round.rootElements = roots.size();
+            }
+            if (scanner != null) {
+                scanner.setRound(round);
+                long start = System.nanoTime();
+                for (Element rootElement : roots) {
+                    rootElements.add(rootElement);
+                    // ElementKind.MODULE is not available on Java 8 and earlier
+                    if (rootElement.getKind().name().equals("MODULE")) declaresModule = true;
+                    // an empty entry replaces what was stored for a root element that is skipped now
+                    Index.Entry entry = index.visit(rootElement);
+                    if (modulePackages != null) modulePackages.visitRoot(env.getElementUtils(), rootElement, entry);
+                    if (moduleDependencies != null && !declaresModule) moduleDependencies.visitRoot(rootElement, entry);
+                    boolean visited = !(skipGenerated && (!firstRound || isGenerated(rootElement))) && scanner.scan(rootElement, entry);
+                    if (round != null && !visited) round.skippedElements++;
+                }
+                if (round != null) round.scanNanos = System.nanoTime() - start;
+            }
+            firstRound = false;
+        }
+    }
+
+    /**
+     * Whether the root element is annotated with {@code @Generated}. Sources
+     * in rounds after the first are always generated by other processors.
+     */
+    private static boolean isGenerated(Element rootElement) {
+        for (AnnotationMirror a : rootElement.getAnnotationMirrors()) {
+            Name name = ((TypeElement) a.getAnnotationType().asElement()).getQualifiedName();
+            if (name.contentEquals("javax.annotation.Generated") || name.contentEquals("javax.annotation.processing.Generated")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes all resources, holding the lock of the output directory if it
+     * is on the file system
+     */
+    private void finish(OutputLock lock) throws IOException {
+        if (index != null) {
+            Set<String> pending = Collections.emptySet();
+            if (lock != null) {
+                // include what other compilations recorded since the index was read
+                try {
+                    index.reload(env);
+                } catch (IOException e) {
+                    env.getMessager().printMessage(Diagnostic.Kind.WARNING, "Ignoring unreadable " + Index.NAME + ": " + e);
+                }
+                pending = lock.pending();
+            }
+            List<RootVisitor> merged = visitors;
+            if (modulePackages != null) {
+                merged = new ArrayList<RootVisitor>(visitors);
+                merged.add(modulePackages);
+                merged.add(moduleDependencies);
+            }
+            index.merge(env.getElementUtils(), merged, pending);
+        }
+        long start = System.nanoTime();
+        Map<Attributes.Name, Object> values = resolveValues();
+        writeManifest(values);
+        if (stats != null) stats.manifestNanos = System.nanoTime() - start;
+        if (index != null) {
+            writeIndex();
+            if (lock != null) {
+                // other compilations keep these root elements until javac has written their class files
+                OutputLock.Claim claim = lock.claim(index.compiled());
+                if (!ClassFileListener.register(env, claim)) claim.release();
+            }
+        }
+        if (env.getOptions().containsKey(AutoManifest.CLASSLIST_OPTION_NAME)) {
+            writeClassList(values);
+        }
+        if (env.getOptions().containsKey(AutoManifest.NATIVE_IMAGE_OPTION_NAME)) {
+            writeNativeImageConfig(values);
+        }
+        if (env.getOptions().containsKey(AutoManifest.ENTRY_POINTS_OPTION_NAME)) {
+            writeEntryPoints();
+        }
+        if (modulePackages != null) {
+            writeModuleInfo(values);
+        }
+        if (env.getOptions().containsKey(AutoManifest.STARTUP_OPTION_NAME)) {
+            writeStartupAnalysis(values);
+        }
+        if (stats != null) {
+            writeStats();
+        }
+    }
+
+    /**
+     * Returns the entries with the computed values determined, leaving out
+     * those that could not be, so that every warning is only emitted once
+     */
+    private Map<Attributes.Name, Object> resolveValues() {
+        Map<Attributes.Name, Object> values = new LinkedHashMap<Attributes.Name, Object>();
+        for (Map.Entry<Attributes.Name, Object> e : entries.entrySet()) {
+            Object value = e.getValue();
+            if (value instanceof RootVisitor) {
+                value = ((RootVisitor) value).getValue();
+                if (value == null) continue;
+            }
+            values.put(e.getKey(), value);
+        }
+        return values;
+    }
+
+    /**
+     * Patches the main section of the manifest. The per-entry sections are
+     * copied byte for byte without being parsed and the file is not written at
+     * all if the main section is unchanged. On the file system the manifest is
+     * replaced by renaming a temporary file, so that concurrent readers never
+     * see it partially written.
+     */
+    private void writeManifest(Map<Attributes.Name, Object> values) throws IOException {
+        if (outputDirectory != null) {
+            ManifestFile.patch(createResourceFile(ManifestFile.NAME), values, env.getMessager(), stats);
+            return;
+        }
+        ManifestFile.patch(Util.openResourceInput(env, ManifestFile.NAME), new ManifestFile.Output() {
+            @Override public OutputStream open() throws IOException {
+                return Util.openResourceOutput(env, ManifestFile.NAME, originatingElements());
+            }
+
+            @Override public boolean replacesInput() {
+                return true;
+            }
+        }, values, env.getMessager(), stats);
+    }
+
+    private void writeIndex() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        index.write(outputStream);
+        writeResource(Index.NAME, outputStream.toByteArray());
+    }
+
+    /**
+     * Writes the resource unless its content is unchanged, so that up to date
+     * files keep their timestamps and do not invalidate later build steps
+     */
+    private void writeResource(String name, byte[] content) throws IOException {
+        if (outputDirectory != null) {
+            File file = createResourceFile(name);
+            if (!Arrays.equals(Util.readFile(file), content)) Util.replaceFile(file, content);
+            return;
+        }
+        byte[] existing = Util.readResource(env, name);
+        if (existing != null && Arrays.equals(existing, content)) return;
+        Util.writeClose(content, Util.openResourceOutput(env, name, originatingElements()));
+    }
+
+    /**
+     * Writes the classes reachable from the {@code Main-Class}. Nothing is
+     * written if it is unknown, which was already reported for the manifest.
+     */
+    private void writeClassList(Map<Attributes.Name, Object> values) throws IOException {
+        if (!entries.containsKey(Attributes.Name.MAIN_CLASS)) {
+            env.getMessager().printMessage(Diagnostic.Kind.WARNING, AutoManifest.CLASSLIST_OPTION_NAME + " requires the " + Attributes.Name.MAIN_CLASS + " attribute");
+            return;
+        }
+        String mainClass = (String) values.get(Attributes.Name.MAIN_CLASS);
+        if (mainClass == null) return;
+        TypeElement type = Util.getTypeElement(env.getElementUtils(), mainClass);
+        if (type == null) {
+            env.getMessager().printMessage(Diagnostic.Kind.WARNING, "Could not find " + mainClass + " for " + ClassList.NAME);
+            return;
+        }
+        ClassList classList = new ClassList(env.getElementUtils(), env.getTypeUtils(), rootElements, Util.classOutputDirectory(env));
+        classList.addReachable(type);
+        writeResource(ClassList.NAME, classList.toByteArray());
+    }
+
+    /**
+     * Writes the {@code native-image.properties} and the reflection
+     * configuration of the agent classes. The directory is given by the option
+     * as {@code group/artifact} or else derived from the module name.
+     */
+    private void writeNativeImageConfig(Map<Attributes.Name, Object> values) throws IOException {
+        String coordinates = env.getOptions().get(AutoManifest.NATIVE_IMAGE_OPTION_NAME);
+        if (coordinates == null || coordinates.length() == 0) {
+            String moduleName = (String) values.get(new Attributes.Name(Options.AUTOMATIC_MODULE_NAME));
+            if (moduleName == null) {
+                env.getMessager().printMessage(Diagnostic.Kind.WARNING, AutoManifest.NATIVE_IMAGE_OPTION_NAME + " requires the " + Options.AUTOMATIC_MODULE_NAME + " attribute or a group/artifact value");
+                return;
+            }
+            int dot = moduleName.lastIndexOf('.');
+            coordinates = dot == -1 ? moduleName + '/' + moduleName : moduleName.substring(0, dot) + '/' + moduleName.substring(dot + 1);
+        } else if (coordinates.indexOf('/') == -1) {
+            env.getMessager().printMessage(Diagnostic.Kind.WARNING, AutoManifest.NATIVE_IMAGE_OPTION_NAME + " must be of the form group/artifact: " + coordinates);
+            return;
+        }
+        NativeImageConfig config = new NativeImageConfig(env.getElementUtils(), env.getTypeUtils(), coordinates);
+        config.setMainClass((String) values.get(Attributes.Name.MAIN_CLASS));
+        config.addAgent((String) values.get(new Attributes.Name(Options.PREMAIN_CLASS)), "premain");
+        config.addAgent((String) values.get(new Attributes.Name(Options.AGENT_CLASS)), "agentmain");
+        config.addAgent((String) values.get(new Attributes.Name(Options.LAUNCHER_AGENT_CLASS)), "agentmain");
+        String properties = config.propertiesName();
+        writeResource(properties, config.properties());
+        writeResource(config.reflectConfigName(), config.reflectConfig());
+    }
+
+    private void writeEntryPoints() throws IOException {
+        Map<String, Integer> methodsByClassName = new TreeMap<String, Integer>();
+        for (RootVisitor visitor : visitors) {
+            if (!(visitor instanceof MainMethodFinder)) continue;
+            String methodName = visitor.methodName();
+            int method = methodName.equals("main") ? EntryPoints.MAIN : methodName.equals("premain") ? EntryPoints.PREMAIN : EntryPoints.AGENTMAIN;
+            for (String className : ((MainMethodFinder) visitor).classNames()) {
+                Integer methods = methodsByClassName.get(className);
+                methodsByClassName.put(className, methods == null ? method : methods | method);
+            }
+        }
+        writeResource(EntryPoints.NAME, EntryPoints.write(methodsByClassName));
+    }
+
+    /**
+     * Writes the {@code module-info.class} of the compiled packages. The
+     * services are read from the class output if it is on the file system.
+     * A referenced package whose module is not known is reported unless it is
+     * compiled or named like a listed module or a subpackage of one.
+     */
+    private void writeModuleInfo(Map<Attributes.Name, Object> values) throws IOException {
+        Messager messager = env.getMessager();
+        if (declaresModule) {
+            messager.printMessage(Diagnostic.Kind.WARNING, AutoManifest.MODULE_INFO_OPTION_NAME + " is ignored when compiling a module-info.java");
+            return;
+        }
+        Attributes.Name automaticModuleName = new Attributes.Name(Options.AUTOMATIC_MODULE_NAME);
+        String moduleName = (String) values.get(automaticModuleName);
+        // an undetermined Automatic-Module-Name was already reported
+        if (moduleName == null && !entries.containsKey(automaticModuleName)) moduleName = modulePackages.getValue();
+        if (moduleName == null) return;
+        Set<String> packages = modulePackages.packages();
+        if (packages.contains("")) {
+            messager.printMessage(Diagnostic.Kind.WARNING, ModuleInfo.NAME + " cannot be written for classes in the unnamed package");
+            return;
+        }
+        ModuleInfo moduleInfo = new ModuleInfo(moduleName, packages);
+        List<String> listed = new ArrayList<String>();
+        String directives = env.getOptions().get(AutoManifest.MODULE_INFO_OPTION_NAME);
+        for (String directive : directives == null ? new String[0] : directives.split(",")) {
+            directive = directive.trim();
+            if (directive.startsWith(ModuleDependencyFinder.USES)) {
+                moduleInfo.addUses(directive.substring(ModuleDependencyFinder.USES.length()));
+            } else if (directive.length() != 0) {
+                moduleInfo.addRequires(directive);
+                listed.add(directive);
+            }
+        }
+        for (String module : moduleDependencies.requires()) {
+            moduleInfo.addRequires(module);
+        }
+        for (String service : moduleDependencies.uses()) {
+            moduleInfo.addUses(service);
+        }
+        for (String p : moduleDependencies.packages()) {
+            if (packages.contains(p) || isListed(p, listed)) continue;
+            messager.printMessage(Diagnostic.Kind.WARNING, "Not requiring the module of the package " + p + " used by the compiled classes, which is not known,"
+                    + " add it to " + AutoManifest.MODULE_INFO_OPTION_NAME);
+        }
+        String mainClass = (String) values.get(Attributes.Name.MAIN_CLASS);
+        if (mainClass != null && !moduleInfo.setMainClass(mainClass)) {
+            messager.printMessage(Diagnostic.Kind.WARNING, "Leaving out the main class " + mainClass + " of " + ModuleInfo.NAME + ", which is not in a compiled package");
+        }
+        File services = outputDirectory == null ? null : new File(outputDirectory, "META-INF/services");
+        File[] files = services == null ? null : services.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                if (!file.isFile()) continue;
+                for (String line : new String(Util.readFile(file), Util.UTF_8).split("\n")) {
+                    int hash = line.indexOf('#');
+                    String provider = (hash == -1 ? line : line.substring(0, hash)).trim();
+                    if (provider.length() != 0 && !moduleInfo.addProvides(file.getName(), provider)) {
+                        messager.printMessage(Diagnostic.Kind.WARNING, "Leaving out the provider " + provider + " of " + ModuleInfo.NAME + ", which is not in a compiled package");
+                    }
+                }
+            }
+        }
+        writeResource(ModuleInfo.NAME, moduleInfo.toByteArray());
+    }
+
+    private static boolean isListed(String packageName, List<String> modules) {
+        for (String module : modules) {
+            if (packageName.equals(module) || packageName.startsWith(module + ".")) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the startup cost of the entry point classes, which are only
+     * analyzed if they are compiled as their code is read from the trees. The
+     * last report is kept if none of them is compiled.
+     */
+    private void writeStartupAnalysis(Map<Attributes.Name, Object> values) throws IOException {
+        StartupAnalysis analysis = StartupAnalysis.create(env);
+        if (analysis == null) {
+            env.getMessager().printMessage(Diagnostic.Kind.WARNING, AutoManifest.STARTUP_OPTION_NAME + " requires the compiler tree API of javac");
+            return;
+        }
+        boolean analyzed = false;
+        for (String attribute : Arrays.asList(Options.MAIN_CLASS, Options.PREMAIN_CLASS, Options.AGENT_CLASS, Options.LAUNCHER_AGENT_CLASS)) {
+            String className = (String) values.get(new Attributes.Name(attribute));
+            if (className == null) continue;
+            TypeElement type = Util.getTypeElement(env.getElementUtils(), className);
+            if (type != null && analysis.analyze(attribute, type)) {
+                analyzed = true;
+            } else {
+                env.getMessager().printMessage(Diagnostic.Kind.NOTE, "Not analyzing the startup of " + attribute + " " + className + ", which is not compiled");
+            }
+        }
+        if (analyzed) writeResource(StartupAnalysis.NAME, analysis.toByteArray());
+    }
+
+    private void writeStats() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        stats.write(outputStream);
+        String path = env.getOptions().get(AutoManifest.STATS_OPTION_NAME);
+        if (path == null || path.length() == 0) {
+            Util.writeClose(outputStream.toByteArray(), Util.openResourceOutput(env, Stats.NAME, originatingElements()));
+        } else {
+            File file = new File(path);
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null) parent.mkdirs();
+            Util.writeClose(outputStream.toByteArray(), new FileOutputStream(file));
+        }
+    }
+
+    /**
+     * Creates the resource through the filer, so that build tools such as
+     * Gradle record it with its originating elements, and returns its file in
+     * the class output, which is written by the caller
+     */
+    private File createResourceFile(String name) throws IOException {
+        env.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", name, originatingElements());
+        return new File(outputDirectory, name);
+    }
+
+    void printError(Exception e) {
+        env.getMessager().printMessage(Diagnostic.Kind.ERROR, Util.getStackTraceAsString(e));
+    }
+
+    private Element[] originatingElements() {
+        return rootElements.toArray(new Element[rootElements.size()]);
+    }
+}
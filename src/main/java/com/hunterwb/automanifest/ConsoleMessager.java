@@ -0,0 +1,67 @@
+package com.hunterwb.automanifest;
+
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.tools.Diagnostic;
+import java.io.PrintStream;
+
+/**
+ * Prints the messages of the finders to a stream in the format of {@code javac}
+ * when they are used outside of the processor
+ */
+final class ConsoleMessager implements Messager {
+
+    private final PrintStream out;
+
+    private final boolean notes;
+
+    private int errors;
+
+    ConsoleMessager(PrintStream out) {
+        this(out, true);
+    }
+
+    /**
+     * @param notes whether notes are printed or dropped
+     */
+    ConsoleMessager(PrintStream out, boolean notes) {
+        this.out = out;
+        this.notes = notes;
+    }
+
+    int errors() {
+        return errors;
+    }
+
+    @Override public void printMessage(Diagnostic.Kind kind, CharSequence msg) {
+        switch (kind) {
+            case ERROR:
+                errors++;
+                out.println("error: " + msg);
+                break;
+            case WARNING:
+            case MANDATORY_WARNING:
+                out.println("warning: " + msg);
+                break;
+            case NOTE:
+                if (notes) out.println("Note: " + msg);
+                break;
+            default:
+                out.println(msg);
+        }
+    }
+
+    @Override public void printMessage(Diagnostic.Kind kind, CharSequence msg, Element e) {
+        printMessage(kind, msg);
+    }
+
+    @Override public void printMessage(Diagnostic.Kind kind, CharSequence msg, Element e, AnnotationMirror a) {
+        printMessage(kind, msg);
+    }
+
+    @Override public void printMessage(Diagnostic.Kind kind, CharSequence msg, Element e, AnnotationMirror a, AnnotationValue v) {
+        printMessage(kind, msg);
+    }
+}
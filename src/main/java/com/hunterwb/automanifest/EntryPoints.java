@@ -0,0 +1,286 @@
+package com.hunterwb.automanifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the index of every class with a {@code main}, {@code premain} or
+ * {@code agentmain} method, written with {@code -Aautomanifest.entryPoints}
+ * to {@link #NAME}. Classes are looked up by a binary search of the buffer,
+ * so a launcher can find its commands without scanning the class path or
+ * loading any classes.
+ * <p>
+ * The index is big-endian: the magic {@code AMEP}, the version, the number of
+ * classes, the offsets of the classes sorted by binary name, their indexes
+ * sorted by simple name and then the classes. Every class is its methods as
+ * a bit set, the length and the start of the simple name as unsigned shorts
+ * and the UTF-8 binary name. Names are sorted by their unsigned bytes.
+ */
+public final class EntryPoints {
+
+    public static final String NAME = "META-INF/automanifest/entrypoints.idx";
+
+    public static final int MAIN = 1;
+
+    public static final int PREMAIN = 2;
+
+    public static final int AGENTMAIN = 4;
+
+    private static final int MAGIC = 0x414d4550;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_LENGTH = 12;
+
+    private final ByteBuffer buffer;
+
+    private final int size;
+
+    private EntryPoints(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.remaining() < HEADER_LENGTH || buffer.getInt(0) != MAGIC) throw new IOException("Not an entry point index");
+        if (buffer.getInt(4) != VERSION) throw new IOException("Unsupported entry point index version " + buffer.getInt(4));
+        size = buffer.getInt(8);
+        if (size < 0 || size > (buffer.remaining() - HEADER_LENGTH) / 8) throw new IOException("Truncated entry point index");
+    }
+
+    /**
+     * Reads the index from the buffer, starting at its position, without copying it
+     */
+    public static EntryPoints of(ByteBuffer buffer) throws IOException {
+        return new EntryPoints(buffer.slice().order(ByteOrder.BIG_ENDIAN));
+    }
+
+    /**
+     * Memory maps the index file
+     */
+    public static EntryPoints open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            // the mapping stays valid after the file is closed
+            return of(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads the index from the stream and closes it, such as the resource
+     * {@link #NAME} inside a jar, which cannot be mapped
+     */
+    public static EntryPoints read(InputStream inputStream) throws IOException {
+        return of(ByteBuffer.wrap(Util.readFullyClose(inputStream)));
+    }
+
+    /**
+     * The number of classes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The binary name of the class at the index, in the order of the names
+     */
+    public String className(int index) {
+        int offset = offset(index);
+        int length = buffer.getShort(offset + 1) & 0xffff;
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; i++) {
+            b[i] = buffer.get(offset + 5 + i);
+        }
+        try {
+            return new String(b, Util.UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * The methods of the class at the index as a combination of {@link #MAIN},
+     * {@link #PREMAIN} and {@link #AGENTMAIN}
+     */
+    public int methods(int index) {
+        return buffer.get(offset(index));
+    }
+
+    /**
+     * Returns the index of the class with the binary name, or {@code -1} if
+     * it has none of the methods
+     */
+    public int indexOf(String className) {
+        byte[] key = utf8(className);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int offset = offset(mid);
+            int c = compare(offset + 5, buffer.getShort(offset + 1) & 0xffff, key);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The methods of the class with the binary name, which are {@code 0} if
+     * it is not in the index
+     */
+    public int methods(String className) {
+        int index = indexOf(className);
+        return index == -1 ? 0 : methods(index);
+    }
+
+    /**
+     * Returns the binary names of the classes whose simple name, the part
+     * after the last {@code .} or {@code $}, is the given one, in the order
+     * of the names
+     */
+    public List<String> findBySimpleName(String simpleName) {
+        byte[] key = utf8(simpleName);
+        int low = 0;
+        int high = size;
+        // the first index whose simple name is not less than the key
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareSimpleName(mid, key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        List<String> classNames = new ArrayList<String>();
+        for (int i = low; i < size && compareSimpleName(i, key) == 0; i++) {
+            classNames.add(className(buffer.getInt(HEADER_LENGTH + 4 * size + 4 * i)));
+        }
+        return classNames;
+    }
+
+    /**
+     * Returns the binary names of the classes with any of the methods, in order
+     */
+    public List<String> classNames(int methods) {
+        List<String> classNames = new ArrayList<String>();
+        for (int i = 0; i < size; i++) {
+            if ((methods(i) & methods) != 0) classNames.add(className(i));
+        }
+        return classNames;
+    }
+
+    private int offset(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(String.valueOf(index));
+        return buffer.getInt(HEADER_LENGTH + 4 * index);
+    }
+
+    private int compareSimpleName(int sortedIndex, byte[] key) {
+        int offset = offset(buffer.getInt(HEADER_LENGTH + 4 * size + 4 * sortedIndex));
+        int length = buffer.getShort(offset + 1) & 0xffff;
+        int start = buffer.getShort(offset + 3) & 0xffff;
+        return compare(offset + 5 + start, length - start, key);
+    }
+
+    private int compare(int offset, int length, byte[] key) {
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int c = (buffer.get(offset + i) & 0xff) - (key[i] & 0xff);
+            if (c != 0) return c;
+        }
+        return length - key.length;
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes(Util.UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Writes the index of the classes with their methods
+     */
+    static byte[] write(Map<String, Integer> methodsByClassName) throws IOException {
+        int size = methodsByClassName.size();
+        final byte[][] names = new byte[size][];
+        final int[] simpleStarts = new int[size];
+        int[] methods = new int[size];
+        int i = 0;
+        for (Map.Entry<String, Integer> e : methodsByClassName.entrySet()) {
+            String className = e.getKey();
+            names[i] = utf8(className);
+            if (names[i].length > 0xffff) throw new IOException("Class name too long: " + className);
+            simpleStarts[i] = utf8(className.substring(0, Math.max(className.lastIndexOf('.'), className.lastIndexOf('$')) + 1)).length;
+            methods[i] = e.getValue();
+            i++;
+        }
+        Integer[] byName = sortedIndexes(size, new Comparator<Integer>() {
+            @Override public int compare(Integer a, Integer b) {
+                return compareBytes(names[a], 0, names[b], 0);
+            }
+        });
+        final int[] rank = new int[size];
+        for (i = 0; i < size; i++) {
+            rank[byName[i]] = i;
+        }
+        Integer[] bySimpleName = sortedIndexes(size, new Comparator<Integer>() {
+            @Override public int compare(Integer a, Integer b) {
+                int c = compareBytes(names[a], simpleStarts[a], names[b], simpleStarts[b]);
+                return c != 0 ? c : rank[a] - rank[b];
+            }
+        });
+        int length = HEADER_LENGTH + 8 * size;
+        for (byte[] name : names) {
+            length += 5 + name.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(size);
+        int offset = HEADER_LENGTH + 8 * size;
+        for (i = 0; i < size; i++) {
+            buffer.putInt(offset);
+            offset += 5 + names[byName[i]].length;
+        }
+        for (i = 0; i < size; i++) {
+            buffer.putInt(rank[bySimpleName[i]]);
+        }
+        for (i = 0; i < size; i++) {
+            int c = byName[i];
+            buffer.put((byte) methods[c]).putShort((short) names[c].length).putShort((short) simpleStarts[c]).put(names[c]);
+        }
+        return buffer.array();
+    }
+
+    private static Integer[] sortedIndexes(int size, Comparator<Integer> comparator) {
+        Integer[] indexes = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            indexes[i] = i;
+        }
+        Arrays.sort(indexes, comparator);
+        return indexes;
+    }
+
+    private static int compareBytes(byte[] a, int aStart, byte[] b, int bStart) {
+        int n = Math.min(a.length - aStart, b.length - bStart);
+        for (int i = 0; i < n; i++) {
+            int c = (a[aStart + i] & 0xff) - (b[bStart + i] & 0xff);
+            if (c != 0) return c;
+        }
+        return (a.length - aStart) - (b.length - bStart);
+    }
+}
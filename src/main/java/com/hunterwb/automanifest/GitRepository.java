@@ -0,0 +1,967 @@
+package com.hunterwb.automanifest;
+
+import javax.annotation.processing.Messager;
+import javax.tools.Diagnostic;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.Attributes;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The revision, branch and state of a git repository, read from the files in
+ * its {@code .git} directory without running {@code git}.
+ * <p>
+ * {@code HEAD} is resolved through the loose refs and {@code packed-refs}. The
+ * working tree is dirty if the tree of the index differs from the tree of the
+ * {@code HEAD} commit, which is read from a loose object or found through the
+ * memory mapped pack indexes, or if a tracked file differs from the index.
+ * Files whose size and modification time match the index are not read, the
+ * others are hashed, also with {@code CRLF} normalized to {@code LF} if
+ * {@code core.autocrlf} or the {@code text} and {@code eol} attributes of
+ * {@code .gitattributes} convert them. A file that git would run through a
+ * clean filter, such as Git LFS, cannot be compared without running it, so
+ * then whether the working tree is dirty is left undetermined.
+ * <p>
+ * Repositories are cached by their {@code .git} directory for
+ * {@link #CACHE_MILLIS} as long as {@code HEAD}, the index and the refs are
+ * unchanged, so that the modules of one build read them only once. Editing a
+ * tracked file changes none of those, so the working tree is compared with
+ * the cached index on every {@link #isDirty}.
+ */
+final class GitRepository {
+
+    static final long CACHE_MILLIS = 60 * 1000;
+
+    private static final ConcurrentMap<File, GitRepository> CACHE = new ConcurrentHashMap<File, GitRepository>();
+
+    private static final int OBJ_COMMIT = 1;
+    private static final int OBJ_OFS_DELTA = 6;
+    private static final int OBJ_REF_DELTA = 7;
+
+    private static final String SET = "set";
+    private static final String UNSET = "unset";
+
+    private static final int MODE_SYMLINK = 0120000;
+    private static final int MODE_GITLINK = 0160000;
+    private static final int MODE_TREE = 040000;
+
+    private final File gitDir;
+
+    /**
+     * Holds the shared objects and refs, which differs from {@link #gitDir}
+     * for a linked worktree
+     */
+    private final File commonDir;
+
+    private final File workTree;
+
+    private final String stamp;
+
+    private final long created = System.currentTimeMillis();
+
+    /**
+     * {@code null} if there are no commits yet
+     */
+    final String revision;
+
+    /**
+     * {@code null} if {@code HEAD} is detached
+     */
+    final String branch;
+
+    /**
+     * The global and repository config, see {@link #readConfig}
+     */
+    private final Map<String, String> config = new HashMap<String, String>();
+
+    private final String hashAlgorithm;
+
+    private final int hashLength;
+
+    private final List<IndexEntry> entries;
+
+    /**
+     * The seconds of the modification time of the index
+     */
+    private final long indexSeconds;
+
+    /**
+     * Whether the index differs from {@code HEAD}
+     */
+    private final boolean staged;
+
+    private GitRepository(File gitDir, File workTree) throws IOException {
+        this.gitDir = gitDir;
+        this.workTree = workTree;
+        String common = readFirstLine(new File(gitDir, "commondir"));
+        commonDir = common == null ? gitDir : resolve(gitDir, common);
+        stamp = stamp();
+        String home = System.getProperty("user.home");
+        String xdgConfigHome = System.getenv("XDG_CONFIG_HOME");
+        readConfig(xdgConfigHome != null ? new File(xdgConfigHome, "git/config") : new File(home, ".config/git/config"), config);
+        readConfig(new File(home, ".gitconfig"), config);
+        readConfig(new File(commonDir, "config"), config);
+        String head = readFirstLine(new File(gitDir, "HEAD"));
+        if (head == null) throw new IOException("Missing HEAD in " + gitDir);
+        String branch = null;
+        for (int depth = 0; head != null && head.startsWith("ref:"); depth++) {
+            if (depth == 5) throw new IOException("Too many symbolic refs in " + gitDir);
+            String ref = head.substring(4).trim();
+            if (depth == 0 && ref.startsWith("refs/heads/")) branch = ref.substring("refs/heads/".length());
+            head = readRef(ref);
+        }
+        this.branch = branch;
+        revision = head;
+        if (head != null && !isHash(head)) throw new IOException("Invalid revision " + head + " in " + gitDir);
+        hashLength = head != null ? head.length() / 2 : "sha256".equals(Util.getOrDefault(config, "extensions.objectformat", "").toLowerCase(Locale.ROOT)) ? 32 : 20;
+        hashAlgorithm = hashLength == 32 ? "SHA-256" : "SHA-1";
+        File indexFile = new File(gitDir, "index");
+        byte[] index = readFile(indexFile);
+        entries = index == null ? new ArrayList<IndexEntry>() : readIndex(index);
+        indexSeconds = indexFile.lastModified() / 1000;
+        staged = readStaged();
+    }
+
+    /**
+     * Returns the repository containing the directory or {@code null} if there is none
+     */
+    static GitRepository find(File dir) throws IOException {
+        for (File d = dir.getAbsoluteFile(); d != null; d = d.getParentFile()) {
+            File dotGit = new File(d, ".git");
+            File gitDir = null;
+            if (dotGit.isDirectory()) {
+                gitDir = dotGit;
+            } else if (dotGit.isFile()) {
+                // a linked worktree or a submodule
+                String line = readFirstLine(dotGit);
+                if (line == null || !line.startsWith("gitdir:")) throw new IOException("Invalid " + dotGit);
+                gitDir = resolve(d, line.substring("gitdir:".length()).trim());
+            }
+            if (gitDir != null) return get(gitDir.getCanonicalFile(), d);
+        }
+        return null;
+    }
+
+    private static GitRepository get(File gitDir, File workTree) throws IOException {
+        GitRepository repository = CACHE.get(gitDir);
+        if (repository != null && System.currentTimeMillis() - repository.created < CACHE_MILLIS && repository.stamp.equals(repository.stamp())) {
+            return repository;
+        }
+        repository = read(gitDir, workTree);
+        CACHE.put(gitDir, repository);
+        return repository;
+    }
+
+    /**
+     * Reads the repository without the cache
+     */
+    static GitRepository read(File gitDir, File workTree) throws IOException {
+        return new GitRepository(gitDir, workTree);
+    }
+
+    /**
+     * Replaces the {@link Options.Git} values with those of the repository
+     * containing the directory, leaving out the ones that cannot be determined
+     */
+    static void resolve(Map<Attributes.Name, Object> entries, File dir, Messager messager) {
+        GitRepository repository = null;
+        String problem = null;
+        boolean found = false;
+        for (Iterator<Map.Entry<Attributes.Name, Object>> i = entries.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<Attributes.Name, Object> e = i.next();
+            if (!(e.getValue() instanceof Options.Git)) continue;
+            if (!found) {
+                found = true;
+                try {
+                    repository = find(dir);
+                    if (repository == null) problem = "Found no git repository containing " + dir;
+                } catch (IOException ex) {
+                    problem = "Could not read git repository: " + ex;
+                }
+                if (problem != null) messager.printMessage(Diagnostic.Kind.WARNING, problem);
+            }
+            String value = repository == null ? null : repository.getValue((Options.Git) e.getValue(), messager);
+            if (value == null) {
+                i.remove();
+            } else {
+                e.setValue(value);
+            }
+        }
+    }
+
+    private String getValue(Options.Git git, Messager messager) {
+        switch (git) {
+            case REVISION:
+                if (revision == null) messager.printMessage(Diagnostic.Kind.WARNING, "Found no commit in " + gitDir);
+                return revision;
+            case BRANCH:
+                if (branch == null) messager.printMessage(Diagnostic.Kind.WARNING, "HEAD is detached in " + gitDir);
+                return branch;
+            case DIRTY:
+                try {
+                    return String.valueOf(isDirty());
+                } catch (IOException e) {
+                    messager.printMessage(Diagnostic.Kind.WARNING, "Could not tell whether " + workTree + " is dirty: " + e);
+                    return null;
+                }
+            default:
+                throw new AssertionError(git);
+        }
+    }
+
+    /**
+     * Changes whenever {@code HEAD}, the index or the refs change
+     */
+    private String stamp() {
+        StringBuilder sb = new StringBuilder();
+        for (File f : new File[]{new File(gitDir, "HEAD"), new File(gitDir, "index"), new File(commonDir, "packed-refs"), new File(commonDir, "refs/heads"), new File(commonDir, "config")}) {
+            sb.append(f.lastModified()).append(':').append(f.length()).append(' ');
+        }
+        // the loose ref of the current branch
+        try {
+            String head = readFirstLine(new File(gitDir, "HEAD"));
+            if (head != null && head.startsWith("ref:")) {
+                String ref = head.substring(4).trim();
+                File f = new File(gitDir, ref);
+                if (!f.isFile()) f = new File(commonDir, ref);
+                sb.append(ref).append(':').append(f.lastModified()).append(':').append(f.length());
+            }
+        } catch (IOException e) {
+            sb.append(e);
+        }
+        return sb.toString();
+    }
+
+    private String readRef(String ref) throws IOException {
+        String value = readFirstLine(new File(gitDir, ref));
+        if (value == null && commonDir != gitDir) value = readFirstLine(new File(commonDir, ref));
+        if (value != null) return value;
+        String packedRefs = readText(new File(commonDir, "packed-refs"));
+        if (packedRefs == null) return null;
+        for (String line : packedRefs.split("\n")) {
+            if (line.startsWith("#") || line.startsWith("^")) continue;
+            int space = line.indexOf(' ');
+            if (space != -1 && line.substring(space + 1).trim().equals(ref)) return line.substring(0, space);
+        }
+        return null;
+    }
+
+    private boolean readStaged() throws IOException {
+        if (revision == null) return !entries.isEmpty();
+        for (IndexEntry e : entries) {
+            // unresolved conflicts and files that are only intended to be added
+            if (e.stage != 0 || e.intentToAdd) return true;
+        }
+        return !Util.hex(tree(entries, 0, entries.size(), 0)).equals(readCommitTree(revision));
+    }
+
+    /**
+     * Whether there are staged or unstaged changes to tracked files. Only the
+     * files whose size or modification time differ from the index are read.
+     * Throws if such a file would be run through a clean filter.
+     */
+    boolean isDirty() throws IOException {
+        if (staged) return true;
+        Map<String, List<AttributeRule>> attributeFiles = new HashMap<String, List<AttributeRule>>();
+        for (IndexEntry e : entries) {
+            if (e.skipWorktree || (e.mode & 0170000) == MODE_GITLINK || (e.mode & 0170000) == MODE_SYMLINK || (e.mode & 0170000) == MODE_TREE) continue;
+            File file = new File(workTree, e.path);
+            if (!file.isFile()) return true;
+            long length = file.length();
+            if ((int) length != e.size) return true;
+            long seconds = file.lastModified() / 1000;
+            // a file modified in the same second as the index was written may have changed after it
+            if (seconds == e.mtimeSeconds && seconds < indexSeconds) continue;
+            if (MessageDigest.isEqual(hashBlob(file, length), e.hash)) continue;
+            // the attributes are only read once a file differs as it is
+            if (!isNormalized(file, e, attributes(e.path, attributeFiles))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether the file matches the index entry once its line endings are
+     * converted as git would when adding it
+     */
+    private boolean isNormalized(File file, IndexEntry e, Map<String, String> attributes) throws IOException {
+        String filter = attributes.get("filter");
+        if (filter != null && !filter.equals(SET) && !filter.equals(UNSET)
+                && ("lfs".equals(filter) || config.containsKey("filter." + filter + ".clean") || config.containsKey("filter." + filter + ".process"))) {
+            throw new IOException("Cannot compare " + e.path + " with the index without its clean filter " + filter);
+        }
+        String text = attributes.get("text");
+        String eol = attributes.get("eol");
+        String autocrlf = Util.getOrDefault(config, "core.autocrlf", "false").toLowerCase(Locale.ROOT);
+        boolean auto;
+        if (SET.equals(text)) {
+            auto = false;
+        } else if (UNSET.equals(text)) {
+            return false;
+        } else if ("auto".equals(text)) {
+            auto = true;
+        } else if (eol != null && !eol.equals(UNSET)) {
+            auto = false;
+        } else if (autocrlf.equals("true") || autocrlf.equals("yes") || autocrlf.equals("on") || autocrlf.equals("1") || autocrlf.equals("input")) {
+            auto = true;
+        } else {
+            return false;
+        }
+        byte[] content = readFile(file);
+        if (content == null || (auto && isBinary(content))) return false;
+        byte[] normalized = new byte[content.length];
+        int length = 0;
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] != '\r' || i + 1 == content.length || content[i + 1] != '\n') normalized[length++] = content[i];
+        }
+        if (length == content.length) return false;
+        MessageDigest digest = digest();
+        digest.update(Util.ascii("blob " + length + '\0'));
+        digest.update(normalized, 0, length);
+        return MessageDigest.isEqual(digest.digest(), e.hash);
+    }
+
+    /**
+     * Whether git would not convert the line endings of the content with
+     * {@code text=auto}, as it contains a NUL, a lone CR or too many other
+     * control characters
+     */
+    private static boolean isBinary(byte[] content) {
+        int printable = 0;
+        int nonPrintable = 0;
+        // a trailing DOS end of file marker is ignored
+        int end = content.length > 0 && content[content.length - 1] == 032 ? content.length - 1 : content.length;
+        for (int i = 0; i < end; i++) {
+            int c = content[i] & 0xFF;
+            if (c == '\r') {
+                if (i + 1 == end || content[i + 1] != '\n') return true;
+            } else if (c == 0) {
+                return true;
+            } else if (c == 127 || (c < 32 && c != '\n' && c != '\b' && c != '\t' && c != 033 && c != '\f')) {
+                nonPrintable++;
+            } else if (c >= 32) {
+                printable++;
+            }
+        }
+        return (printable >> 7) < nonPrintable;
+    }
+
+    /**
+     * Returns the attributes of the path from the {@code .gitattributes}
+     * files of its directories, the deeper ones taking precedence, and from
+     * {@code info/attributes}, which takes precedence over all. The files
+     * are read once per call of {@link #isDirty}.
+     */
+    private Map<String, String> attributes(String path, Map<String, List<AttributeRule>> attributeFiles) throws IOException {
+        Map<String, String> attributes = new HashMap<String, String>();
+        for (int slash = -1; ; slash = path.indexOf('/', slash + 1)) {
+            String dir = path.substring(0, slash + 1);
+            List<AttributeRule> rules = attributeFiles.get(dir);
+            if (rules == null) {
+                rules = readAttributes(new File(workTree, dir + ".gitattributes"), dir);
+                attributeFiles.put(dir, rules);
+            }
+            applyAttributes(rules, path, attributes);
+            if (path.indexOf('/', slash + 1) == -1) break;
+        }
+        List<AttributeRule> rules = attributeFiles.get(null);
+        if (rules == null) {
+            rules = readAttributes(new File(commonDir, "info/attributes"), "");
+            attributeFiles.put(null, rules);
+        }
+        applyAttributes(rules, path, attributes);
+        return attributes;
+    }
+
+    private static void applyAttributes(List<AttributeRule> rules, String path, Map<String, String> attributes) {
+        for (AttributeRule rule : rules) {
+            String relative = path.substring(rule.base.length());
+            if (!glob(rule.pattern, 0, rule.basename ? relative.substring(relative.lastIndexOf('/') + 1) : relative, 0)) continue;
+            for (int i = 0; i < rule.names.length; i++) {
+                if (rule.values[i] == null) {
+                    attributes.remove(rule.names[i]);
+                } else {
+                    attributes.put(rule.names[i], rule.values[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the lines of a {@code .gitattributes} file in the directory with
+     * the path prefix, expanding the built in {@code binary} macro
+     */
+    private static List<AttributeRule> readAttributes(File file, String base) throws IOException {
+        List<AttributeRule> rules = new ArrayList<AttributeRule>();
+        String text = readText(file);
+        if (text == null) return rules;
+        for (String line : text.split("\n")) {
+            String[] fields = line.trim().split("[ \t]+");
+            if (fields[0].length() == 0 || fields[0].startsWith("#") || fields[0].startsWith("[attr]")) continue;
+            List<String> names = new ArrayList<String>();
+            List<String> values = new ArrayList<String>();
+            for (int i = 1; i < fields.length; i++) {
+                String field = fields[i];
+                String name;
+                String value;
+                if (field.startsWith("-")) {
+                    name = field.substring(1);
+                    value = UNSET;
+                } else if (field.startsWith("!")) {
+                    name = field.substring(1);
+                    value = null;
+                } else if (field.indexOf('=') != -1) {
+                    name = field.substring(0, field.indexOf('='));
+                    value = field.substring(field.indexOf('=') + 1);
+                } else {
+                    name = field;
+                    value = SET;
+                }
+                if (name.equals("binary") && SET.equals(value)) {
+                    names.add("text");
+                    values.add(UNSET);
+                }
+                names.add(name);
+                values.add(value);
+            }
+            AttributeRule rule = new AttributeRule();
+            String pattern = fields[0];
+            rule.basename = pattern.indexOf('/') == -1;
+            rule.pattern = pattern.startsWith("/") ? pattern.substring(1) : pattern;
+            rule.base = base;
+            rule.names = names.toArray(new String[0]);
+            rule.values = values.toArray(new String[0]);
+            rules.add(rule);
+        }
+        return rules;
+    }
+
+    /**
+     * Matches a path against a glob where {@code *} and {@code ?} do not match
+     * {@code /} while {@code **} does
+     */
+    private static boolean glob(String pattern, int p, String path, int i) {
+        for (; p < pattern.length(); p++, i++) {
+            char c = pattern.charAt(p);
+            if (c == '*') {
+                boolean any = p + 1 < pattern.length() && pattern.charAt(p + 1) == '*';
+                if (any) {
+                    p += 2;
+                    // a leading **/ also matches no directory
+                    if (p < pattern.length() && pattern.charAt(p) == '/' && glob(pattern, p + 1, path, i)) return true;
+                }
+                for (; ; i++) {
+                    if (glob(pattern, any ? p : p + 1, path, i)) return true;
+                    if (i == path.length() || (!any && path.charAt(i) == '/')) return false;
+                }
+            }
+            if (i == path.length()) return false;
+            char d = path.charAt(i);
+            if (c == '?') {
+                if (d == '/') return false;
+            } else if (c == '[' && pattern.indexOf(']', p + 2) != -1) {
+                int end = pattern.indexOf(']', p + 2);
+                boolean negated = pattern.charAt(p + 1) == '!' || pattern.charAt(p + 1) == '^';
+                boolean matched = false;
+                for (int j = negated ? p + 2 : p + 1; j < end; j++) {
+                    if (j + 2 < end && pattern.charAt(j + 1) == '-') {
+                        matched |= d >= pattern.charAt(j) && d <= pattern.charAt(j + 2);
+                        j += 2;
+                    } else {
+                        matched |= d == pattern.charAt(j);
+                    }
+                }
+                if (matched == negated || d == '/') return false;
+                p = end;
+            } else {
+                if (c == '\\' && p + 1 < pattern.length()) c = pattern.charAt(++p);
+                if (c != d) return false;
+            }
+        }
+        return i == path.length();
+    }
+
+    private List<IndexEntry> readIndex(byte[] index) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(index);
+        if (b.getInt() != 0x44495243) throw new IOException("Invalid index in " + gitDir); // DIRC
+        int version = b.getInt();
+        if (version < 2 || version > 4) throw new IOException("Unsupported index version " + version + " in " + gitDir);
+        int count = b.getInt();
+        List<IndexEntry> entries = new ArrayList<IndexEntry>(count);
+        byte[] previous = new byte[0];
+        for (int i = 0; i < count; i++) {
+            int start = b.position();
+            IndexEntry e = new IndexEntry();
+            b.position(start + 8); // ctime
+            e.mtimeSeconds = b.getInt() & 0xFFFFFFFFL;
+            b.position(start + 24);
+            e.mode = b.getInt();
+            b.position(start + 36);
+            e.size = b.getInt();
+            e.hash = new byte[hashLength];
+            b.get(e.hash);
+            int flags = b.getShort() & 0xFFFF;
+            e.stage = (flags >> 12) & 3;
+            if ((flags & 0x4000) != 0 && version >= 3) {
+                int extended = b.getShort() & 0xFFFF;
+                e.skipWorktree = (extended & 0x4000) != 0;
+                e.intentToAdd = (extended & 0x2000) != 0;
+            }
+            byte[] path;
+            if (version == 4) {
+                // the path is prefix compressed against the previous one
+                long strip = 0;
+                int c;
+                do {
+                    c = b.get() & 0xFF;
+                    strip = (strip << 7) | (c & 0x7F);
+                    if ((c & 0x80) != 0) strip++;
+                } while ((c & 0x80) != 0);
+                byte[] suffix = readNulTerminated(b);
+                int keep = previous.length - (int) strip;
+                path = new byte[keep + suffix.length];
+                System.arraycopy(previous, 0, path, 0, keep);
+                System.arraycopy(suffix, 0, path, keep, suffix.length);
+            } else {
+                path = readNulTerminated(b);
+                // padded with 1 to 8 NUL bytes to a multiple of 8
+                int length = b.position() - start;
+                b.position(start + ((length + 7) & ~7));
+            }
+            previous = path;
+            e.rawPath = path;
+            e.path = new String(path, Util.UTF_8);
+            entries.add(e);
+        }
+        return entries;
+    }
+
+    private static byte[] readNulTerminated(ByteBuffer b) {
+        int start = b.position();
+        while (b.get() != 0) {}
+        byte[] s = new byte[b.position() - 1 - start];
+        b.position(start);
+        b.get(s);
+        b.get();
+        return s;
+    }
+
+    /**
+     * Computes the hash of the tree of the index entries with the given path
+     * prefix length, as {@code git write-tree} would
+     */
+    private byte[] tree(List<IndexEntry> entries, int from, int to, int prefix) throws IOException {
+        ByteArrayOutputStream tree = new ByteArrayOutputStream();
+        for (int i = from; i < to; ) {
+            IndexEntry e = entries.get(i);
+            int slash = indexOf(e.rawPath, (byte) '/', prefix);
+            if (slash == -1) {
+                tree.write(Util.ascii(Integer.toOctalString((e.mode & 0170000) == MODE_TREE ? MODE_TREE : e.mode) + ' '));
+                tree.write(e.rawPath, prefix, e.rawPath.length - prefix);
+                tree.write(0);
+                tree.write(e.hash);
+                i++;
+            } else {
+                int end = i + 1;
+                while (end < to && startsWith(entries.get(end).rawPath, e.rawPath, slash + 1)) end++;
+                tree.write(Util.ascii(Integer.toOctalString(MODE_TREE) + ' '));
+                tree.write(e.rawPath, prefix, slash - prefix);
+                tree.write(0);
+                tree.write(tree(entries, i, end, slash + 1));
+                i = end;
+            }
+        }
+        return hashObject("tree", tree.toByteArray());
+    }
+
+    private String readCommitTree(String commit) throws IOException {
+        byte[] content = readObject(unhex(commit), OBJ_COMMIT, 0);
+        String s = new String(content, 0, Math.min(content.length, 5 + 2 * hashLength), Util.UTF_8);
+        if (!s.startsWith("tree ")) throw new IOException("Invalid commit " + commit + " in " + gitDir);
+        return s.substring(5);
+    }
+
+    /**
+     * Reads the content of a loose or packed object of the expected type
+     */
+    private byte[] readObject(byte[] hash, int expectedType, int depth) throws IOException {
+        String hex = Util.hex(hash);
+        File loose = new File(commonDir, "objects/" + hex.substring(0, 2) + '/' + hex.substring(2));
+        if (loose.isFile()) {
+            byte[] object = Util.readFullyClose(new InflaterInputStream(new FileInputStream(loose)));
+            int nul = indexOf(object, (byte) 0, 0);
+            String header = new String(object, 0, nul, Util.UTF_8);
+            if (!header.startsWith(typeName(expectedType) + ' ')) throw new IOException("Unexpected object " + header + " " + hex);
+            byte[] content = new byte[object.length - nul - 1];
+            System.arraycopy(object, nul + 1, content, 0, content.length);
+            return content;
+        }
+        File[] idxFiles = new File(commonDir, "objects/pack").listFiles();
+        if (idxFiles != null) {
+            for (File idx : idxFiles) {
+                if (!idx.getName().endsWith(".idx")) continue;
+                long offset = findInPackIndex(idx, hash);
+                if (offset != -1) {
+                    File pack = new File(idx.getParentFile(), idx.getName().substring(0, idx.getName().length() - 4) + ".pack");
+                    return readPacked(pack, offset, expectedType, depth);
+                }
+            }
+        }
+        throw new IOException("Missing object " + hex + " in " + commonDir);
+    }
+
+    /**
+     * Looks up the offset of the object in a version 2 pack index by a binary
+     * search within the range of its first byte, or returns -1
+     */
+    private long findInPackIndex(File idx, byte[] hash) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(idx, "r");
+        try {
+            MappedByteBuffer b = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (b.getInt(0) != 0xff744f63 || b.getInt(4) != 2) throw new IOException("Unsupported pack index " + idx);
+            int first = hash[0] & 0xFF;
+            int low = first == 0 ? 0 : b.getInt(8 + 4 * (first - 1));
+            int high = b.getInt(8 + 4 * first);
+            int count = b.getInt(8 + 4 * 255);
+            int names = 8 + 256 * 4;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(b, names + mid * hashLength, hash);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid;
+                } else {
+                    int offsets = names + count * hashLength + count * 4;
+                    int offset = b.getInt(offsets + mid * 4);
+                    if (offset >= 0) return offset;
+                    // the index of an 8 byte offset for packs larger than 2 GB
+                    return b.getLong(offsets + count * 4 + (offset & 0x7FFFFFFF) * 8);
+                }
+            }
+            return -1;
+        } finally {
+            file.close();
+        }
+    }
+
+    private byte[] readPacked(File pack, long offset, int expectedType, int depth) throws IOException {
+        if (depth > 50) throw new IOException("Delta chain too long in " + pack);
+        RandomAccessFile file = new RandomAccessFile(pack, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            InputStream in = Channels.newInputStream(channel.position(offset));
+            int c = in.read();
+            int type = (c >> 4) & 7;
+            long size = c & 0x0F;
+            for (int shift = 4; (c & 0x80) != 0; shift += 7) {
+                c = in.read();
+                size |= (long) (c & 0x7F) << shift;
+            }
+            byte[] base;
+            if (type == OBJ_OFS_DELTA) {
+                c = in.read();
+                long distance = c & 0x7F;
+                while ((c & 0x80) != 0) {
+                    c = in.read();
+                    distance = ((distance + 1) << 7) | (c & 0x7F);
+                }
+                long dataOffset = channel.position();
+                base = readPacked(pack, offset - distance, expectedType, depth + 1);
+                channel.position(dataOffset);
+            } else if (type == OBJ_REF_DELTA) {
+                byte[] baseHash = new byte[hashLength];
+                readFully(in, baseHash);
+                long dataOffset = channel.position();
+                base = readObject(baseHash, expectedType, depth + 1);
+                channel.position(dataOffset);
+            } else if (type == expectedType) {
+                return inflate(Channels.newInputStream(channel), (int) size);
+            } else {
+                throw new IOException("Unexpected object type " + type + " in " + pack);
+            }
+            return applyDelta(base, inflate(Channels.newInputStream(channel), (int) size));
+        } finally {
+            file.close();
+        }
+    }
+
+    private static byte[] inflate(InputStream in, int size) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            byte[] out = new byte[size];
+            byte[] buf = new byte[512];
+            int n = 0;
+            while (n < size) {
+                int inflated = inflater.inflate(out, n, size - n);
+                n += inflated;
+                if (inflated == 0) {
+                    if (inflater.finished() || inflater.needsDictionary()) break;
+                    if (inflater.needsInput()) {
+                        int read = in.read(buf);
+                        if (read == -1) break;
+                        inflater.setInput(buf, 0, read);
+                    }
+                }
+            }
+            if (n != size) throw new IOException("Truncated object");
+            return out;
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid object", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] applyDelta(byte[] base, byte[] delta) throws IOException {
+        int[] p = {0};
+        long baseSize = readVarint(delta, p);
+        if (baseSize != base.length) throw new IOException("Invalid delta");
+        byte[] out = new byte[(int) readVarint(delta, p)];
+        int o = 0;
+        int i = p[0];
+        while (i < delta.length) {
+            int op = delta[i++] & 0xFF;
+            if ((op & 0x80) != 0) {
+                int copyOffset = 0;
+                int copySize = 0;
+                for (int bit = 0; bit < 4; bit++) {
+                    if ((op & (1 << bit)) != 0) copyOffset |= (delta[i++] & 0xFF) << (8 * bit);
+                }
+                for (int bit = 0; bit < 3; bit++) {
+                    if ((op & (0x10 << bit)) != 0) copySize |= (delta[i++] & 0xFF) << (8 * bit);
+                }
+                if (copySize == 0) copySize = 0x10000;
+                System.arraycopy(base, copyOffset, out, o, copySize);
+                o += copySize;
+            } else if (op != 0) {
+                System.arraycopy(delta, i, out, o, op);
+                i += op;
+                o += op;
+            } else {
+                throw new IOException("Invalid delta");
+            }
+        }
+        if (o != out.length) throw new IOException("Invalid delta");
+        return out;
+    }
+
+    private static long readVarint(byte[] b, int[] p) {
+        long value = 0;
+        int shift = 0;
+        int c;
+        do {
+            c = b[p[0]++] & 0xFF;
+            value |= (long) (c & 0x7F) << shift;
+            shift += 7;
+        } while ((c & 0x80) != 0);
+        return value;
+    }
+
+    private byte[] hashBlob(File file, long length) throws IOException {
+        MessageDigest digest = digest();
+        digest.update(Util.ascii("blob " + length + '\0'));
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                digest.update(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return digest.digest();
+    }
+
+    private byte[] hashObject(String type, byte[] content) throws IOException {
+        MessageDigest digest = digest();
+        digest.update(Util.ascii(type + ' ' + content.length + '\0'));
+        digest.update(content);
+        return digest.digest();
+    }
+
+    private MessageDigest digest() throws IOException {
+        try {
+            return MessageDigest.getInstance(hashAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(hashAlgorithm + " is not available", e);
+        }
+    }
+
+    private static String typeName(int type) {
+        return type == OBJ_COMMIT ? "commit" : String.valueOf(type);
+    }
+
+    private static int compare(ByteBuffer b, int offset, byte[] hash) {
+        for (int i = 0; i < hash.length; i++) {
+            int cmp = (b.get(offset + i) & 0xFF) - (hash[i] & 0xFF);
+            if (cmp != 0) return cmp;
+        }
+        return 0;
+    }
+
+    private static boolean startsWith(byte[] a, byte[] prefix, int length) {
+        if (a.length < length) return false;
+        for (int i = 0; i < length; i++) {
+            if (a[i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] a, byte b, int from) {
+        for (int i = from; i < a.length; i++) {
+            if (a[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isHash(String s) {
+        if (s.length() != 40 && s.length() != 64) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.digit(s.charAt(i), 16) == -1) return false;
+        }
+        return true;
+    }
+
+    private static byte[] unhex(String s) {
+        byte[] b = new byte[s.length() / 2];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        }
+        return b;
+    }
+
+
+    private static void readFully(InputStream in, byte[] b) throws IOException {
+        for (int n = 0; n < b.length; ) {
+            int read = in.read(b, n, b.length - n);
+            if (read == -1) throw new IOException("Unexpected end of pack");
+            n += read;
+        }
+    }
+
+    private static File resolve(File dir, String path) {
+        File f = new File(path);
+        return f.isAbsolute() ? f : new File(dir, path);
+    }
+
+    /**
+     * Returns the content of the file or {@code null} if it does not exist
+     */
+    private static byte[] readFile(File file) throws IOException {
+        return file.isFile() ? Util.readFullyClose(new FileInputStream(file)) : null;
+    }
+
+    /**
+     * Reads the variables of a config file into the map, keyed by the lower
+     * case section, the subsection if any and the lower case name joined with
+     * dots. Includes are not followed.
+     */
+    private static void readConfig(File file, Map<String, String> config) throws IOException {
+        String text = readText(file);
+        if (text == null) return;
+        String section = "";
+        for (String line : text.split("\n")) {
+            line = stripConfigComment(line).trim();
+            if (line.startsWith("[")) {
+                int end = line.lastIndexOf(']');
+                if (end == -1) continue;
+                String header = line.substring(1, end).trim();
+                int quote = header.indexOf('"');
+                section = quote == -1
+                        ? header.toLowerCase(Locale.ROOT)
+                        : header.substring(0, quote).trim().toLowerCase(Locale.ROOT) + '.' + header.substring(quote + 1).replace("\"", "");
+            } else if (line.length() != 0) {
+                int eq = line.indexOf('=');
+                String name = (eq == -1 ? line : line.substring(0, eq)).trim().toLowerCase(Locale.ROOT);
+                config.put(section + '.' + name, eq == -1 ? "true" : line.substring(eq + 1).trim().replace("\"", ""));
+            }
+        }
+    }
+
+    private static String stripConfigComment(String line) {
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') quoted = !quoted;
+            if (!quoted && (c == '#' || c == ';')) return line.substring(0, i);
+        }
+        return line;
+    }
+
+    private static String readText(File file) throws IOException {
+        byte[] b = readFile(file);
+        return b == null ? null : new String(b, Util.UTF_8);
+    }
+
+    private static String readFirstLine(File file) throws IOException {
+        String s = readText(file);
+        if (s == null) return null;
+        int newline = s.indexOf('\n');
+        return (newline == -1 ? s : s.substring(0, newline)).trim();
+    }
+
+    /**
+     * A line of a {@code .gitattributes} file, whose values are {@link #SET},
+     * {@link #UNSET}, a string or {@code null} to make them unspecified
+     */
+    private static final class AttributeRule {
+
+        /**
+         * The path of the directory of the file, ending with a slash unless empty
+         */
+        String base;
+
+        String pattern;
+
+        /**
+         * Whether the pattern has no slash and so matches the file name at any depth
+         */
+        boolean basename;
+
+        String[] names;
+
+        String[] values;
+    }
+
+    private static final class IndexEntry {
+
+        String path;
+
+        byte[] rawPath;
+
+        long mtimeSeconds;
+
+        int mode;
+
+        int size;
+
+        byte[] hash;
+
+        int stage;
+
+        boolean skipWorktree;
+
+        boolean intentToAdd;
+    }
+}
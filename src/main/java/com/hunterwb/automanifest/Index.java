@@ -0,0 +1,202 @@
+package com.hunterwb.automanifest;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Contributions of every root element to the computed attributes, persisted
+ * between compilations so that an incremental compilation, where only the
+ * changed types are root elements, can be merged with the unchanged ones.
+ * <p>
+ * Stored as UTF-8 text, one contribution per line:
+ * {@code <root element>\t<visitor key>\t<value>}.
+ */
+final class Index {
+
+    static final String NAME = "META-INF/automanifest.idx";
+
+    private static final String HEADER = "automanifest-index 1";
+
+    private final String options;
+
+    private Map<String, Entry> stored;
+
+    private final Map<String, Entry> current = new TreeMap<String, Entry>();
+
+    private final Set<String> compiled = new TreeSet<String>();
+
+    private Index(String options, Map<String, Entry> stored) {
+        this.options = options;
+        this.stored = stored;
+    }
+
+    static Index empty(String options) {
+        return new Index(options, Collections.<String, Entry>emptyMap());
+    }
+
+    static Index read(ProcessingEnvironment env, String options) throws IOException {
+        InputStream inputStream = Util.openResourceInput(env, NAME);
+        return inputStream == null ? empty(options) : new Index(options, readClose(inputStream, options));
+    }
+
+    private static Map<String, Entry> readClose(InputStream inputStream, String options) throws IOException {
+        Map<String, Entry> stored = null;
+        IOException e = null;
+        try {
+            stored = read(new InputStreamReader(inputStream, Util.UTF_8), options);
+        } catch (IOException readException) {
+            e = readException;
+        }
+        try {
+            inputStream.close();
+        } catch (IOException closeException) {
+            if (e == null) e = closeException;
+        }
+        if (e != null) throw e;
+        return stored;
+    }
+
+    private static Map<String, Entry> read(Reader reader, String options) throws IOException {
+        BufferedReader r = new BufferedReader(reader);
+        if (!HEADER.equals(r.readLine()) || !options.equals(r.readLine())) {
+            // different format or different attributes, nothing can be reused
+            return Collections.emptyMap();
+        }
+        Map<String, Entry> stored = new TreeMap<String, Entry>();
+        String line;
+        while ((line = r.readLine()) != null) {
+            int tab1 = line.indexOf('\t');
+            int tab2 = line.indexOf('\t', tab1 + 1);
+            if (tab1 == -1 || tab2 == -1) throw new IOException("Malformed index line: " + line);
+            entry(stored, line.substring(0, tab1)).add(line.substring(tab1 + 1, tab2), line.substring(tab2 + 1));
+        }
+        return stored;
+    }
+
+    /**
+     * Replaces the stored contributions with those recorded now, which
+     * include those of compilations into the same output that ended since
+     * this index was read
+     */
+    void reload(ProcessingEnvironment env) throws IOException {
+        InputStream inputStream = Util.openResourceInput(env, NAME);
+        stored = inputStream == null ? Collections.<String, Entry>emptyMap() : readClose(inputStream, options);
+    }
+
+    /**
+     * Returns the entry recording the contributions of the given root element
+     * in this compilation, replacing any stored entry for it
+     */
+    Entry visit(Element rootElement) {
+        String id = id(rootElement);
+        if (id == null) return new Entry();
+        // javac only writes the package-info class of an annotated package
+        if (rootElement instanceof TypeElement || !rootElement.getAnnotationMirrors().isEmpty()) compiled.add(id);
+        return entry(current, id);
+    }
+
+    /**
+     * The root elements of this compilation that javac writes a class file
+     * for
+     */
+    Set<String> compiled() {
+        return compiled;
+    }
+
+    /**
+     * Adds the stored contributions of root elements that were not part of
+     * this compilation but still exist to the given visitors. The pending
+     * root elements are compiled by other compilations that are still running
+     * and are kept although their class files may not be written yet.
+     */
+    void merge(Elements elements, Collection<RootVisitor> visitors, Set<String> pending) {
+        for (Map.Entry<String, Entry> e : stored.entrySet()) {
+            String id = e.getKey();
+            if (current.containsKey(id) || (!pending.contains(id) && !exists(elements, id))) continue;
+            Entry entry = e.getValue();
+            current.put(id, entry);
+            for (RootVisitor visitor : visitors) {
+                Set<String> values = entry.values.get(visitor.key());
+                if (values == null) continue;
+                for (String value : values) {
+                    visitor.add(value);
+                }
+            }
+        }
+    }
+
+    void write(OutputStream outputStream) throws IOException {
+        Writer w = new BufferedWriter(new OutputStreamWriter(outputStream, Util.UTF_8));
+        w.write(HEADER);
+        w.write('\n');
+        w.write(options);
+        w.write('\n');
+        for (Map.Entry<String, Entry> e : current.entrySet()) {
+            for (Map.Entry<String, Set<String>> kv : e.getValue().values.entrySet()) {
+                for (String value : kv.getValue()) {
+                    w.write(e.getKey());
+                    w.write('\t');
+                    w.write(kv.getKey());
+                    w.write('\t');
+                    w.write(value);
+                    w.write('\n');
+                }
+            }
+        }
+        w.flush();
+    }
+
+    private static Entry entry(Map<String, Entry> map, String id) {
+        Entry entry = map.get(id);
+        if (entry == null) {
+            entry = new Entry();
+            map.put(id, entry);
+        }
+        return entry;
+    }
+
+    private static String id(Element rootElement) {
+        if (rootElement instanceof TypeElement) {
+            return ((TypeElement) rootElement).getQualifiedName().toString();
+        } else if (rootElement instanceof PackageElement) {
+            return ((PackageElement) rootElement).getQualifiedName().toString();
+        }
+        return null;
+    }
+
+    private static boolean exists(Elements elements, String id) {
+        return elements.getTypeElement(id) != null || elements.getPackageElement(id) != null;
+    }
+
+    static final class Entry {
+
+        private final Map<String, Set<String>> values = new TreeMap<String, Set<String>>();
+
+        void add(String key, String value) {
+            Set<String> set = values.get(key);
+            if (set == null) {
+                set = new TreeSet<String>();
+                values.put(key, set);
+            }
+            set.add(value);
+        }
+    }
+}
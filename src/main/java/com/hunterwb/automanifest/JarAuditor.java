@@ -0,0 +1,250 @@
+package com.hunterwb.automanifest;
+
+import javax.annotation.processing.Messager;
+import javax.tools.Diagnostic;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Checks the manifests of many jars against the attributes computed from their
+ * classes, such as all the jars of a release. The jars are split between a
+ * fixed number of threads and each one is read from a memory mapping by a
+ * {@link JarReader}, its manifest and class files included, without
+ * extracting anything. The report of every jar is buffered and printed in the
+ * order of the paths, with the attributes that do not match as a diff.
+ * <p>
+ * Computed attributes must have the computed value, which must be determined,
+ * and attributes given with a value must have exactly that value. Those read
+ * from the build environment or from git only need to be present, as the jars
+ * may have been built elsewhere. Jars that do not match are fixed with a
+ * {@link JarInjector} if requested, except for missing git attributes and
+ * values that cannot be determined, which are errors.
+ */
+final class JarAuditor {
+
+    enum Status {
+        MATCHED,
+        FIXED,
+        MISMATCHED,
+        FAILED
+    }
+
+    static final class Report {
+
+        final File jar;
+
+        final Status status;
+
+        /**
+         * The diff and messages, which are empty if the jar matched
+         */
+        final String text;
+
+        private Report(File jar, Status status, String text) {
+            this.jar = jar;
+            this.status = status;
+            this.text = text;
+        }
+    }
+
+    private final Options options;
+
+    private final NameFilter filter;
+
+    private final boolean fix;
+
+    private final int threads;
+
+    /**
+     * @param filter the classes to scan or {@code null} for all
+     */
+    JarAuditor(Options options, NameFilter filter, boolean fix, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("threads: " + threads);
+        this.options = options;
+        this.filter = filter;
+        this.fix = fix;
+        this.threads = threads;
+    }
+
+    /**
+     * Audits the jar or all jars in the directory and its subdirectories,
+     * printing the reports and a summary. An error is printed if any jar did
+     * not match and was not fixed. Returns the reports sorted by path.
+     */
+    List<Report> audit(File input, PrintStream out, Messager messager) throws IOException {
+        long start = System.nanoTime();
+        List<File> jars = new ArrayList<File>();
+        if (input.isDirectory()) {
+            listJars(input, jars);
+            Collections.sort(jars);
+        } else if (input.isFile()) {
+            jars.add(input);
+        } else {
+            throw new IOException("No such file or directory: " + input);
+        }
+        // the threads left over when there are fewer jars scan the classes of each jar
+        final ClassFileScanner scanner = new ClassFileScanner(Main.methodNames(options), filter, Math.max(1, threads / Math.max(1, jars.size())));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, jars.size())));
+        List<Report> reports = new ArrayList<Report>(jars.size());
+        int[] counts = new int[Status.values().length];
+        try {
+            List<Future<Report>> futures = new ArrayList<Future<Report>>(jars.size());
+            for (final File jar : jars) {
+                futures.add(executor.submit(new Callable<Report>() {
+                    @Override public Report call() {
+                        return audit(jar, scanner);
+                    }
+                }));
+            }
+            for (Future<Report> future : futures) {
+                Report report = future.get();
+                reports.add(report);
+                counts[report.status.ordinal()]++;
+                if (report.status != Status.MATCHED) {
+                    out.println(report.jar.getPath() + ": " + report.status.name().toLowerCase(Locale.ROOT));
+                    out.print(report.text);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new AssertionError(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+        out.println("Audited " + jars.size() + " jars in " + (System.nanoTime() - start) / 1000000 + " ms: "
+                + counts[Status.MATCHED.ordinal()] + " matched, " + counts[Status.FIXED.ordinal()] + " fixed, "
+                + counts[Status.MISMATCHED.ordinal()] + " mismatched, " + counts[Status.FAILED.ordinal()] + " failed");
+        out.flush();
+        int failures = counts[Status.MISMATCHED.ordinal()] + counts[Status.FAILED.ordinal()];
+        if (failures != 0) messager.printMessage(Diagnostic.Kind.ERROR, failures + " of " + jars.size() + " jars do not match");
+        return reports;
+    }
+
+    private static void listJars(File dir, List<File> jars) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) throw new IOException("Could not list " + dir);
+        for (File child : children) {
+            if (child.isDirectory()) {
+                listJars(child, jars);
+            } else if (child.getName().endsWith(".jar")) {
+                jars.add(child);
+            }
+        }
+    }
+
+    private Report audit(File jar, ClassFileScanner scanner) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream text;
+        try {
+            text = new PrintStream(buffer, false, Util.UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        ConsoleMessager messager = new ConsoleMessager(text, false);
+        Status status;
+        try {
+            byte[] manifest;
+            ClassFileScanner.Result result;
+            JarReader reader = JarReader.open(jar);
+            if (reader != null) {
+                try {
+                    manifest = reader.readManifest();
+                    result = scanner.scan(reader);
+                } finally {
+                    // released before the jar is replaced, which fails on Windows while it is mapped
+                    reader.close();
+                }
+            } else {
+                manifest = readManifest(jar);
+                result = scanner.scan(jar);
+            }
+            Map<Attributes.Name, String> actual = manifest == null
+                    ? Collections.<Attributes.Name, String>emptyMap()
+                    : new ManifestReader(new ByteArrayInputStream(manifest)).readMainSection();
+            Map<Attributes.Name, Object> fixes = new LinkedHashMap<Attributes.Name, Object>();
+            for (Map.Entry<Attributes.Name, Object> e : Main.entries(options, result, messager).entrySet()) {
+                Attributes.Name name = e.getKey();
+                Object value = e.getValue();
+                String current = actual.get(name);
+                if (value instanceof RootVisitor) {
+                    String expected = ((RootVisitor) value).getValue();
+                    if (expected == null) {
+                        messager.printMessage(Diagnostic.Kind.ERROR, "Cannot determine " + name);
+                    } else if (!expected.equals(current)) {
+                        diff(text, name, current, expected, fixes);
+                    }
+                } else if (value instanceof Options.Git) {
+                    if (current == null) messager.printMessage(Diagnostic.Kind.ERROR, "Missing " + name);
+                } else if (options.explicit.contains(name) ? !value.equals(current) : current == null) {
+                    diff(text, name, current, (String) value, fixes);
+                }
+            }
+            if (!fixes.isEmpty() && fix) {
+                JarInjector injector = new JarInjector(jar);
+                try {
+                    injector.writeManifest(ManifestFile.patch(manifest, fixes, messager));
+                } finally {
+                    injector.close();
+                }
+            }
+            if (messager.errors() != 0) {
+                status = Status.FAILED;
+            } else if (fixes.isEmpty()) {
+                status = Status.MATCHED;
+            } else {
+                status = fix ? Status.FIXED : Status.MISMATCHED;
+            }
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR, e.getMessage());
+            status = Status.FAILED;
+        }
+        text.flush();
+        try {
+            return new Report(jar, status, buffer.toString(Util.UTF_8));
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void diff(PrintStream text, Attributes.Name name, String current, String expected, Map<Attributes.Name, Object> fixes) {
+        if (current != null) text.println("-" + name + ": " + current);
+        text.println("+" + name + ": " + expected);
+        fixes.put(name, expected);
+    }
+
+    /**
+     * Reads the manifest of a jar that {@link JarReader} does not support
+     */
+    private static byte[] readManifest(File jar) throws IOException {
+        ZipFile zipFile = new ZipFile(jar);
+        try {
+            ZipEntry entry = zipFile.getEntry(ManifestFile.NAME);
+            return entry == null ? null : Util.readFullyClose(zipFile.getInputStream(entry));
+        } finally {
+            zipFile.close();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.hunterwb.automanifest;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Replaces the manifest of an existing jar without recompressing the other
+ * entries. Their local headers and compressed data are written unchanged from
+ * the mapping of a {@link JarReader} to the file channel, only the manifest
+ * entry is written anew and the central directory is rebuilt with the new
+ * offsets, so the cost depends on the size of the jar on disk and not on the
+ * work of an archiver.
+ * <p>
+ * The manifest is placed first, after a {@code META-INF/} directory entry if
+ * there is one, where {@link java.util.jar.JarInputStream} expects it. ZIP64
+ * archives, jars larger than 2 GB and signed jars are not supported.
+ */
+final class JarInjector implements Closeable {
+
+    private static final byte[] MANIFEST_NAME = Util.ascii(ManifestFile.NAME);
+
+    private static final String META_INF = "META-INF/";
+
+    private final File file;
+
+    private final JarReader reader;
+
+    private boolean signed;
+
+    JarInjector(File file) throws IOException {
+        this.file = file;
+        reader = JarReader.open(file);
+        if (reader == null) throw new IOException("ZIP64 and jars larger than 2 GB are not supported: " + file);
+        for (int i = 0; i < reader.size(); i++) {
+            if (isSignatureFile(reader.name(i))) signed = true;
+        }
+    }
+
+    /**
+     * Returns the content of the manifest or {@code null} if there is none
+     */
+    byte[] readManifest() throws IOException {
+        return reader.readManifest();
+    }
+
+    /**
+     * Replaces the jar with a copy containing the given manifest. Returns
+     * whether the jar was written, which it is not if the manifest is unchanged.
+     */
+    boolean writeManifest(byte[] content) throws IOException {
+        if (Arrays.equals(content, readManifest())) return false;
+        if (signed) throw new IOException("Replacing the manifest would invalidate the signatures of " + file);
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            FileOutputStream outputStream = new FileOutputStream(tmp);
+            try {
+                write(outputStream.getChannel(), content);
+            } finally {
+                outputStream.close();
+            }
+            close();
+            Util.renameOver(tmp, file);
+            tmp = null;
+            return true;
+        } finally {
+            if (tmp != null) tmp.delete();
+        }
+    }
+
+    private void write(FileChannel out, byte[] content) throws IOException {
+        ByteBuffer prefix = reader.prefix();
+        long position = prefix.remaining();
+        write(prefix, out);
+        int centralDirectorySize = JarReader.CENTRAL_HEADER_LENGTH + MANIFEST_NAME.length;
+        for (int i = 0; i < reader.size(); i++) {
+            centralDirectorySize += reader.centralHeader(i).remaining();
+        }
+        ByteBuffer newCentralDirectory = ByteBuffer.allocate(centralDirectorySize).order(ByteOrder.LITTLE_ENDIAN);
+        int manifest = reader.manifest();
+        int i = 0;
+        if (reader.size() != 0 && manifest != 0 && reader.name(0).equals(META_INF)) {
+            position = copy(i++, position, out, newCentralDirectory);
+        }
+        position = writeManifest(content, position, out, newCentralDirectory);
+        for (; i < reader.size(); i++) {
+            if (i != manifest) {
+                position = copy(i, position, out, newCentralDirectory);
+            }
+        }
+        int count = reader.size() + (manifest == -1 ? 1 : 0);
+        if (count >= 0xFFFF || position >= 0xFFFFFFFFL) throw new IOException("The jar would need ZIP64, which is not supported: " + file);
+        newCentralDirectory.flip();
+        int newCentralDirectorySize = newCentralDirectory.limit();
+        write(newCentralDirectory, out);
+        ByteBuffer comment = reader.comment();
+        ByteBuffer end = ByteBuffer.allocate(JarReader.END_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(JarReader.END).putShort((short) 0).putShort((short) 0).putShort((short) count).putShort((short) count);
+        end.putInt(newCentralDirectorySize).putInt((int) position).putShort((short) comment.remaining());
+        end.flip();
+        write(end, out);
+        write(comment, out);
+    }
+
+    /**
+     * Copies the local header, data and data descriptor of the entry straight
+     * from the mapping and adds its central directory header with the new
+     * offset
+     */
+    private long copy(int i, long position, FileChannel out, ByteBuffer newCentralDirectory) throws IOException {
+        ByteBuffer local = reader.localRecord(i);
+        long length = local.remaining();
+        write(local, out);
+        if (position > 0xFFFFFFFFL) throw new IOException("The jar would need ZIP64, which is not supported: " + file);
+        int start = newCentralDirectory.position();
+        newCentralDirectory.put(reader.centralHeader(i));
+        newCentralDirectory.putInt(start + 42, (int) position);
+        return position + length;
+    }
+
+    private long writeManifest(byte[] content, long position, FileChannel out, ByteBuffer newCentralDirectory) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        byte[] compressed = deflate(content);
+        int manifest = reader.manifest();
+        int time = manifest == -1 ? dosTime(System.currentTimeMillis()) : reader.time(manifest);
+        ByteBuffer local = ByteBuffer.allocate(JarReader.LOCAL_HEADER_LENGTH + MANIFEST_NAME.length + compressed.length).order(ByteOrder.LITTLE_ENDIAN);
+        local.putInt(JarReader.LOCAL_HEADER).putShort((short) 20).putShort((short) 0).putShort((short) JarReader.DEFLATED).putInt(time);
+        local.putInt((int) crc.getValue()).putInt(compressed.length).putInt(content.length);
+        local.putShort((short) MANIFEST_NAME.length).putShort((short) 0).put(MANIFEST_NAME).put(compressed);
+        local.flip();
+        write(local, out);
+        newCentralDirectory.putInt(JarReader.CENTRAL_HEADER).putShort((short) 20).putShort((short) 20).putShort((short) 0).putShort((short) JarReader.DEFLATED).putInt(time);
+        newCentralDirectory.putInt((int) crc.getValue()).putInt(compressed.length).putInt(content.length);
+        newCentralDirectory.putShort((short) MANIFEST_NAME.length).putShort((short) 0).putShort((short) 0);
+        newCentralDirectory.putShort((short) 0).putShort((short) 0).putInt(0).putInt((int) position).put(MANIFEST_NAME);
+        return position + local.limit();
+    }
+
+    private static byte[] deflate(byte[] content) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            byte[] b = new byte[content.length + 64];
+            int n = 0;
+            while (!deflater.finished()) {
+                if (n == b.length) b = Arrays.copyOf(b, b.length * 2);
+                n += deflater.deflate(b, n, b.length - n);
+            }
+            return Arrays.copyOf(b, n);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Packs the local time into the MS-DOS date and time of the zip format
+     */
+    private static int dosTime(long millis) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(millis);
+        int year = Math.max(1980, c.get(Calendar.YEAR));
+        return (year - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21 | c.get(Calendar.DAY_OF_MONTH) << 16
+                | c.get(Calendar.HOUR_OF_DAY) << 11 | c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+    }
+
+    private static void write(ByteBuffer b, FileChannel out) throws IOException {
+        while (b.hasRemaining()) {
+            out.write(b);
+        }
+    }
+
+    /**
+     * Whether the entry is a signature file directly in {@code META-INF}
+     */
+    private static boolean isSignatureFile(String name) {
+        String s = name.toUpperCase(Locale.ROOT);
+        return s.startsWith(META_INF) && s.indexOf('/', META_INF.length()) == -1 && s.endsWith(".SF");
+    }
+
+    @Override public void close() {
+        reader.close();
+    }
+}
@@ -0,0 +1,319 @@
+package com.hunterwb.automanifest;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the entries of a jar in place from a read-only memory mapping of the
+ * whole file, so the central directory is parsed and the stored entries are
+ * sliced without copying anything to the heap and nothing is extracted. The
+ * mapping stays valid after the file is closed and can be read by several
+ * threads until the reader is closed, which releases it so that the jar can
+ * be replaced also on Windows.
+ * <p>
+ * Jars that are ZIP64, larger than 2 GB or have bytes between their entries
+ * and the central directory are not supported, for which {@link #open}
+ * returns {@code null} so that callers fall back to {@link java.util.zip.ZipFile}.
+ */
+final class JarReader implements Closeable {
+
+    static final int LOCAL_HEADER = 0x04034b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int ZIP64_END_LOCATOR = 0x07064b50;
+    static final int END = 0x06054b50;
+
+    static final int LOCAL_HEADER_LENGTH = 30;
+    static final int CENTRAL_HEADER_LENGTH = 46;
+    static final int END_LENGTH = 22;
+
+    private static final int ZIP64_EXTRA = 0x0001;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    private final File file;
+
+    private final ByteBuffer map;
+
+    /**
+     * The position of the end of central directory record in the mapping
+     */
+    private final int end;
+
+    /**
+     * The positions of the central headers in the mapping
+     */
+    private final int[] headers;
+
+    private final String[] names;
+
+    /**
+     * The position of the first local header, after bytes such as a launcher
+     * script
+     */
+    private int first;
+
+    private int manifest = -1;
+
+    private boolean closed;
+
+    private JarReader(File file, ByteBuffer map, int end, int[] headers, String[] names) {
+        this.file = file;
+        this.map = map;
+        this.end = end;
+        this.headers = headers;
+        this.names = names;
+    }
+
+    /**
+     * Maps the jar and reads its central directory, or returns {@code null}
+     * if the jar is not supported
+     */
+    static JarReader open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        ByteBuffer map;
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) return null;
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+        } finally {
+            randomAccessFile.close();
+        }
+        try {
+            int end = findEnd(map);
+            if (end == -1) throw new IOException("Not a zip file: " + file);
+            if (end >= 20 && map.getInt(end - 20) == ZIP64_END_LOCATOR) return null;
+            if (map.getShort(end + 4) != 0 || map.getShort(end + 6) != 0) throw new IOException("Multi-disk archives are not supported: " + file);
+            int count = map.getShort(end + 10) & 0xFFFF;
+            long centralDirectorySize = map.getInt(end + 12) & 0xFFFFFFFFL;
+            long centralDirectoryOffset = map.getInt(end + 16) & 0xFFFFFFFFL;
+            if (count == 0xFFFF || centralDirectoryOffset + centralDirectorySize != end) return null;
+            int[] headers = new int[count];
+            String[] names = new String[count];
+            int position = (int) centralDirectoryOffset;
+            int first = position;
+            for (int i = 0; i < count; i++) {
+                if (position + CENTRAL_HEADER_LENGTH > end || map.getInt(position) != CENTRAL_HEADER) throw new IOException("Invalid central directory: " + file);
+                if (map.getInt(position + 20) == -1 || map.getInt(position + 24) == -1 || map.getInt(position + 42) == -1) return null;
+                headers[i] = position;
+                int nameLength = map.getShort(position + 28) & 0xFFFF;
+                int extraLength = map.getShort(position + 30) & 0xFFFF;
+                byte[] name = new byte[nameLength];
+                for (int j = 0; j < name.length; j++) {
+                    name[j] = map.get(position + CENTRAL_HEADER_LENGTH + j);
+                }
+                names[i] = new String(name, Util.UTF_8);
+                for (int e = position + CENTRAL_HEADER_LENGTH + nameLength, extraEnd = e + extraLength; e + 4 <= extraEnd; e += 4 + (map.getShort(e + 2) & 0xFFFF)) {
+                    if ((map.getShort(e) & 0xFFFF) == ZIP64_EXTRA) return null;
+                }
+                first = Math.min(first, map.getInt(position + 42));
+                position += CENTRAL_HEADER_LENGTH + nameLength + extraLength + (map.getShort(position + 32) & 0xFFFF);
+            }
+            JarReader reader = new JarReader(file, map, end, headers, names);
+            reader.first = first;
+            for (int i = 0; i < count; i++) {
+                if (names[i].equalsIgnoreCase(ManifestFile.NAME)) {
+                    if (reader.manifest != -1) throw new IOException("Duplicate " + ManifestFile.NAME + ": " + file);
+                    reader.manifest = i;
+                }
+            }
+            return reader;
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid zip file: " + file, e);
+        }
+    }
+
+    private static int findEnd(ByteBuffer map) {
+        for (int i = map.limit() - END_LENGTH, min = Math.max(0, i - 0xFFFF); i >= min; i--) {
+            if (map.getInt(i) == END && i + END_LENGTH + (map.getShort(i + 20) & 0xFFFF) == map.limit()) return i;
+        }
+        return -1;
+    }
+
+    File file() {
+        return file;
+    }
+
+    int size() {
+        return headers.length;
+    }
+
+    String name(int i) {
+        return names[i];
+    }
+
+    int method(int i) {
+        return map.getShort(headers[i] + 10) & 0xFFFF;
+    }
+
+    int uncompressedSize(int i) {
+        return map.getInt(headers[i] + 24);
+    }
+
+    /**
+     * The MS-DOS date and time of the entry
+     */
+    int time(int i) {
+        return map.getInt(headers[i] + 12);
+    }
+
+    /**
+     * The index of the manifest or -1 if there is none
+     */
+    int manifest() {
+        return manifest;
+    }
+
+    /**
+     * Returns the compressed data of the entry, a slice of the mapping
+     */
+    ByteBuffer data(int i) throws IOException {
+        int start = dataStart(i);
+        return slice(start, start + map.getInt(headers[i] + 20));
+    }
+
+    /**
+     * Returns the local header, the compressed data and the data descriptor
+     * of the entry, a slice of the mapping
+     */
+    ByteBuffer localRecord(int i) throws IOException {
+        int local = map.getInt(headers[i] + 42);
+        int end = dataStart(i) + map.getInt(headers[i] + 20);
+        if ((map.getShort(headers[i] + 8) & FLAG_DATA_DESCRIPTOR) != 0) {
+            if (end + 4 > map.limit()) throw new IOException("Invalid data descriptor of " + name(i) + ": " + file);
+            // the signature of the data descriptor is optional
+            end += map.getInt(end) == DATA_DESCRIPTOR ? 16 : 12;
+        }
+        return slice(local, end);
+    }
+
+    /**
+     * Returns the central header of the entry, a slice of the mapping
+     */
+    ByteBuffer centralHeader(int i) throws IOException {
+        int header = headers[i];
+        return slice(header, header + CENTRAL_HEADER_LENGTH
+                + (map.getShort(header + 28) & 0xFFFF) + (map.getShort(header + 30) & 0xFFFF) + (map.getShort(header + 32) & 0xFFFF));
+    }
+
+    /**
+     * Returns the bytes before the first entry, a slice of the mapping
+     */
+    ByteBuffer prefix() throws IOException {
+        return slice(0, first);
+    }
+
+    /**
+     * Returns the comment of the archive, a slice of the mapping
+     */
+    ByteBuffer comment() throws IOException {
+        return slice(end + END_LENGTH, map.limit());
+    }
+
+    private int dataStart(int i) throws IOException {
+        int local = map.getInt(headers[i] + 42);
+        if (local < 0 || local + LOCAL_HEADER_LENGTH > map.limit() || map.getInt(local) != LOCAL_HEADER) {
+            throw new IOException("Invalid local header of " + name(i) + ": " + file);
+        }
+        return local + LOCAL_HEADER_LENGTH + (map.getShort(local + 26) & 0xFFFF) + (map.getShort(local + 28) & 0xFFFF);
+    }
+
+    private ByteBuffer slice(int start, int end) throws IOException {
+        if (closed) throw new IOException("Closed: " + file);
+        if (start < 0 || end < start || end > map.limit()) throw new IOException("Invalid zip file: " + file);
+        ByteBuffer b = map.duplicate();
+        b.limit(end).position(start);
+        return b.slice();
+    }
+
+    /**
+     * Returns the content of the manifest or {@code null} if there is none
+     */
+    byte[] readManifest() throws IOException {
+        if (manifest == -1) return null;
+        ByteBuffer data = data(manifest);
+        int method = method(manifest);
+        byte[] input = new byte[data.remaining()];
+        data.get(input);
+        if (method == STORED) return input;
+        if (method != DEFLATED) throw new IOException("Unsupported compression method " + method + " of " + ManifestFile.NAME + ": " + file);
+        byte[] b = new byte[uncompressedSize(manifest)];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflate(inflater, input, input.length, b, b.length);
+            return b;
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed data of " + ManifestFile.NAME + ": " + file, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Inflates raw deflate data into the first {@code length} bytes of the
+     * output with an inflater that is reset first
+     */
+    static void inflate(Inflater inflater, byte[] input, int inputLength, byte[] output, int length) throws DataFormatException {
+        inflater.reset();
+        inflater.setInput(input, 0, inputLength);
+        int n = 0;
+        while (n < length && !inflater.finished()) {
+            int inflated = inflater.inflate(output, n, length - n);
+            if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+            n += inflated;
+        }
+        if (n != length) throw new DataFormatException("Expected " + length + " bytes but inflated " + n);
+    }
+
+    /**
+     * Releases the mapping now rather than when it is garbage collected, as a
+     * mapped file cannot be replaced on Windows. The slices of the mapping
+     * must not be read any more.
+     */
+    @Override public void close() {
+        if (closed) return;
+        closed = true;
+        unmap(map);
+    }
+
+    /**
+     * Unmaps the buffer through the cleaner of the JDK, or leaves it to the
+     * garbage collector if the JDK does not allow it
+     */
+    private static void unmap(ByteBuffer map) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                // Java 8 and earlier
+                Method getCleaner = map.getClass().getMethod("cleaner");
+                getCleaner.setAccessible(true);
+                Object cleaner = getCleaner.invoke(map);
+                if (cleaner != null) cleaner.getClass().getMethod("clean").invoke(cleaner);
+                return;
+            }
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), map);
+        } catch (Exception e) {
+            // released when it is garbage collected
+        } catch (LinkageError e) {
+            // released when it is garbage collected
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.hunterwb.automanifest;
+
+import javax.annotation.processing.Messager;
+import javax.tools.Diagnostic;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+
+/**
+ * Computes the manifest attributes of classes that were compiled without the
+ * processor by reading their class files
+ * <pre>
+ * java -jar automanifest.jar scan &lt;classes directory or jar&gt; [-a attributes] [-include globs] [-exclude globs] [-o manifest] [-t threads]
+ * java -jar automanifest.jar inject &lt;jar&gt; [-a attributes [-include globs] [-exclude globs] | -m manifest] [-t threads]
+ * java -jar automanifest.jar audit &lt;directory or jar&gt; [-a attributes] [-include globs] [-exclude globs] [-t threads] [-fix]
+ * </pre>
+ * The attributes are given like {@code -Aautomanifest} and default to
+ * {@code Main-Class}. The classes are filtered like by
+ * {@code -Aautomanifest.include} and {@code -Aautomanifest.exclude}. {@code scan} writes the manifest like the processor
+ * does, to {@code META-INF/MANIFEST.MF} in a classes directory, to the given
+ * file, or to standard output for a jar. {@code inject} updates the manifest
+ * inside the jar with the attributes of its classes, or replaces it with the
+ * given manifest file, without recompressing the other entries. {@code audit}
+ * checks the manifests of all jars in a directory against their classes with
+ * a {@link JarAuditor}, fixing them with {@code -fix}. Exits with status 1 if
+ * there are any errors or manifests that do not match.
+ */
+public final class Main {
+
+    private static final String USAGE = "Usage: scan <classes directory or jar> [-a attributes] [-include globs] [-exclude globs] [-o manifest] [-t threads]\n"
+            + "       inject <jar> [-a attributes [-include globs] [-exclude globs] | -m manifest] [-t threads]\n"
+            + "       audit <directory or jar> [-a attributes] [-include globs] [-exclude globs] [-t threads] [-fix]";
+
+    private Main() {}
+
+    public static void main(String[] args) {
+        ConsoleMessager messager = new ConsoleMessager(System.err);
+        try {
+            run(args, messager);
+        } catch (IllegalArgumentException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR, e.getMessage());
+            System.err.println(USAGE);
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR, e.toString());
+        } catch (Exception e) {
+            messager.printMessage(Diagnostic.Kind.ERROR, Util.getStackTraceAsString(e));
+        }
+        if (messager.errors() != 0) System.exit(1);
+    }
+
+    private static void run(String[] args, ConsoleMessager messager) throws IOException {
+        if (args.length == 0) throw new IllegalArgumentException("Missing command");
+        if (!args[0].equals("scan") && !args[0].equals("inject") && !args[0].equals("audit")) {
+            throw new IllegalArgumentException("Unknown command " + args[0]);
+        }
+        if (args.length == 1) throw new IllegalArgumentException("Missing path for " + args[0]);
+        File input = new File(args[1]);
+        String attributes = null;
+        String include = null;
+        String exclude = null;
+        File manifest = null;
+        File output = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean fix = false;
+        for (int i = 2; i < args.length; i += 2) {
+            if (args[i].equals("-fix") && args[0].equals("audit")) {
+                fix = true;
+                i--;
+                continue;
+            }
+            if (i + 1 == args.length) throw new IllegalArgumentException("Missing value for " + args[i]);
+            String value = args[i + 1];
+            if (args[i].equals("-a")) {
+                attributes = value;
+            } else if (args[i].equals("-include")) {
+                include = value;
+            } else if (args[i].equals("-exclude")) {
+                exclude = value;
+            } else if (args[i].equals("-m") && args[0].equals("inject")) {
+                manifest = new File(value);
+            } else if (args[i].equals("-o") && args[0].equals("scan")) {
+                output = new File(value);
+            } else if (args[i].equals("-t")) {
+                threads = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        NameFilter filter = NameFilter.of(include, exclude);
+        if (args[0].equals("scan")) {
+            scan(input, attributes, filter, output, threads, messager);
+        } else if (args[0].equals("inject")) {
+            if (manifest != null && (attributes != null || filter != null)) throw new IllegalArgumentException("-m cannot be combined with -a, -include or -exclude");
+            inject(input, attributes, filter, manifest, threads, messager);
+        } else {
+            new JarAuditor(parse(attributes, messager), filter, fix, threads).audit(input, System.out, messager);
+        }
+    }
+
+    private static void scan(File input, String attributes, NameFilter filter, File output, int threads, ConsoleMessager messager) throws IOException {
+        Map<Attributes.Name, Object> entries = scan(input, parse(attributes, messager), filter, threads, messager);
+        File outputDirectory = null;
+        if (output == null && input.isDirectory()) {
+            output = new File(input, ManifestFile.NAME);
+            outputDirectory = input;
+        }
+        if (output == null) {
+            System.out.write(ManifestFile.writeMainSection(Collections.<Attributes.Name, String>emptyMap(), entries, messager));
+            System.out.flush();
+        } else {
+            // the same lock as the processor compiling into the directory
+            OutputLock lock = OutputLock.acquire(outputDirectory == null ? output.getAbsoluteFile().getParentFile() : outputDirectory);
+            try {
+                ManifestFile.patch(output, entries, messager);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private static void inject(File jar, String attributes, NameFilter filter, File manifest, int threads, ConsoleMessager messager) throws IOException {
+        Map<Attributes.Name, Object> entries = null;
+        if (manifest == null) {
+            entries = scan(jar, parse(attributes, messager), filter, threads, messager);
+        }
+        JarInjector injector = new JarInjector(jar);
+        try {
+            byte[] content = manifest == null
+                    ? ManifestFile.patch(injector.readManifest(), entries, messager)
+                    : Util.readFullyClose(new FileInputStream(manifest));
+            injector.writeManifest(content);
+        } finally {
+            injector.close();
+        }
+    }
+
+    private static Options parse(String attributes, ConsoleMessager messager) {
+        Options options = Options.parse(attributes == null ? Options.DEFAULT : attributes);
+        for (String warning : options.warnings) {
+            messager.printMessage(Diagnostic.Kind.WARNING, warning);
+        }
+        for (Map.Entry<Attributes.Name, Object> e : options.entries.entrySet()) {
+            if (e.getValue() == Options.PROVIDED) messager.printMessage(Diagnostic.Kind.WARNING, "Unrecognized name: " + e.getKey());
+        }
+        return options;
+    }
+
+    /**
+     * Returns the entries of the options with the computed attributes
+     * replaced by finders holding the contributions of the class files that
+     * pass the filter, which may be {@code null}, and the git attributes
+     * resolved
+     */
+    static Map<Attributes.Name, Object> scan(File input, Options options, NameFilter filter, int threads, Messager messager) throws IOException {
+        ClassFileScanner.Result result = new ClassFileScanner(methodNames(options), filter, threads).scan(input);
+        Map<Attributes.Name, Object> entries = entries(options, result, messager);
+        GitRepository.resolve(entries, input.isDirectory() ? input : input.getAbsoluteFile().getParentFile(), messager);
+        return entries;
+    }
+
+    /**
+     * The names of the main methods the computed attributes of the options need
+     */
+    static List<String> methodNames(Options options) {
+        List<String> methodNames = new ArrayList<String>();
+        for (Object value : options.entries.values()) {
+            if (value instanceof Options.Computed && value != Options.Computed.COMMON_PACKAGE && !methodNames.contains(((Options.Computed) value).key)) {
+                methodNames.add(((Options.Computed) value).key);
+            }
+        }
+        return methodNames;
+    }
+
+    /**
+     * Returns the entries of the options with the computed attributes
+     * replaced by finders holding the contributions of the class files,
+     * leaving out the attributes of providers
+     */
+    static Map<Attributes.Name, Object> entries(Options options, ClassFileScanner.Result result, Messager messager) {
+        Map<Attributes.Name, Object> entries = new LinkedHashMap<Attributes.Name, Object>();
+        for (Map.Entry<Attributes.Name, Object> e : options.entries.entrySet()) {
+            Object value = e.getValue();
+            // attribute providers visit elements, which class files do not have
+            if (value == Options.PROVIDED) continue;
+            if (value instanceof Options.Computed) {
+                Options.Computed computed = (Options.Computed) value;
+                RootVisitor visitor;
+                if (computed == Options.Computed.COMMON_PACKAGE) {
+                    visitor = new CommonPackageFinder(messager);
+                    for (String pkg : result.packages) {
+                        visitor.add(pkg);
+                    }
+                } else {
+                    visitor = MainMethodFinder.named(messager, computed.key);
+                    for (String className : result.classNames.get(computed.key)) {
+                        visitor.add(className);
+                    }
+                }
+                value = visitor;
+            }
+            entries.put(e.getKey(), value);
+        }
+        return entries;
+    }
+}
@@ -1,14 +1,10 @@
 package com.hunterwb.automanifest;
 
+import javax.annotation.processing.Messager;
 import javax.annotation.processing.ProcessingEnvironment;
-import javax.lang.model.element.Element;
-import javax.lang.model.element.ElementKind;
-import javax.lang.model.element.ExecutableElement;
-import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
-import javax.lang.model.type.ExecutableType;
-import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
 import javax.tools.Diagnostic;
 import java.util.Arrays;
 import java.util.Collection;
@@ -19,7 +15,9 @@ import java.util.TreeSet;
 
 final class MainMethodFinder extends RootVisitor {
 
-    private final ProcessingEnvironment env;
+    private final Messager messager;
+
+    private final Elements elements;
 
     private final String name;
 
@@ -27,55 +25,59 @@ final class MainMethodFinder extends RootVisitor {
 
     private final TreeSet<String> classNames = new TreeSet<String>();
 
-    private MainMethodFinder(ProcessingEnvironment env, String name, Collection<List<TypeMirror>> allParameterTypes) {
-        this.env = env;
+    private MainMethodFinder(Messager messager, Elements elements, String name, Collection<List<TypeMirror>> allParameterTypes) {
+        this.messager = messager;
+        this.elements = elements;
         this.name = name;
         this.allParameterTypes = allParameterTypes;
     }
 
-    @Override public Void visitType(TypeElement e, Void unused) {
-        for (Element m : e.getEnclosedElements()) {
-            m.accept(this, null);
-        }
-        return null;
+    @Override String methodName() {
+        return name;
     }
 
-    @Override public Void visitExecutable(ExecutableElement e, Void unused) {
-        if (isMainMethod(e)) {
-            TypeElement enclosing = ((TypeElement) e.getEnclosingElement());
-            String binaryName = env.getElementUtils().getBinaryName(enclosing).toString();
-            classNames.add(binaryName);
+    @Override void visitMethod(TypeElement enclosing, List<? extends TypeMirror> parameterTypes) {
+        if (isMainMethod(parameterTypes)) {
+            found(elements.getBinaryName(enclosing).toString());
         }
-        return null;
     }
 
-    private boolean isMainMethod(ExecutableElement e) {
-        if (e.getKind() != ElementKind.METHOD) return false;
-        if (!e.getSimpleName().contentEquals(name)) return false;
-        Set<Modifier> modifiers = e.getModifiers();
-        if (!modifiers.contains(Modifier.PUBLIC) || !modifiers.contains(Modifier.STATIC)) return false;
-        if (e.getReturnType().getKind() != TypeKind.VOID) return false;
-        List<? extends TypeMirror> parameterTypes = ((ExecutableType) e.asType()).getParameterTypes();
+    private boolean isMainMethod(List<? extends TypeMirror> parameterTypes) {
         return allParameterTypes.contains(parameterTypes);
     }
 
+    @Override String key() {
+        return name;
+    }
+
+    @Override void add(String value) {
+        classNames.add(value);
+    }
+
     @Override public String getValue() {
         switch (classNames.size()) {
             case 0:
-                env.getMessager().printMessage(Diagnostic.Kind.WARNING, "Found no " + name + " method");
+                messager.printMessage(Diagnostic.Kind.WARNING, "Found no " + name + " method");
                 return null;
             case 1:
                 return classNames.first();
             default:
-                env.getMessager().printMessage(Diagnostic.Kind.WARNING, "Found multiple " + name + " methods: " + classNames);
+                messager.printMessage(Diagnostic.Kind.WARNING, "Found multiple " + name + " methods: " + classNames);
                 return null;
         }
     }
 
+    /**
+     * Every class found, also when the value cannot be determined
+     */
+    Set<String> classNames() {
+        return Collections.unmodifiableSet(classNames);
+    }
+
     static MainMethodFinder main(ProcessingEnvironment env) {
         TypeMirror string = env.getElementUtils().getTypeElement("java.lang.String").asType();
         TypeMirror stringArray = env.getTypeUtils().getArrayType(string);
-        return new MainMethodFinder(env, "main", Collections.singletonList(Collections.singletonList(stringArray)));
+        return new MainMethodFinder(env.getMessager(), env.getElementUtils(), "main", Collections.singletonList(Collections.singletonList(stringArray)));
     }
 
     static MainMethodFinder premain(ProcessingEnvironment env) {
@@ -89,6 +91,14 @@ final class MainMethodFinder extends RootVisitor {
     private static MainMethodFinder premain(ProcessingEnvironment env, String name) {
         TypeMirror string = env.getElementUtils().getTypeElement("java.lang.String").asType();
         TypeMirror instrumentation = env.getElementUtils().getTypeElement("java.lang.instrument.Instrumentation").asType();
-        return new MainMethodFinder(env, name, Arrays.asList(Arrays.asList(string, instrumentation), Arrays.asList(string)));
+        return new MainMethodFinder(env.getMessager(), env.getElementUtils(), name, Arrays.asList(Arrays.asList(string, instrumentation), Arrays.asList(string)));
+    }
+
+    /**
+     * Only collects the class names passed to {@link #add}, for methods found
+     * outside of the element model
+     */
+    static MainMethodFinder named(Messager messager, String name) {
+        return new MainMethodFinder(messager, null, name, Collections.<List<TypeMirror>>emptyList());
     }
 }
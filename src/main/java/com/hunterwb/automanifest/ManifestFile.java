@@ -0,0 +1,196 @@
+package com.hunterwb.automanifest;
+
+import javax.annotation.processing.Messager;
+import javax.tools.Diagnostic;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+
+/**
+ * Updates the main section of a manifest with the attribute values, shared by
+ * the processor and the command line
+ */
+final class ManifestFile {
+
+    static final String NAME = "META-INF/MANIFEST.MF";
+
+    private static final String MANIFEST_VERSION_VALUE = "1.0";
+
+    private ManifestFile() {}
+
+    /**
+     * Returns the bytes of the updated main section. Values are either a
+     * {@code String} or a {@link RootVisitor}, whose value is left out if it
+     * cannot be determined.
+     */
+    static byte[] writeMainSection(Map<Attributes.Name, String> mainSection, Map<Attributes.Name, Object> entries, Messager messager) throws IOException {
+        Map<Attributes.Name, String> attr = new LinkedHashMap<Attributes.Name, String>();
+        attr.put(Attributes.Name.MANIFEST_VERSION, Util.getOrDefault(mainSection, Attributes.Name.MANIFEST_VERSION, MANIFEST_VERSION_VALUE));
+        attr.putAll(mainSection);
+        for (Map.Entry<Attributes.Name, Object> e : entries.entrySet()) {
+            Attributes.Name name = e.getKey();
+            Object value = e.getValue();
+            if (value instanceof RootVisitor) {
+                value = ((RootVisitor) value).getValue();
+                if (value == null) continue;
+            }
+            attr.put(name, (String) value);
+            messager.printMessage(Diagnostic.Kind.NOTE, name + ": " + value);
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new ManifestWriter(outputStream).writeSection(attr);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Returns the manifest with its main section updated, or a new manifest if
+     * there is none. The per-entry sections are copied byte for byte.
+     */
+    static byte[] patch(byte[] manifest, Map<Attributes.Name, Object> entries, Messager messager) throws IOException {
+        if (manifest == null) {
+            return writeMainSection(new LinkedHashMap<Attributes.Name, String>(), entries, messager);
+        }
+        ManifestReader reader = new ManifestReader(new ByteArrayInputStream(manifest));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(manifest.length + 256);
+        outputStream.write(writeMainSection(reader.readMainSection(), entries, messager));
+        reader.copyRemaining(outputStream);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Where a patched manifest is written
+     */
+    interface Output {
+
+        /**
+         * Opens the stream the manifest is written to
+         */
+        OutputStream open() throws IOException;
+
+        /**
+         * Whether opening the output truncates the input, whose per-entry
+         * sections must then be set aside before
+         */
+        boolean replacesInput();
+    }
+
+    /**
+     * Updates the main section of the manifest file, creating it if needed.
+     * The per-entry sections are copied byte for byte into a temporary file
+     * next to it, which then replaces the original. Returns whether the file
+     * was written, which it is not if the main section is unchanged.
+     */
+    static boolean patch(File file, Map<Attributes.Name, Object> entries, Messager messager) throws IOException {
+        return patch(file, entries, messager, null);
+    }
+
+    /**
+     * Like {@link #patch(File, Map, Messager)}, also recording the bytes read
+     * and written into the stats if not {@code null}
+     */
+    static boolean patch(final File file, Map<Attributes.Name, Object> entries, Messager messager, Stats stats) throws IOException {
+        InputStream inputStream;
+        try {
+            inputStream = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            inputStream = null;
+        }
+        final File[] tmp = new File[1];
+        try {
+            boolean written = patch(inputStream, new Output() {
+                @Override public OutputStream open() throws IOException {
+                    File parent = file.getAbsoluteFile().getParentFile();
+                    parent.mkdirs();
+                    tmp[0] = File.createTempFile("MANIFEST", ".tmp", parent);
+                    return new FileOutputStream(tmp[0]);
+                }
+
+                @Override public boolean replacesInput() {
+                    return false;
+                }
+            }, entries, messager, stats);
+            if (written) {
+                Util.renameOver(tmp[0], file);
+                tmp[0] = null;
+            }
+            return written;
+        } finally {
+            if (tmp[0] != null) tmp[0].delete();
+        }
+    }
+
+    /**
+     * Updates the main section of the manifest read from the input, which may
+     * be {@code null} if there is none, and writes it to the output unless the
+     * main section is unchanged. The per-entry sections are copied byte for
+     * byte, through a temporary file if the output replaces the input. The
+     * input is closed. Returns whether the output was written, also recording
+     * the bytes read and written into the stats if not {@code null}.
+     */
+    static boolean patch(InputStream inputStream, Output output, Map<Attributes.Name, Object> entries, Messager messager, Stats stats) throws IOException {
+        File entrySections = null;
+        try {
+            ManifestReader reader = null;
+            byte[] mainSection;
+            if (inputStream == null) {
+                mainSection = writeMainSection(new LinkedHashMap<Attributes.Name, String>(), entries, messager);
+            } else {
+                reader = new ManifestReader(new BufferedInputStream(inputStream));
+                mainSection = writeMainSection(reader.readMainSection(), entries, messager);
+                if (stats != null) stats.manifestBytesRead = reader.mainSectionBytes().length;
+                if (Arrays.equals(mainSection, reader.mainSectionBytes())) return false;
+                if (output.replacesInput()) {
+                    if (reader.hasRemaining()) {
+                        entrySections = File.createTempFile("automanifest", ".MF");
+                        OutputStream tmp = new BufferedOutputStream(new FileOutputStream(entrySections));
+                        try {
+                            reader.copyRemaining(tmp);
+                        } finally {
+                            tmp.close();
+                        }
+                    }
+                    inputStream.close();
+                    reader = null;
+                }
+            }
+            long entrySectionsLength = 0;
+            OutputStream outputStream = new BufferedOutputStream(output.open());
+            try {
+                outputStream.write(mainSection);
+                if (entrySections != null) {
+                    InputStream tmp = new FileInputStream(entrySections);
+                    try {
+                        entrySectionsLength = Util.copy(tmp, outputStream);
+                    } finally {
+                        tmp.close();
+                    }
+                } else if (reader != null) {
+                    entrySectionsLength = reader.copyRemaining(outputStream);
+                }
+            } finally {
+                outputStream.close();
+            }
+            if (stats != null) {
+                stats.manifestBytesRead += entrySectionsLength;
+                stats.manifestBytesWritten = mainSection.length + entrySectionsLength;
+                stats.manifestWritten = true;
+            }
+            return true;
+        } finally {
+            if (inputStream != null) Util.closeQuietly(inputStream);
+            if (entrySections != null) entrySections.delete();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.hunterwb.automanifest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+
+/**
+ * Reads the main section of a manifest as an ordered map, keeping the
+ * attributes in the order they appear in the file. Accepts any line ending and
+ * joins continuation lines. The per-entry sections that follow are never
+ * parsed, only copied as they are.
+ */
+final class ManifestReader {
+
+    private final InputStream in;
+
+    private int next = -2;
+
+    private ByteArrayOutputStream raw;
+
+    private byte[] mainSectionBytes;
+
+    ManifestReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the main section, which may be empty
+     */
+    Map<Attributes.Name, String> readMainSection() throws IOException {
+        Map<Attributes.Name, String> section = new LinkedHashMap<Attributes.Name, String>();
+        raw = new ByteArrayOutputStream();
+        readSection(section, readLine());
+        byte[] b = raw.toByteArray();
+        // a byte read ahead after a lone CR belongs to the per-entry sections
+        mainSectionBytes = next >= 0 ? Arrays.copyOf(b, b.length - 1) : b;
+        raw = null;
+        return section;
+    }
+
+    /**
+     * The main section exactly as it was read, including the empty line ending it
+     */
+    byte[] mainSectionBytes() {
+        return mainSectionBytes;
+    }
+
+    /**
+     * Whether any bytes follow the main section
+     */
+    boolean hasRemaining() throws IOException {
+        if (next == -2) next = in.read();
+        return next != -1;
+    }
+
+    /**
+     * Copies the remaining bytes after the main section unchanged and returns their number
+     */
+    long copyRemaining(OutputStream out) throws IOException {
+        long n = 0;
+        if (next >= 0) {
+            out.write(next);
+            n++;
+        }
+        next = -2;
+        return n + Util.copy(in, out);
+    }
+
+    private void readSection(Map<Attributes.Name, String> section, byte[] line) throws IOException {
+        ByteArrayOutputStream header = null;
+        for (; line != null && line.length != 0; line = readLine()) {
+            if (line[0] == ' ') {
+                if (header == null) throw new IOException("Invalid continuation line");
+                header.write(line, 1, line.length - 1);
+            } else {
+                if (header != null) putHeader(section, header);
+                header = new ByteArrayOutputStream(line.length);
+                header.write(line, 0, line.length);
+            }
+        }
+        if (header != null) putHeader(section, header);
+    }
+
+    private static void putHeader(Map<Attributes.Name, String> section, ByteArrayOutputStream header) throws IOException {
+        String s = header.toString(Util.UTF_8);
+        int colon = s.indexOf(": ");
+        if (colon <= 0) throw new IOException("Invalid header field: " + s);
+        Attributes.Name name;
+        try {
+            name = new Attributes.Name(s.substring(0, colon));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid header field name: " + s);
+        }
+        section.put(name, s.substring(colon + 2));
+    }
+
+    /**
+     * Reads a line without its line ending or returns {@code null} at the end of the stream
+     */
+    private byte[] readLine() throws IOException {
+        int b = next == -2 ? read() : next;
+        next = -2;
+        if (b == -1) return null;
+        ByteArrayOutputStream line = new ByteArrayOutputStream(80);
+        while (b != -1 && b != '\n' && b != '\r') {
+            line.write(b);
+            b = read();
+        }
+        if (b == '\r') {
+            b = read();
+            if (b != '\n') next = b;
+        }
+        return line.toByteArray();
+    }
+
+    private int read() throws IOException {
+        int b = in.read();
+        if (b != -1 && raw != null) raw.write(b);
+        return b;
+    }
+}
@@ -0,0 +1,53 @@
+package com.hunterwb.automanifest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.jar.Attributes;
+
+/**
+ * Writes manifest sections byte for byte the same way every time: attributes
+ * in map order, {@code CRLF} line endings and lines wrapped at 72 bytes
+ * without splitting a UTF-8 encoded character.
+ */
+final class ManifestWriter {
+
+    private static final int MAX_LINE_LENGTH = 72;
+
+    private static final byte[] LINE_END = {'\r', '\n'};
+
+    private final OutputStream out;
+
+    ManifestWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    void writeSection(Map<Attributes.Name, String> section) throws IOException {
+        for (Map.Entry<Attributes.Name, String> e : section.entrySet()) {
+            writeHeader(e.getKey(), e.getValue());
+        }
+        out.write(LINE_END);
+    }
+
+    private void writeHeader(Attributes.Name name, String value) throws IOException {
+        if (value.indexOf('\n') != -1 || value.indexOf('\r') != -1) {
+            throw new IOException("Line break in value of " + name);
+        }
+        byte[] b = (name + ": " + value).getBytes(Util.UTF_8);
+        int start = 0;
+        int max = MAX_LINE_LENGTH;
+        while (b.length - start > max) {
+            int end = start + max;
+            while ((b[end] & 0xC0) == 0x80) {
+                end--;
+            }
+            out.write(b, start, end - start);
+            out.write(LINE_END);
+            out.write(' ');
+            start = end;
+            max = MAX_LINE_LENGTH - 1;
+        }
+        out.write(b, start, b.length - start);
+        out.write(LINE_END);
+    }
+}
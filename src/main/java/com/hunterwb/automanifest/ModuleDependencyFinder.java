@@ -0,0 +1,305 @@
+package com.hunterwb.automanifest;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.Elements;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Finds the modules required by the compiled classes and the services they
+ * use, for the {@code module-info.class}. The module of every type, member
+ * and package named in the code is looked up with
+ * {@code Elements.getModuleOf} of Java 9 and later, and a call of
+ * {@code ServiceLoader.load} with a class literal uses that service. The code
+ * is read with the tree API of {@code javac}, without it only the types of
+ * the signatures and annotations are found.
+ * <p>
+ * The module of a type on the class path is not known, nor that of a type of
+ * the JDK outside {@code java.base} before Java 9, so its package is recorded
+ * to be reported instead. Like the packages, the dependencies are not
+ * limited by {@code include}, {@code exclude} or {@code skipGenerated}.
+ */
+final class ModuleDependencyFinder extends RootVisitor {
+
+    /**
+     * Prefix of the used services, as in {@code -Aautomanifest.moduleInfo}
+     */
+    static final String USES = "uses:";
+
+    /**
+     * Prefix of the packages whose module is not known
+     */
+    static final String PACKAGE = "package:";
+
+    /**
+     * The packages exported by {@code java.base} that are in Java 8
+     */
+    private static final Set<String> JAVA_BASE_PACKAGES = new HashSet<String>(Arrays.asList(
+            "java.io", "java.lang", "java.lang.annotation", "java.lang.invoke", "java.lang.ref", "java.lang.reflect",
+            "java.math", "java.net", "java.net.spi", "java.nio", "java.nio.channels", "java.nio.channels.spi",
+            "java.nio.charset", "java.nio.charset.spi", "java.nio.file", "java.nio.file.attribute", "java.nio.file.spi",
+            "java.security", "java.security.cert", "java.security.interfaces", "java.security.spec", "java.text",
+            "java.text.spi", "java.time", "java.time.chrono", "java.time.format", "java.time.temporal", "java.time.zone",
+            "java.util", "java.util.concurrent", "java.util.concurrent.atomic", "java.util.concurrent.locks",
+            "java.util.function", "java.util.jar", "java.util.regex", "java.util.spi", "java.util.stream", "java.util.zip",
+            "javax.crypto", "javax.crypto.interfaces", "javax.crypto.spec", "javax.net", "javax.net.ssl",
+            "javax.security.auth", "javax.security.auth.callback", "javax.security.auth.login", "javax.security.auth.spi",
+            "javax.security.auth.x500", "javax.security.cert"));
+
+    private static final Set<String> REFERENCE_KINDS = new HashSet<String>(Arrays.asList("IDENTIFIER", "MEMBER_SELECT"));
+
+    private final Elements elements;
+
+    private final SourceTrees trees;
+
+    /**
+     * {@code Elements.getModuleOf} and {@code ModuleElement.getQualifiedName},
+     * {@code null} before Java 9
+     */
+    private final Method getModuleOf;
+
+    private final Method getModuleName;
+
+    /**
+     * The value of every referenced package, empty if nothing is required
+     */
+    private final Map<PackageElement, String> values = new HashMap<PackageElement, String>();
+
+    private final Set<String> requires = new TreeSet<String>();
+
+    private final Set<String> uses = new TreeSet<String>();
+
+    private final Set<String> packages = new TreeSet<String>();
+
+    private PackageElement rootPackage;
+
+    ModuleDependencyFinder(Elements elements, SourceTrees trees) {
+        this.elements = elements;
+        this.trees = trees;
+        Method getModuleOf = null;
+        Method getModuleName = null;
+        try {
+            getModuleOf = Elements.class.getMethod("getModuleOf", Element.class);
+            getModuleName = Class.forName("javax.lang.model.element.ModuleElement").getMethod("getQualifiedName");
+        } catch (ClassNotFoundException e) {
+            getModuleOf = null;
+        } catch (NoSuchMethodException e) {
+            getModuleOf = null;
+        }
+        this.getModuleOf = getModuleOf;
+        this.getModuleName = getModuleName;
+    }
+
+    /**
+     * Visits the code of a root element, recording what it depends on in its entry
+     */
+    void visitRoot(Element rootElement, Index.Entry entry) {
+        this.entry = entry;
+        rootPackage = elements.getPackageOf(rootElement);
+        try {
+            Object path = trees == null ? null : trees.getPath(rootElement);
+            if (path != null) {
+                scan(path);
+            } else {
+                visitSignatures(rootElement);
+            }
+        } finally {
+            this.entry = null;
+            rootPackage = null;
+        }
+    }
+
+    /**
+     * The modules other than {@code java.base} that were found
+     */
+    Set<String> requires() {
+        return requires;
+    }
+
+    /**
+     * The binary names of the used services
+     */
+    Set<String> uses() {
+        return uses;
+    }
+
+    /**
+     * The referenced packages whose module is not known, which include
+     * compiled packages on the class path
+     */
+    Set<String> packages() {
+        return packages;
+    }
+
+    /**
+     * Not an attribute, the dependencies are read with {@link #requires},
+     * {@link #uses} and {@link #packages}
+     */
+    @Override String getValue() {
+        return null;
+    }
+
+    @Override String key() {
+        return "moduleDependency";
+    }
+
+    @Override void add(String value) {
+        if (value.startsWith(USES)) {
+            uses.add(value.substring(USES.length()));
+        } else if (value.startsWith(PACKAGE)) {
+            packages.add(value.substring(PACKAGE.length()));
+        } else {
+            requires.add(value);
+        }
+    }
+
+    private void scan(Object path) {
+        Object tree = trees.getLeaf(path);
+        if (REFERENCE_KINDS.contains(trees.kind(tree))) {
+            Element e = trees.getElement(path);
+            if (e != null) {
+                reference(e);
+                if (isServiceLoad(e)) serviceLoad(path);
+            }
+        }
+        for (Object t : trees.subtrees(tree)) {
+            scan(trees.newPath(path, t));
+        }
+    }
+
+    private static boolean isServiceLoad(Element e) {
+        if (e.getKind() != ElementKind.METHOD) return false;
+        String name = e.getSimpleName().toString();
+        return (name.equals("load") || name.equals("loadInstalled"))
+                && ((TypeElement) e.getEnclosingElement()).getQualifiedName().contentEquals("java.util.ServiceLoader");
+    }
+
+    /**
+     * Records the service of the class literal passed to the method
+     * invocation of {@code ServiceLoader.load} that is the parent of the path
+     */
+    private void serviceLoad(Object path) {
+        Object parent = trees.getParentPath(path);
+        if (parent == null || !trees.kind(trees.getLeaf(parent)).equals("METHOD_INVOCATION")) return;
+        List<?> arguments = trees.getArguments(trees.getLeaf(parent));
+        if (arguments.isEmpty()) return;
+        Object argument = trees.newPath(parent, arguments.get(0));
+        if (!trees.kind(arguments.get(0)).equals("MEMBER_SELECT")) return;
+        // the class literal is a field named class of its type
+        Element e = trees.getElement(argument);
+        if (e == null || !e.getSimpleName().contentEquals("class") || !(e.getEnclosingElement() instanceof TypeElement)) return;
+        found(USES + elements.getBinaryName((TypeElement) e.getEnclosingElement()));
+    }
+
+    /**
+     * Records the module of a type or of a member of a type
+     */
+    private void reference(Element e) {
+        Element type = e instanceof TypeElement ? e : e.getEnclosingElement();
+        if (!(type instanceof TypeElement)) return;
+        PackageElement p = elements.getPackageOf(type);
+        // also the package of the synthetic class declaring the length of arrays
+        if (p == null || p.equals(rootPackage) || p.getQualifiedName().length() == 0) return;
+        String value = values.get(p);
+        if (value == null) {
+            value = value(p);
+            values.put(p, value);
+        }
+        if (value.length() != 0) found(value);
+    }
+
+    private String value(PackageElement p) {
+        String packageName = p.getQualifiedName().toString();
+        if (getModuleOf == null) {
+            return JAVA_BASE_PACKAGES.contains(packageName) ? "" : PACKAGE + packageName;
+        }
+        String module;
+        try {
+            Object m = getModuleOf.invoke(elements, p);
+            module = m == null ? "" : getModuleName.invoke(m).toString();
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        if (module.equals("java.base")) return "";
+        // the unnamed module
+        return module.length() == 0 ? PACKAGE + packageName : module;
+    }
+
+    private void visitSignatures(Element e) {
+        for (AnnotationMirror a : e.getAnnotationMirrors()) {
+            visitType(a.getAnnotationType());
+        }
+        if (e instanceof TypeElement) {
+            TypeElement type = (TypeElement) e;
+            visitType(type.getSuperclass());
+            for (TypeMirror t : type.getInterfaces()) {
+                visitType(t);
+            }
+            visitTypeParameters(type.getTypeParameters());
+        } else if (e instanceof ExecutableElement) {
+            ExecutableElement method = (ExecutableElement) e;
+            visitType(method.getReturnType());
+            for (VariableElement parameter : method.getParameters()) {
+                visitSignatures(parameter);
+            }
+            for (TypeMirror t : method.getThrownTypes()) {
+                visitType(t);
+            }
+            visitTypeParameters(method.getTypeParameters());
+        } else if (e instanceof VariableElement) {
+            visitType(e.asType());
+        }
+        // the types of a package are root elements of their own
+        if (e instanceof PackageElement) return;
+        for (Element enclosed : e.getEnclosedElements()) {
+            visitSignatures(enclosed);
+        }
+    }
+
+    private void visitTypeParameters(List<? extends TypeParameterElement> typeParameters) {
+        for (TypeParameterElement p : typeParameters) {
+            for (TypeMirror bound : p.getBounds()) {
+                visitType(bound);
+            }
+        }
+    }
+
+    /**
+     * Visits a type and its type arguments, but not the bounds of type
+     * variables, which are visited where they are declared
+     */
+    private void visitType(TypeMirror t) {
+        if (t instanceof DeclaredType) {
+            reference(((DeclaredType) t).asElement());
+            for (TypeMirror argument : ((DeclaredType) t).getTypeArguments()) {
+                visitType(argument);
+            }
+        } else if (t instanceof ArrayType) {
+            visitType(((ArrayType) t).getComponentType());
+        } else if (t instanceof WildcardType) {
+            WildcardType w = (WildcardType) t;
+            if (w.getExtendsBound() != null) visitType(w.getExtendsBound());
+            if (w.getSuperBound() != null) visitType(w.getSuperBound());
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.hunterwb.automanifest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The {@code module-info.class} of an open module made of the compiled
+ * packages, all of which are exported, so that the classes of an automatic
+ * module can be put on the module path as a named module. The
+ * {@code ModulePackages} attribute spares the runtime from scanning the jar
+ * for the packages and the {@code ModuleMainClass} attribute allows
+ * {@code java -m} without a class name. Besides {@code java.base} it
+ * requires the modules that are added.
+ */
+final class ModuleInfo {
+
+    static final String NAME = "module-info.class";
+
+    private static final int MAJOR_VERSION = 53; // Java 9
+
+    private static final int ACC_OPEN = 0x0020;
+    private static final int ACC_MANDATED = 0x8000;
+    private static final int ACC_MODULE = 0x8000;
+
+    private static final int UTF8 = 1;
+    private static final int CLASS = 7;
+    private static final int MODULE = 19;
+    private static final int PACKAGE = 20;
+
+    private final String name;
+
+    private final Set<String> packages;
+
+    private final Set<String> requires = new TreeSet<String>();
+
+    private final Set<String> uses = new TreeSet<String>();
+
+    private final Map<String, Set<String>> provides = new TreeMap<String, Set<String>>();
+
+    private String mainClass;
+
+    private final Map<String, Integer> constants = new HashMap<String, Integer>();
+
+    private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+
+    ModuleInfo(String name, Set<String> packages) {
+        this.name = name;
+        this.packages = new TreeSet<String>(packages);
+    }
+
+    /**
+     * Adds a required module, ignoring {@code java.base} and this module,
+     * which javac finds the compiled classes in once its
+     * {@code module-info.class} is in the class output
+     */
+    void addRequires(String module) {
+        if (!module.equals("java.base") && !module.equals(name)) requires.add(module);
+    }
+
+    void addUses(String service) {
+        uses.add(service);
+    }
+
+    /**
+     * Adds a provider of a service, which must be in one of the packages.
+     * Returns whether it was added.
+     */
+    boolean addProvides(String service, String provider) {
+        if (!packages.contains(packageName(provider))) return false;
+        Set<String> providers = provides.get(service);
+        if (providers == null) {
+            providers = new TreeSet<String>();
+            provides.put(service, providers);
+        }
+        providers.add(provider);
+        return true;
+    }
+
+    /**
+     * Sets the main class, which must be in one of the packages. Returns
+     * whether it was set.
+     */
+    boolean setMainClass(String mainClass) {
+        if (!packages.contains(packageName(mainClass))) return false;
+        this.mainClass = mainClass;
+        return true;
+    }
+
+    private static String packageName(String className) {
+        int dot = className.lastIndexOf('.');
+        return dot == -1 ? "" : className.substring(0, dot);
+    }
+
+    byte[] toByteArray() throws IOException {
+        constants.clear();
+        constantPool.reset();
+        int thisClass = constant(CLASS, "module-info");
+        ByteArrayOutputStream attributes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(attributes);
+
+        ByteArrayOutputStream module = new ByteArrayOutputStream();
+        DataOutputStream m = new DataOutputStream(module);
+        m.writeShort(constant(MODULE, name));
+        m.writeShort(ACC_OPEN);
+        m.writeShort(0); // version
+        m.writeShort(1 + requires.size());
+        m.writeShort(constant(MODULE, "java.base"));
+        m.writeShort(ACC_MANDATED);
+        m.writeShort(0);
+        for (String r : requires) {
+            m.writeShort(constant(MODULE, r));
+            m.writeShort(0);
+            m.writeShort(0);
+        }
+        m.writeShort(packages.size());
+        for (String p : packages) {
+            m.writeShort(constant(PACKAGE, p.replace('.', '/')));
+            m.writeShort(0); // flags
+            m.writeShort(0); // to
+        }
+        m.writeShort(0); // opens, an open module opens every package
+        m.writeShort(uses.size());
+        for (String service : uses) {
+            m.writeShort(constant(CLASS, service.replace('.', '/')));
+        }
+        m.writeShort(provides.size());
+        for (Map.Entry<String, Set<String>> e : provides.entrySet()) {
+            m.writeShort(constant(CLASS, e.getKey().replace('.', '/')));
+            m.writeShort(e.getValue().size());
+            for (String provider : e.getValue()) {
+                m.writeShort(constant(CLASS, provider.replace('.', '/')));
+            }
+        }
+        int attributeCount = 1;
+        writeAttribute(out, "Module", module.toByteArray());
+
+        ByteArrayOutputStream modulePackages = new ByteArrayOutputStream();
+        DataOutputStream p = new DataOutputStream(modulePackages);
+        p.writeShort(packages.size());
+        for (String pkg : packages) {
+            p.writeShort(constant(PACKAGE, pkg.replace('.', '/')));
+        }
+        attributeCount++;
+        writeAttribute(out, "ModulePackages", modulePackages.toByteArray());
+
+        if (mainClass != null) {
+            int index = constant(CLASS, mainClass.replace('.', '/'));
+            attributeCount++;
+            writeAttribute(out, "ModuleMainClass", new byte[]{(byte) (index >> 8), (byte) index});
+        }
+
+        ByteArrayOutputStream classFile = new ByteArrayOutputStream(16 + constantPool.size() + attributes.size());
+        DataOutputStream c = new DataOutputStream(classFile);
+        c.writeInt(0xCAFEBABE);
+        c.writeShort(0);
+        c.writeShort(MAJOR_VERSION);
+        c.writeShort(constants.size() + 1);
+        constantPool.writeTo(c);
+        c.writeShort(ACC_MODULE);
+        c.writeShort(thisClass);
+        c.writeShort(0); // super_class
+        c.writeShort(0); // interfaces
+        c.writeShort(0); // fields
+        c.writeShort(0); // methods
+        c.writeShort(attributeCount);
+        attributes.writeTo(c);
+        return classFile.toByteArray();
+    }
+
+    private void writeAttribute(DataOutputStream out, String attributeName, byte[] content) throws IOException {
+        out.writeShort(constant(UTF8, attributeName));
+        out.writeInt(content.length);
+        out.write(content);
+    }
+
+    /**
+     * Returns the index of the constant, adding it and the {@code Utf8} it
+     * refers to if needed
+     */
+    private int constant(int tag, String value) throws IOException {
+        String key = tag + ":" + value;
+        Integer index = constants.get(key);
+        if (index != null) return index;
+        int utf8 = tag == UTF8 ? 0 : constant(UTF8, value);
+        DataOutputStream out = new DataOutputStream(constantPool);
+        out.writeByte(tag);
+        if (tag == UTF8) {
+            out.writeUTF(value);
+        } else {
+            out.writeShort(utf8);
+        }
+        index = constants.size() + 1;
+        constants.put(key, index);
+        return index;
+    }
+}
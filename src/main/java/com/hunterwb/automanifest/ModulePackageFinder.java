@@ -0,0 +1,37 @@
+package com.hunterwb.automanifest;
+
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.util.Elements;
+
+/**
+ * Finds the packages of the {@code module-info.class}, which are those of all
+ * root elements. Unlike the attributes it is not limited by
+ * {@code include}, {@code exclude} or {@code skipGenerated}, as the classes of
+ * the skipped root elements are in the output all the same.
+ */
+final class ModulePackageFinder extends CommonPackageFinder {
+
+    ModulePackageFinder(Messager messager) {
+        super(messager);
+    }
+
+    /**
+     * Visits the package of a root element, recording it in its entry
+     */
+    void visitRoot(Elements elements, Element rootElement, Index.Entry entry) {
+        PackageElement p = elements.getPackageOf(rootElement);
+        if (p == null) return;
+        this.entry = entry;
+        try {
+            visitPackage(p);
+        } finally {
+            this.entry = null;
+        }
+    }
+
+    @Override String key() {
+        return "modulePackage";
+    }
+}
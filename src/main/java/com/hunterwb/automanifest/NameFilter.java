@@ -0,0 +1,80 @@
+package com.hunterwb.automanifest;
+
+import java.util.regex.Pattern;
+
+/**
+ * Selects root elements by comma separated globs matched against the
+ * qualified names of types and packages, where {@code *} matches within one
+ * name segment and {@code **} matches across segments. A type is included if
+ * its name or its package matches an include glob, and excluded along with
+ * everything it encloses if its name or its package matches an exclude glob.
+ * The includes are only applied to root elements so that the nested types of
+ * an included type are not lost.
+ */
+final class NameFilter {
+
+    /**
+     * {@code null} to include everything
+     */
+    private final Pattern include;
+
+    /**
+     * {@code null} to exclude nothing
+     */
+    private final Pattern exclude;
+
+    private NameFilter(Pattern include, Pattern exclude) {
+        this.include = include;
+        this.exclude = exclude;
+    }
+
+    /**
+     * Returns {@code null} if there are no globs
+     */
+    static NameFilter of(String include, String exclude) {
+        Pattern includePattern = compile(include);
+        Pattern excludePattern = compile(exclude);
+        return includePattern == null && excludePattern == null ? null : new NameFilter(includePattern, excludePattern);
+    }
+
+    boolean includes(String packageName, String name) {
+        return include == null || include.matcher(name).matches() || include.matcher(packageName).matches();
+    }
+
+    boolean excludes(String packageName, String name) {
+        return exclude != null && (exclude.matcher(name).matches() || exclude.matcher(packageName).matches());
+    }
+
+    /**
+     * Compiles all globs into a single alternation, or returns {@code null} if there are none
+     */
+    static Pattern compile(String globs) {
+        if (globs == null) return null;
+        StringBuilder sb = new StringBuilder();
+        for (String glob : globs.split(",")) {
+            glob = glob.trim();
+            if (glob.length() == 0) continue;
+            if (sb.length() != 0) sb.append('|');
+            sb.append("(?:");
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (c == '*') {
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        sb.append(".*");
+                        i++;
+                    } else {
+                        sb.append("[^.]*");
+                    }
+                } else if (c == '?') {
+                    sb.append("[^.]");
+                } else if (Character.isLetterOrDigit(c) || c == '_') {
+                    sb.append(c);
+                } else {
+                    sb.append('\\').append(c);
+                }
+            }
+            sb.append(')');
+        }
+        return sb.length() == 0 ? null : Pattern.compile(sb.toString());
+    }
+}
@@ -0,0 +1,143 @@
+package com.hunterwb.automanifest;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The GraalVM {@code native-image} configuration in
+ * {@code META-INF/native-image/<group>/<artifact>/}, which is picked up from
+ * the class path when building an image
+ */
+final class NativeImageConfig {
+
+    private static final String DIRECTORY = "META-INF/native-image/";
+
+    private final Elements elements;
+
+    private final Types types;
+
+    private final String directory;
+
+    private final String imageName;
+
+    private String mainClass;
+
+    /**
+     * The JSON object of every class that is loaded reflectively by its name
+     */
+    private final Map<String, StringBuilder> reflectedClasses = new TreeMap<String, StringBuilder>();
+
+    /**
+     * The agent classes and method names that were added, as
+     * {@code Agent-Class} and {@code Launcher-Agent-Class} can name the same
+     * class
+     */
+    private final Set<String> agents = new HashSet<String>();
+
+    NativeImageConfig(Elements elements, Types types, String coordinates) {
+        this.elements = elements;
+        this.types = types;
+        this.directory = DIRECTORY + coordinates + '/';
+        this.imageName = coordinates.substring(coordinates.lastIndexOf('/') + 1);
+    }
+
+    void setMainClass(String mainClass) {
+        this.mainClass = mainClass;
+    }
+
+    /**
+     * Registers the {@code public static} methods with the name of the agent
+     * class, which the JVM looks up reflectively. Classes outside of the
+     * compilation cannot be checked and are left out.
+     */
+    void addAgent(String className, String methodName) {
+        if (className == null || !agents.add(className + '.' + methodName)) return;
+        TypeElement type = Util.getTypeElement(elements, className);
+        if (type == null) return;
+        for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+            if (!method.getSimpleName().contentEquals(methodName)) continue;
+            if (!method.getModifiers().contains(Modifier.PUBLIC) || !method.getModifiers().contains(Modifier.STATIC)) continue;
+            StringBuilder sb = reflectedClasses.get(className);
+            if (sb == null) {
+                sb = new StringBuilder();
+                reflectedClasses.put(className, sb);
+            } else {
+                sb.append(',');
+            }
+            sb.append("{\"name\":");
+            Util.appendJsonString(sb, methodName);
+            sb.append(",\"parameterTypes\":[");
+            List<? extends VariableElement> parameters = method.getParameters();
+            for (int i = 0; i < parameters.size(); i++) {
+                if (i != 0) sb.append(',');
+                Util.appendJsonString(sb, typeName(parameters.get(i).asType()));
+            }
+            sb.append("]}");
+        }
+    }
+
+    String propertiesName() {
+        return directory + "native-image.properties";
+    }
+
+    String reflectConfigName() {
+        return directory + "reflect-config.json";
+    }
+
+    byte[] properties() throws IOException {
+        StringBuilder sb = new StringBuilder("Args =");
+        if (mainClass != null) sb.append(" -H:Class=").append(mainClass);
+        sb.append(" -H:Name=").append(imageName).append('\n');
+        return sb.toString().getBytes(Util.UTF_8);
+    }
+
+    /**
+     * Returns the reflection configuration, an empty array if there are no
+     * classes to register so that one written by an earlier build is replaced
+     */
+    byte[] reflectConfig() throws IOException {
+        if (reflectedClasses.isEmpty()) return "[]\n".getBytes(Util.UTF_8);
+        StringBuilder sb = new StringBuilder("[\n");
+        boolean first = true;
+        for (Map.Entry<String, StringBuilder> e : reflectedClasses.entrySet()) {
+            if (!first) sb.append(",\n");
+            first = false;
+            sb.append("  {\"name\":");
+            Util.appendJsonString(sb, e.getKey());
+            sb.append(",\"methods\":[").append(e.getValue()).append("]}");
+        }
+        sb.append("\n]\n");
+        return sb.toString().getBytes(Util.UTF_8);
+    }
+
+    /**
+     * The name of the erased type as used by {@code Class.forName}, with a
+     * {@code []} suffix for arrays
+     */
+    private String typeName(TypeMirror t) {
+        t = types.erasure(t);
+        if (t.getKind() == TypeKind.ARRAY) {
+            return typeName(((ArrayType) t).getComponentType()) + "[]";
+        } else if (t.getKind() == TypeKind.DECLARED) {
+            Element e = ((DeclaredType) t).asElement();
+            return elements.getBinaryName((TypeElement) e).toString();
+        }
+        return t.toString();
+    }
+}
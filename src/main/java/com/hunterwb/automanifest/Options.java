@@ -0,0 +1,194 @@
+package com.hunterwb.automanifest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.Attributes;
+
+/**
+ * The parsed {@code -Aautomanifest} option. Every attribute name is mapped to
+ * either its value or the {@link Computed} attribute that determines it, so the
+ * result does not depend on the compilation and can be shared by the
+ * processor and the command line.
+ */
+final class Options {
+
+    static final String NAME = "automanifest";
+
+    static final String CREATED_BY = "Created-By";
+    static final String AUTOMATIC_MODULE_NAME = "Automatic-Module-Name";
+    static final String MAIN_CLASS = "Main-Class";
+    static final String PREMAIN_CLASS = "Premain-Class";
+    static final String AGENT_CLASS = "Agent-Class";
+    static final String LAUNCHER_AGENT_CLASS = "Launcher-Agent-Class";
+    static final String BUILT_BY = "Built-By";
+    static final String BUILD_JDK_SPEC = "Build-Jdk-Spec";
+    static final String BUILD_JDK = "Build-Jdk";
+    static final String BUILD_OS = "Build-Os";
+    static final String BUILD_REVISION = "Build-Revision";
+    static final String BUILD_BRANCH = "Build-Branch";
+    static final String BUILD_DIRTY = "Build-Dirty";
+
+    static final String DEFAULT = MAIN_CLASS;
+
+    /**
+     * Attributes whose values are computed from the compiled classes
+     */
+    enum Computed {
+
+        COMMON_PACKAGE("package"),
+        MAIN("main"),
+        PREMAIN("premain"),
+        AGENTMAIN("agentmain");
+
+        /**
+         * The {@link Index} key, which is also the method name for the main methods
+         */
+        final String key;
+
+        Computed(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Parsed options by their string, which are the same for every
+     * compilation of a build and in a compiler daemon are parsed only once
+     */
+    private static final ConcurrentMap<String, Options> CACHE = new ConcurrentHashMap<String, Options>();
+
+    /**
+     * Attributes whose values are read from the git repository containing the
+     * class output, which change between compilations with the same options
+     */
+    enum Git {
+
+        REVISION,
+        BRANCH,
+        DIRTY
+    }
+
+    /**
+     * The value of names that are not built in, which are computed by the
+     * {@link AttributeProvider} with that name if there is one
+     */
+    static final Object PROVIDED = new Object() {
+        @Override public String toString() {
+            return "PROVIDED";
+        }
+    };
+
+    final String string;
+
+    /**
+     * Values are either a {@code String}, a {@link Computed}, a {@link Git}
+     * or {@link #PROVIDED}
+     */
+    final Map<Attributes.Name, Object> entries;
+
+    /**
+     * Names given with a value, whose other {@code String} values are read
+     * from the build environment
+     */
+    final Set<Attributes.Name> explicit;
+
+    final List<String> warnings;
+
+    private Options(String string, Map<Attributes.Name, Object> entries, Set<Attributes.Name> explicit, List<String> warnings) {
+        this.string = string;
+        this.entries = Collections.unmodifiableMap(entries);
+        this.explicit = Collections.unmodifiableSet(explicit);
+        this.warnings = Collections.unmodifiableList(warnings);
+    }
+
+    static Options of(String string) {
+        Options options = CACHE.get(string);
+        if (options == null) {
+            options = parse(string);
+            Options existing = CACHE.putIfAbsent(string, options);
+            if (existing != null) options = existing;
+        }
+        return options;
+    }
+
+    static Options parse(String string) {
+        Map<Attributes.Name, Object> entries = new LinkedHashMap<Attributes.Name, Object>();
+        Set<Attributes.Name> explicit = new HashSet<Attributes.Name>();
+        List<String> warnings = new ArrayList<String>();
+        for (String option : string.split(",", -1)) {
+            int colon = option.indexOf(':');
+            if (colon == -1) {
+                Attributes.Name name = name(option, warnings);
+                if (name != null) {
+                    addEntry(entries, name, getValue(name), warnings);
+                    explicit.remove(name);
+                }
+            } else {
+                Attributes.Name name = name(option.substring(0, colon), warnings);
+                if (name != null) {
+                    String value = option.substring(colon + 1);
+                    addEntry(entries, name, value, warnings);
+                    explicit.add(name);
+                }
+            }
+        }
+        return new Options(string, entries, explicit, warnings);
+    }
+
+    private static Attributes.Name name(String s, List<String> warnings) {
+        Attributes.Name name;
+        if (s.startsWith("From") || s.equalsIgnoreCase("Name")) {
+            name = null;
+        } else {
+            try {
+                name = new Attributes.Name(s);
+            } catch (IllegalArgumentException e) {
+                name = null;
+            }
+        }
+        if (name == null) {
+            warnings.add("Illegal name: " + s);
+        }
+        return name;
+    }
+
+    private static void addEntry(Map<Attributes.Name, Object> entries, Attributes.Name name, Object value, List<String> warnings) {
+        if (entries.put(name, value) != null) {
+            warnings.add("Duplicate name: " + name);
+        }
+    }
+
+    private static Object getValue(Attributes.Name name) {
+        String s = name.toString();
+        if (s.equalsIgnoreCase(CREATED_BY) || s.equalsIgnoreCase(BUILD_JDK)) {
+            return System.getProperty("java.version") + " (" + System.getProperty("java.vendor") + ')';
+        } else if (s.equalsIgnoreCase(AUTOMATIC_MODULE_NAME)) {
+            return Computed.COMMON_PACKAGE;
+        } else if (s.equalsIgnoreCase(MAIN_CLASS)) {
+            return Computed.MAIN;
+        } else if (s.equalsIgnoreCase(PREMAIN_CLASS)) {
+            return Computed.PREMAIN;
+        } else if (s.equalsIgnoreCase(AGENT_CLASS) || s.equalsIgnoreCase(LAUNCHER_AGENT_CLASS)) {
+            return Computed.AGENTMAIN;
+        } else if (s.equalsIgnoreCase(BUILT_BY)) {
+            return System.getProperty("user.name");
+        } else if (s.equalsIgnoreCase(BUILD_JDK_SPEC)) {
+            return System.getProperty("java.specification.version");
+        } else if (s.equalsIgnoreCase(BUILD_OS)) {
+            return System.getProperty("os.name") + " (" + System.getProperty("os.version") + "; " + System.getProperty("os.arch") + ')';
+        } else if (s.equalsIgnoreCase(BUILD_REVISION)) {
+            return Git.REVISION;
+        } else if (s.equalsIgnoreCase(BUILD_BRANCH)) {
+            return Git.BRANCH;
+        } else if (s.equalsIgnoreCase(BUILD_DIRTY)) {
+            return Git.DIRTY;
+        }
+        return PROVIDED;
+    }
+}
@@ -0,0 +1,295 @@
+package com.hunterwb.automanifest;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serializes the updates of the manifest and the other resources of an output
+ * directory by compilations in this and in other processes. The lock file is
+ * kept in the temporary directory so that it never ends up in a jar and is
+ * never deleted, as deleting it would let two processes lock different files.
+ * It also holds the root elements of the compilations whose class files may
+ * not be written yet.
+ */
+final class OutputLock {
+
+    /**
+     * File locks are held by the whole process, so threads are serialized
+     * before one of them takes the file lock. A lock is removed when no
+     * thread holds or waits for it, so that the map does not grow in a
+     * daemon compiling into many directories.
+     */
+    private static final Map<String, ThreadLock> THREAD_LOCKS = new HashMap<String, ThreadLock>();
+
+    private final String path;
+
+    private final ThreadLock threadLock;
+
+    private final File lockFile;
+
+    private final RandomAccessFile file;
+
+    private final FileLock fileLock;
+
+    private OutputLock(String path, ThreadLock threadLock, File lockFile, RandomAccessFile file, FileLock fileLock) {
+        this.path = path;
+        this.threadLock = threadLock;
+        this.lockFile = lockFile;
+        this.file = file;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * Blocks until the directory is locked
+     */
+    static OutputLock acquire(File directory) throws IOException {
+        String path = directory.getCanonicalPath();
+        ThreadLock threadLock;
+        synchronized (THREAD_LOCKS) {
+            threadLock = THREAD_LOCKS.get(path);
+            if (threadLock == null) {
+                threadLock = new ThreadLock();
+                THREAD_LOCKS.put(path, threadLock);
+            }
+            threadLock.users++;
+        }
+        threadLock.lock.lock();
+        RandomAccessFile file = null;
+        boolean acquired = false;
+        try {
+            File lockFile = new File(System.getProperty("java.io.tmpdir"), "automanifest-" + sha256(path) + ".lock");
+            file = new RandomAccessFile(lockFile, "rw");
+            OutputLock lock = new OutputLock(path, threadLock, lockFile, file, file.getChannel().lock());
+            acquired = true;
+            return lock;
+        } finally {
+            if (!acquired) {
+                if (file != null) Util.closeQuietly(file);
+                unlock(path, threadLock);
+            }
+        }
+    }
+
+    private static void unlock(String path, ThreadLock threadLock) {
+        threadLock.lock.unlock();
+        synchronized (THREAD_LOCKS) {
+            if (--threadLock.users == 0) THREAD_LOCKS.remove(path);
+        }
+    }
+
+    /**
+     * The SHA-256 of the path, so that the lock files of different
+     * directories never collide
+     */
+    private static String sha256(String path) throws IOException {
+        try {
+            return Util.hex(MessageDigest.getInstance("SHA-256").digest(path.getBytes(Util.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // every platform has SHA-256
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Only used while holding the lock of {@link #THREAD_LOCKS}
+     */
+    private static final class ThreadLock {
+
+        final ReentrantLock lock = new ReentrantLock();
+
+        int users;
+    }
+
+    /**
+     * Returns the root elements of the compilations into the directory that
+     * still hold their claim, whose class files may not be written yet. They
+     * are kept in the lock file rather than the output so that it stays
+     * reproducible. The root elements of claims that were released, also by
+     * a process that ended, are removed.
+     */
+    Set<String> pending() throws IOException {
+        Map<String, Set<String>> pending = readPending();
+        Set<String> ids = new TreeSet<String>();
+        boolean removed = false;
+        for (Iterator<Map.Entry<String, Set<String>>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Set<String>> e = it.next();
+            if (Claim.isHeld(claimFile(e.getKey()))) {
+                ids.addAll(e.getValue());
+            } else {
+                it.remove();
+                removed = true;
+            }
+        }
+        if (removed) writePending(pending);
+        return ids;
+    }
+
+    /**
+     * Records the root elements of a compilation whose processing ended now.
+     * They are pending until the returned claim is released, which must be
+     * done once their class files are written.
+     */
+    Claim claim(Collection<String> ids) throws IOException {
+        Map<String, Set<String>> pending = readPending();
+        String owner = UUID.randomUUID().toString();
+        Claim claim = Claim.hold(claimFile(owner), ids);
+        pending.put(owner, new TreeSet<String>(ids));
+        writePending(pending);
+        return claim;
+    }
+
+    private File claimFile(String owner) {
+        return new File(lockFile.getParentFile(), lockFile.getName() + "-" + owner);
+    }
+
+    private Map<String, Set<String>> readPending() throws IOException {
+        byte[] b = new byte[(int) file.length()];
+        file.seek(0);
+        file.readFully(b);
+        Map<String, Set<String>> pending = new TreeMap<String, Set<String>>();
+        for (String line : new String(b, Util.UTF_8).split("\n")) {
+            int tab = line.indexOf('\t');
+            if (tab == -1) continue;
+            String owner = line.substring(0, tab);
+            Set<String> ids = pending.get(owner);
+            if (ids == null) {
+                ids = new TreeSet<String>();
+                pending.put(owner, ids);
+            }
+            ids.add(line.substring(tab + 1));
+        }
+        return pending;
+    }
+
+    private void writePending(Map<String, Set<String>> pending) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Set<String>> e : pending.entrySet()) {
+            for (String id : e.getValue()) {
+                sb.append(e.getKey()).append('\t').append(id).append('\n');
+            }
+        }
+        byte[] b = sb.toString().getBytes(Util.UTF_8);
+        file.seek(0);
+        file.write(b);
+        file.setLength(b.length);
+    }
+
+    void release() throws IOException {
+        try {
+            fileLock.release();
+        } finally {
+            try {
+                file.close();
+            } finally {
+                unlock(path, threadLock);
+            }
+        }
+    }
+
+    /**
+     * The root elements of a compilation whose class files may not be written
+     * yet. The claim is held by a lock on its own file, which other processes
+     * can test and which is released when the process ends.
+     */
+    static final class Claim implements ClassFileListener.Callback {
+
+        private final File path;
+
+        private final RandomAccessFile file;
+
+        private final FileLock lock;
+
+        private final Set<String> ids;
+
+        private boolean released;
+
+        private Claim(File path, RandomAccessFile file, FileLock lock, Collection<String> ids) {
+            this.path = path;
+            this.file = file;
+            this.lock = lock;
+            this.ids = new TreeSet<String>(ids);
+        }
+
+        static Claim hold(File path, Collection<String> ids) throws IOException {
+            RandomAccessFile file = new RandomAccessFile(path, "rw");
+            boolean held = false;
+            try {
+                Claim claim = new Claim(path, file, file.getChannel().lock(), ids);
+                held = true;
+                return claim;
+            } finally {
+                if (!held) {
+                    Util.closeQuietly(file);
+                    path.delete();
+                }
+            }
+        }
+
+        /**
+         * Whether the claim of the file is held by a compilation in this or
+         * in another process. The file of a released claim is deleted.
+         */
+        static boolean isHeld(File path) throws IOException {
+            if (!path.exists()) return false;
+            RandomAccessFile file;
+            try {
+                file = new RandomAccessFile(path, "rw");
+            } catch (FileNotFoundException e) {
+                return false;
+            }
+            try {
+                FileLock lock = file.getChannel().tryLock();
+                if (lock == null) return true;
+                lock.release();
+            } catch (OverlappingFileLockException e) {
+                return true;
+            } finally {
+                file.close();
+            }
+            path.delete();
+            return false;
+        }
+
+        /**
+         * Removes a root element whose class file was written, releasing the
+         * claim after the last one. A {@code package-info} stands for its
+         * package.
+         */
+        @Override public synchronized void written(String qualifiedName) {
+            ids.remove(qualifiedName);
+            if (qualifiedName.endsWith(".package-info")) ids.remove(qualifiedName.substring(0, qualifiedName.length() - ".package-info".length()));
+            if (ids.isEmpty()) release();
+        }
+
+        @Override public void ended() {
+            release();
+        }
+
+        synchronized void release() {
+            if (released) return;
+            released = true;
+            try {
+                lock.release();
+            } catch (IOException ignored) {
+            } finally {
+                Util.closeQuietly(file);
+                path.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.hunterwb.automanifest;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Adapts an {@link AttributeProvider} to the {@link RootScanner}
+ */
+final class ProviderVisitor extends RootVisitor {
+
+    private final AttributeProvider provider;
+
+    private final Set<ElementKind> elementKinds;
+
+    private final Pattern namePattern;
+
+    ProviderVisitor(AttributeProvider provider) {
+        this.provider = provider;
+        provider.visitor = this;
+        Set<ElementKind> kinds = provider.elementKinds();
+        elementKinds = kinds.isEmpty() ? EnumSet.noneOf(ElementKind.class) : EnumSet.copyOf(kinds);
+        namePattern = NameFilter.compile(Util.joinToString(provider.namePatterns().toArray(), ','));
+    }
+
+    @Override String getValue() {
+        return provider.getValue();
+    }
+
+    @Override String key() {
+        return "provider:" + provider.attributeName();
+    }
+
+    @Override void add(String value) {
+        provider.add(value);
+    }
+
+    @Override Set<ElementKind> elementKinds() {
+        return elementKinds;
+    }
+
+    @Override Pattern namePattern() {
+        return namePattern;
+    }
+
+    @Override void visitElement(Element e) {
+        provider.visit(e);
+    }
+}
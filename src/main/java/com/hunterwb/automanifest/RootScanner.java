@@ -0,0 +1,218 @@
+package com.hunterwb.automanifest;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.Name;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Walks every root element once and dispatches the package of the root, the
+ * {@code public static void} methods of its types and the elements of the
+ * requested kinds to all interested {@link RootVisitor}s. Method names are
+ * compared before any modifier or type mirror is looked at, and element kinds
+ * before any name is built. Types rejected by the {@link NameFilter} are
+ * pruned without looking at their enclosed elements.
+ */
+final class RootScanner {
+
+    private final Elements elements;
+
+    private final RootVisitor[] visitors;
+
+    private final int[] packageVisitors;
+
+    private final int[] methodVisitors;
+
+    private final String[] methodNames;
+
+    private final int[] matched;
+
+    private final int[] elementVisitors;
+
+    /**
+     * The kinds of all element visitors
+     */
+    private final Set<ElementKind> elementKinds = EnumSet.noneOf(ElementKind.class);
+
+    private final NameFilter filter;
+
+    private Stats.Round round;
+
+    /**
+     * @param filter the types and packages to visit or {@code null} for all
+     */
+    RootScanner(Elements elements, Collection<RootVisitor> visitors, NameFilter filter) {
+        this.elements = elements;
+        this.filter = filter;
+        this.visitors = visitors.toArray(new RootVisitor[visitors.size()]);
+        int packageCount = 0;
+        int methodCount = 0;
+        int elementCount = 0;
+        for (RootVisitor v : this.visitors) {
+            if (v.visitsPackages()) packageCount++;
+            if (v.methodName() != null) methodCount++;
+            if (!v.elementKinds().isEmpty()) elementCount++;
+        }
+        packageVisitors = new int[packageCount];
+        methodVisitors = new int[methodCount];
+        methodNames = new String[methodCount];
+        elementVisitors = new int[elementCount];
+        packageCount = 0;
+        methodCount = 0;
+        elementCount = 0;
+        for (int i = 0; i < this.visitors.length; i++) {
+            RootVisitor v = this.visitors[i];
+            if (v.visitsPackages()) packageVisitors[packageCount++] = i;
+            if (v.methodName() != null) {
+                methodVisitors[methodCount] = i;
+                methodNames[methodCount++] = v.methodName();
+            }
+            if (!v.elementKinds().isEmpty()) {
+                elementVisitors[elementCount++] = i;
+                elementKinds.addAll(v.elementKinds());
+            }
+        }
+        matched = new int[methodCount];
+    }
+
+    /**
+     * Records the visits and the time spent in each visitor into the given
+     * round, or stops recording if {@code null}
+     */
+    void setRound(Stats.Round round) {
+        this.round = round;
+    }
+
+    /**
+     * Returns whether the root element was visited or pruned by the filter
+     */
+    boolean scan(Element rootElement, Index.Entry entry) {
+        PackageElement p = null;
+        String packageName = null;
+        if (packageVisitors.length != 0 || filter != null) {
+            p = elements.getPackageOf(rootElement);
+            if (filter != null) {
+                packageName = p == null ? "" : p.getQualifiedName().toString();
+                String name = rootElement instanceof TypeElement ? ((TypeElement) rootElement).getQualifiedName().toString() : packageName;
+                if (!filter.includes(packageName, name) || filter.excludes(packageName, name)) return false;
+            }
+        }
+        for (RootVisitor v : visitors) {
+            v.entry = entry;
+        }
+        try {
+            if (p != null) {
+                for (int i : packageVisitors) {
+                    if (round == null) {
+                        visitors[i].visitPackage(p);
+                    } else {
+                        long start = System.nanoTime();
+                        visitors[i].visitPackage(p);
+                        round.nanos[i] += System.nanoTime() - start;
+                        round.visited[i]++;
+                    }
+                }
+            }
+            if (rootElement instanceof TypeElement) {
+                if (methodVisitors.length != 0 || elementVisitors.length != 0) {
+                    scanType((TypeElement) rootElement, packageName);
+                }
+            } else if (elementKinds.contains(rootElement.getKind())) {
+                visitElement(rootElement);
+            }
+        } finally {
+            for (RootVisitor v : visitors) {
+                v.entry = null;
+            }
+        }
+        return true;
+    }
+
+    private void scanType(TypeElement type, String packageName) {
+        if (elementKinds.contains(type.getKind())) visitElement(type);
+        for (Element e : type.getEnclosedElements()) {
+            if (e instanceof TypeElement) {
+                if (filter == null || !filter.excludes(packageName, ((TypeElement) e).getQualifiedName().toString())) {
+                    scanType((TypeElement) e, packageName);
+                }
+            } else {
+                if (e.getKind() == ElementKind.METHOD && methodVisitors.length != 0) {
+                    scanMethod(type, (ExecutableElement) e);
+                }
+                if (elementKinds.contains(e.getKind())) visitElement(e);
+            }
+        }
+    }
+
+    private void visitElement(Element e) {
+        ElementKind kind = e.getKind();
+        String name = null;
+        for (int v : elementVisitors) {
+            RootVisitor visitor = visitors[v];
+            if (!visitor.elementKinds().contains(kind)) continue;
+            Pattern namePattern = visitor.namePattern();
+            if (namePattern != null) {
+                if (name == null) name = name(e);
+                if (!namePattern.matcher(name).matches()) continue;
+            }
+            if (round == null) {
+                visitor.visitElement(e);
+            } else {
+                long start = System.nanoTime();
+                visitor.visitElement(e);
+                round.nanos[v] += System.nanoTime() - start;
+                round.visited[v]++;
+            }
+        }
+    }
+
+    /**
+     * The qualified name of a type or package, otherwise the qualified name
+     * of the enclosing type followed by the simple name
+     */
+    private static String name(Element e) {
+        if (e instanceof TypeElement) return ((TypeElement) e).getQualifiedName().toString();
+        if (e instanceof PackageElement) return ((PackageElement) e).getQualifiedName().toString();
+        Element enclosing = e.getEnclosingElement();
+        if (enclosing instanceof TypeElement) return ((TypeElement) enclosing).getQualifiedName() + "." + e.getSimpleName();
+        return e.getSimpleName().toString();
+    }
+
+    private void scanMethod(TypeElement enclosing, ExecutableElement e) {
+        Name simpleName = e.getSimpleName();
+        int n = 0;
+        for (int i = 0; i < methodNames.length; i++) {
+            if (simpleName.contentEquals(methodNames[i])) {
+                matched[n++] = methodVisitors[i];
+            }
+        }
+        if (n == 0) return;
+        Set<Modifier> modifiers = e.getModifiers();
+        if (modifiers.contains(Modifier.PUBLIC) && modifiers.contains(Modifier.STATIC) && e.getReturnType().getKind() == TypeKind.VOID) {
+            List<? extends TypeMirror> parameterTypes = ((ExecutableType) e.asType()).getParameterTypes();
+            for (int i = 0; i < n; i++) {
+                int v = matched[i];
+                if (round == null) {
+                    visitors[v].visitMethod(enclosing, parameterTypes);
+                } else {
+                    long start = System.nanoTime();
+                    visitors[v].visitMethod(enclosing, parameterTypes);
+                    round.nanos[v] += System.nanoTime() - start;
+                    round.visited[v]++;
+                }
+            }
+        }
+    }
+}
@@ -1,21 +1,85 @@
 package com.hunterwb.automanifest;
 
 import javax.lang.model.element.Element;
-import javax.lang.model.util.SimpleElementVisitor6;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.regex.Pattern;
 
-@SuppressWarnings("deprecation")
-abstract class RootVisitor extends SimpleElementVisitor6<Void, Void> {
+/**
+ * Computes an attribute value from the root elements, which are walked once
+ * per round by a {@link RootScanner} shared by all visitors
+ */
+abstract class RootVisitor {
+
+    Index.Entry entry;
 
     abstract String getValue();
 
-    final void visitRootElements(Set<? extends Element> rootElements) {
-        for (Element rootElement : rootElements) {
-            rootElement.accept(this, null);
-        }
+    /**
+     * Key under which the contributions of this visitor are stored in the {@link Index}
+     */
+    abstract String key();
+
+    /**
+     * Adds a contribution found either by this visitor or in the {@link Index}
+     */
+    abstract void add(String value);
+
+    /**
+     * Whether {@link #visitPackage} should be called for every root element
+     */
+    boolean visitsPackages() {
+        return false;
+    }
+
+    void visitPackage(PackageElement p) {}
+
+    /**
+     * Simple name of the methods passed to {@link #visitMethod} or {@code null}
+     */
+    String methodName() {
+        return null;
+    }
+
+    /**
+     * Visits a {@code public static void} method named {@link #methodName}
+     */
+    void visitMethod(TypeElement enclosing, List<? extends TypeMirror> parameterTypes) {}
+
+    /**
+     * Kinds of the elements passed to {@link #visitElement}
+     */
+    Set<ElementKind> elementKinds() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Pattern the names of the elements passed to {@link #visitElement} must
+     * match, or {@code null} for all
+     */
+    Pattern namePattern() {
+        return null;
+    }
+
+    /**
+     * Visits an element of one of the {@link #elementKinds}
+     */
+    void visitElement(Element e) {}
+
+    final void found(String value) {
+        record(value);
+        add(value);
     }
 
-    @Override public Void visitUnknown(Element e, Void unused) {
-        return defaultAction(e, unused);
+    /**
+     * Stores a contribution in the {@link Index} without adding it again
+     */
+    final void record(String value) {
+        entry.add(key(), value);
     }
 }
@@ -0,0 +1,259 @@
+package com.hunterwb.automanifest;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.tools.Diagnostic;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The compiler tree API of {@code javac}, which is only used through
+ * reflection as it is not part of the platform the processor is compiled for
+ * and other compilers do not have it. Trees and their paths are passed around
+ * as plain objects.
+ */
+final class SourceTrees {
+
+    private final Object trees;
+
+    private final Method getPath;
+
+    private final Method getElement;
+
+    private final Method getLeaf;
+
+    private final Method getParentPath;
+
+    private final Method getCompilationUnit;
+
+    private final Constructor<?> newPath;
+
+    private final Object sourcePositions;
+
+    private final Method getStartPosition;
+
+    private final Method printMessage;
+
+    private final Class<?> treeClass;
+
+    private final Method getKind;
+
+    private final Method getMembers;
+
+    private final Method isStatic;
+
+    private final Method getArguments;
+
+    /**
+     * The getters of the subtrees of every tree class, in a fixed order
+     */
+    private final Map<Class<?>, List<Method>> children = new HashMap<Class<?>, List<Method>>();
+
+    private SourceTrees(Object trees, ClassLoader loader) throws ClassNotFoundException, NoSuchMethodException {
+        this.trees = trees;
+        Class<?> treesClass = Class.forName("com.sun.source.util.Trees", false, loader);
+        Class<?> pathClass = Class.forName("com.sun.source.util.TreePath", false, loader);
+        Class<?> unitClass = Class.forName("com.sun.source.tree.CompilationUnitTree", false, loader);
+        treeClass = Class.forName("com.sun.source.tree.Tree", false, loader);
+        getPath = treesClass.getMethod("getPath", Element.class);
+        getElement = treesClass.getMethod("getElement", pathClass);
+        getLeaf = pathClass.getMethod("getLeaf");
+        getParentPath = pathClass.getMethod("getParentPath");
+        getCompilationUnit = pathClass.getMethod("getCompilationUnit");
+        newPath = pathClass.getConstructor(pathClass, treeClass);
+        sourcePositions = invoke(treesClass.getMethod("getSourcePositions"), trees);
+        getStartPosition = Class.forName("com.sun.source.util.SourcePositions", false, loader).getMethod("getStartPosition", unitClass, treeClass);
+        printMessage = treesClass.getMethod("printMessage", Diagnostic.Kind.class, CharSequence.class, treeClass, unitClass);
+        getKind = treeClass.getMethod("getKind");
+        // the methods of the public interfaces, those of the javac classes are not accessible
+        getMembers = Class.forName("com.sun.source.tree.ClassTree", false, loader).getMethod("getMembers");
+        isStatic = Class.forName("com.sun.source.tree.BlockTree", false, loader).getMethod("isStatic");
+        getArguments = Class.forName("com.sun.source.tree.MethodInvocationTree", false, loader).getMethod("getArguments");
+    }
+
+    /**
+     * Returns the trees or {@code null} if the compiler does not have the
+     * tree API of {@code javac}
+     */
+    static SourceTrees create(ProcessingEnvironment env) {
+        ClassLoader loader = env.getClass().getClassLoader();
+        if (loader == null) loader = ClassLoader.getSystemClassLoader();
+        try {
+            Method instance = Class.forName("com.sun.source.util.Trees", false, loader).getMethod("instance", ProcessingEnvironment.class);
+            Object trees = instance.invoke(null, env);
+            return new SourceTrees(trees, loader);
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            // IllegalArgumentException for a processing environment that is not the one of javac
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the path of the element or {@code null} if it is not compiled
+     */
+    Object getPath(Element e) {
+        return invoke(getPath, trees, e);
+    }
+
+    Element getElement(Object path) {
+        return (Element) invoke(getElement, trees, path);
+    }
+
+    Object getLeaf(Object path) {
+        return invoke(getLeaf, path);
+    }
+
+    Object getParentPath(Object path) {
+        return invoke(getParentPath, path);
+    }
+
+    Object getCompilationUnit(Object path) {
+        return invoke(getCompilationUnit, path);
+    }
+
+    Object newPath(Object parent, Object tree) {
+        try {
+            return newPath.newInstance(parent, tree);
+        } catch (InstantiationException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * The name of the {@code Tree.Kind} of the tree
+     */
+    String kind(Object tree) {
+        return ((Enum<?>) invoke(getKind, tree)).name();
+    }
+
+    /**
+     * The members of a class tree
+     */
+    List<?> getMembers(Object classTree) {
+        return (List<?>) invoke(getMembers, classTree);
+    }
+
+    /**
+     * Whether a block tree is a {@code static} initializer
+     */
+    boolean isStatic(Object blockTree) {
+        return (Boolean) invoke(isStatic, blockTree);
+    }
+
+    /**
+     * The arguments of a method invocation tree
+     */
+    List<?> getArguments(Object methodInvocationTree) {
+        return (List<?>) invoke(getArguments, methodInvocationTree);
+    }
+
+    void printMessage(Diagnostic.Kind kind, CharSequence message, Object tree, Object unit) {
+        invoke(printMessage, trees, kind, message, tree, unit);
+    }
+
+    /**
+     * Returns the subtrees of the tree, in the order of their getters
+     */
+    List<Object> subtrees(Object tree) {
+        List<Object> subtrees = new ArrayList<Object>();
+        for (Method child : children(tree.getClass())) {
+            Object value = invoke(child, tree);
+            if (value instanceof List) {
+                for (Object t : (List<?>) value) {
+                    if (treeClass.isInstance(t)) subtrees.add(t);
+                }
+            } else if (value != null) {
+                subtrees.add(value);
+            }
+        }
+        return subtrees;
+    }
+
+    /**
+     * Sorts trees of the compilation unit in source order
+     */
+    void sortBySource(List<Object> trees, final Object unit) {
+        Collections.sort(trees, new Comparator<Object>() {
+            @Override public int compare(Object a, Object b) {
+                long x = (Long) invoke(getStartPosition, sourcePositions, unit, a);
+                long y = (Long) invoke(getStartPosition, sourcePositions, unit, b);
+                return x < y ? -1 : x == y ? 0 : 1;
+            }
+        });
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static RuntimeException unwrap(InvocationTargetException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) return (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        return new IllegalStateException(cause);
+    }
+
+    /**
+     * Returns the getters of the subtrees declared by the tree interfaces the
+     * class implements, sorted by name so that subtrees without a position
+     * are read in the same order in every run
+     */
+    private List<Method> children(Class<?> c) {
+        List<Method> methods = children.get(c);
+        if (methods != null) return methods;
+        Map<String, Method> byName = new HashMap<String, Method>();
+        for (Class<?> i : interfaces(c, new HashSet<Class<?>>())) {
+            for (Method m : i.getMethods()) {
+                if (m.getParameterTypes().length != 0 || m.getName().equals("getKind")) continue;
+                if (treeClass.isAssignableFrom(m.getReturnType()) || List.class.isAssignableFrom(m.getReturnType())) {
+                    byName.put(m.getName(), m);
+                }
+            }
+        }
+        methods = new ArrayList<Method>(byName.values());
+        Collections.sort(methods, new Comparator<Method>() {
+            @Override public int compare(Method a, Method b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        children.put(c, methods);
+        return methods;
+    }
+
+    private static Collection<Class<?>> interfaces(Class<?> c, Set<Class<?>> result) {
+        for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+            for (Class<?> i : k.getInterfaces()) {
+                if (i.getName().startsWith("com.sun.source.tree.") && result.add(i)) interfaces(i, result);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,320 @@
+package com.hunterwb.automanifest;
+
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Estimates the startup cost of the entry point classes by following the
+ * class initialization from each of them through the static field
+ * initializers and {@code static} blocks of the compiled classes, and the
+ * bodies of the compiled methods and constructors they call. Classes outside
+ * of the compilation are counted but not followed. Calls to APIs that are
+ * known to be slow at startup, reflection, {@link java.util.ServiceLoader}
+ * and regular expressions, are reported where they are made. The subtrees
+ * of each tree are read in source order.
+ * <p>
+ * The bodies are read with the compiler tree API of {@code javac} through
+ * {@link SourceTrees}. Anonymous classes and lambda bodies are not followed,
+ * as they do not run when they are created.
+ */
+final class StartupAnalysis {
+
+    static final String NAME = "META-INF/automanifest/startup.json";
+
+    static final String REFLECTION = "reflection";
+    static final String SERVICE_LOADER = "serviceLoader";
+    static final String REGEX = "regex";
+
+    private static final List<String> CATEGORIES = Arrays.asList(REFLECTION, SERVICE_LOADER, REGEX);
+
+    /**
+     * The category of every expensive method by its type, where {@code *}
+     * stands for all methods of the type
+     */
+    private static final Map<String, Map<String, String>> EXPENSIVE = new HashMap<String, Map<String, String>>();
+
+    static {
+        expensive(REFLECTION, "java.lang.Class", "forName", "getMethod", "getMethods", "getDeclaredMethod", "getDeclaredMethods",
+                "getField", "getFields", "getDeclaredField", "getDeclaredFields", "getConstructor", "getConstructors",
+                "getDeclaredConstructor", "getDeclaredConstructors", "newInstance");
+        expensive(REFLECTION, "java.lang.reflect.Method", "*");
+        expensive(REFLECTION, "java.lang.reflect.Constructor", "*");
+        expensive(REFLECTION, "java.lang.reflect.Field", "*");
+        expensive(REFLECTION, "java.lang.reflect.Proxy", "*");
+        expensive(REFLECTION, "java.lang.invoke.MethodHandles.Lookup", "*");
+        expensive(SERVICE_LOADER, "java.util.ServiceLoader", "load", "loadInstalled");
+        expensive(REGEX, "java.util.regex.Pattern", "compile", "matches");
+        expensive(REGEX, "java.lang.String", "matches", "replaceAll", "replaceFirst");
+    }
+
+    private static void expensive(String category, String type, String... methods) {
+        Map<String, String> byMethod = new HashMap<String, String>();
+        for (String method : methods) {
+            byMethod.put(method, category);
+        }
+        EXPENSIVE.put(type, byMethod);
+    }
+
+    private static final Set<String> SKIPPED_KINDS = new HashSet<String>(Arrays.asList(
+            "CLASS", "INTERFACE", "ENUM", "ANNOTATION_TYPE", "RECORD", "LAMBDA_EXPRESSION"));
+
+    private static final Set<String> REFERENCE_KINDS = new HashSet<String>(Arrays.asList(
+            "IDENTIFIER", "MEMBER_SELECT", "NEW_CLASS"));
+
+    private final Messager messager;
+
+    private final SourceTrees trees;
+
+    private final StringBuilder json = new StringBuilder();
+
+    /**
+     * The trees of the calls that were reported, so that a call reached from
+     * several entry points is reported once
+     */
+    private final Set<Object> reported = new HashSet<Object>();
+
+    private StartupAnalysis(Messager messager, SourceTrees trees) {
+        this.messager = messager;
+        this.trees = trees;
+    }
+
+    /**
+     * Returns the analysis or {@code null} if the compiler does not have the
+     * tree API of {@code javac}
+     */
+    static StartupAnalysis create(ProcessingEnvironment env) {
+        SourceTrees trees = SourceTrees.create(env);
+        return trees == null ? null : new StartupAnalysis(env.getMessager(), trees);
+    }
+
+    /**
+     * The state of the analysis of one entry point
+     */
+    private final class Initialization {
+
+        /**
+         * The compiled classes in the order they are first reached, by the
+         * class that initializes them
+         */
+        final Map<TypeElement, TypeElement> classes = new LinkedHashMap<TypeElement, TypeElement>();
+
+        final Set<String> externalClasses = new TreeSet<String>();
+
+        final Set<Element> methods = new HashSet<Element>();
+
+        final StringBuilder calls = new StringBuilder();
+
+        final int[] counts = new int[CATEGORIES.size()];
+
+        final String entryPoint;
+
+        /**
+         * The class whose initialization is being followed and the member
+         * whose code is being read
+         */
+        TypeElement initializing;
+
+        Element member;
+
+        Initialization(String entryPoint) {
+            this.entryPoint = entryPoint;
+        }
+    }
+
+    /**
+     * Follows the initialization of the class of the attribute and records
+     * its cost, returning {@code false} if the class is not compiled
+     */
+    boolean analyze(String attribute, TypeElement type) {
+        if (trees.getPath(type) == null) return false;
+        Initialization init = new Initialization(attribute + " " + type.getQualifiedName());
+        initialize(init, type, null);
+
+        List<String> names = new ArrayList<String>();
+        for (TypeElement t : init.classes.keySet()) {
+            names.add(t.getQualifiedName().toString());
+        }
+        int classes = init.classes.size() + init.externalClasses.size();
+        StringBuilder note = new StringBuilder(init.entryPoint).append(" initializes ").append(names.size()).append(" compiled classes (")
+                .append(Util.joinToString(names.toArray(), ' ')).append(") and ").append(init.externalClasses.size()).append(" other classes");
+        String separator = ", with ";
+        for (int i = 0; i < CATEGORIES.size(); i++) {
+            if (init.counts[i] == 0) continue;
+            note.append(separator).append(init.counts[i]).append(' ').append(CATEGORIES.get(i)).append(init.counts[i] == 1 ? " call" : " calls");
+            separator = ", ";
+        }
+        messager.printMessage(Diagnostic.Kind.NOTE, note, type);
+
+        json.append(json.length() == 0 ? "{\n  \"entryPoints\": [\n" : ",\n");
+        json.append("    {\"attribute\": ");
+        Util.appendJsonString(json, attribute);
+        json.append(", \"class\": ");
+        Util.appendJsonString(json, type.getQualifiedName().toString());
+        json.append(",\n      \"classes\": [");
+        boolean first = true;
+        for (Map.Entry<TypeElement, TypeElement> e : init.classes.entrySet()) {
+            json.append(first ? "" : ", ").append("{\"name\": ");
+            first = false;
+            Util.appendJsonString(json, e.getKey().getQualifiedName().toString());
+            if (e.getValue() != null) {
+                json.append(", \"initializedBy\": ");
+                Util.appendJsonString(json, e.getValue().getQualifiedName().toString());
+            }
+            json.append('}');
+        }
+        json.append("],\n      \"externalClasses\": [");
+        first = true;
+        for (String name : init.externalClasses) {
+            if (!first) json.append(", ");
+            first = false;
+            Util.appendJsonString(json, name);
+        }
+        json.append("],\n      \"expensiveCalls\": [").append(init.calls).append("],\n      \"cost\": {\"classes\": ").append(classes);
+        for (int i = 0; i < CATEGORIES.size(); i++) {
+            json.append(", \"").append(CATEGORIES.get(i)).append("\": ").append(init.counts[i]);
+        }
+        json.append("}}");
+        return true;
+    }
+
+    /**
+     * Returns the JSON report of all analyzed entry points
+     */
+    byte[] toByteArray() throws IOException {
+        return (json.length() == 0 ? "{\n  \"entryPoints\": []\n}\n" : json + "\n  ]\n}\n").getBytes(Util.UTF_8);
+    }
+
+    /**
+     * Initializes the class after its superclass, reading its static
+     * initializers if it is compiled
+     */
+    private void initialize(Initialization init, TypeElement type, TypeElement by) {
+        if (init.classes.containsKey(type) || init.externalClasses.contains(type.getQualifiedName().toString())) return;
+        Object classPath = trees.getPath(type);
+        if (classPath == null) {
+            if (!type.getQualifiedName().contentEquals("java.lang.Object")) init.externalClasses.add(type.getQualifiedName().toString());
+            return;
+        }
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() == TypeKind.DECLARED) {
+            initialize(init, (TypeElement) ((DeclaredType) superclass).asElement(), type);
+        }
+        // anonymous and local classes have no static initializers
+        if (type.getQualifiedName().length() == 0) return;
+        init.classes.put(type, by);
+        TypeElement outerInitializing = init.initializing;
+        Element outerMember = init.member;
+        init.initializing = type;
+        for (Object member : trees.getMembers(trees.getLeaf(classPath))) {
+            Object memberPath = trees.newPath(classPath, member);
+            String kind = trees.kind(member);
+            if (kind.equals("VARIABLE")) {
+                Element variable = trees.getElement(memberPath);
+                if (variable == null || !variable.getModifiers().contains(Modifier.STATIC)) continue;
+                init.member = variable;
+                scan(init, memberPath);
+            } else if (kind.equals("BLOCK") && trees.isStatic(member)) {
+                init.member = type;
+                scan(init, memberPath);
+            }
+        }
+        init.initializing = outerInitializing;
+        init.member = outerMember;
+    }
+
+    /**
+     * Reads the code of the tree for the classes it initializes and the
+     * methods it calls
+     */
+    private void scan(Initialization init, Object path) {
+        Object tree = trees.getLeaf(path);
+        String kind = trees.kind(tree);
+        if (SKIPPED_KINDS.contains(kind)) return;
+        if (REFERENCE_KINDS.contains(kind)) {
+            Element e = trees.getElement(path);
+            if (e != null) reference(init, e, path);
+        }
+        List<Object> subtrees = trees.subtrees(tree);
+        trees.sortBySource(subtrees, trees.getCompilationUnit(path));
+        for (Object t : subtrees) {
+            scan(init, trees.newPath(path, t));
+        }
+    }
+
+    /**
+     * Follows the element referenced by the tree of the path
+     */
+    private void reference(Initialization init, Element e, Object path) {
+        Element enclosing = e.getEnclosingElement();
+        if (!(enclosing instanceof TypeElement)) return;
+        TypeElement owner = (TypeElement) enclosing;
+        boolean isStatic = e.getModifiers().contains(Modifier.STATIC);
+        if (e.getKind() == ElementKind.METHOD || e.getKind() == ElementKind.CONSTRUCTOR) {
+            String category = category(owner, e);
+            if (category != null) expensiveCall(init, owner, e, category, path);
+            if (isStatic || e.getKind() == ElementKind.CONSTRUCTOR) initialize(init, owner, init.initializing);
+            Object methodPath = trees.getPath(e);
+            if (methodPath != null && init.methods.add(e)) {
+                Element outerMember = init.member;
+                init.member = e;
+                scan(init, methodPath);
+                init.member = outerMember;
+            }
+        } else if ((e.getKind() == ElementKind.FIELD || e.getKind() == ElementKind.ENUM_CONSTANT) && isStatic
+                && ((VariableElement) e).getConstantValue() == null && !e.getSimpleName().contentEquals("class")) {
+            initialize(init, owner, init.initializing);
+        }
+    }
+
+    private static String category(TypeElement owner, Element method) {
+        Map<String, String> byMethod = EXPENSIVE.get(owner.getQualifiedName().toString());
+        if (byMethod == null) return null;
+        String category = byMethod.get(method.getSimpleName().toString());
+        return category == null ? byMethod.get("*") : category;
+    }
+
+    /**
+     * Records the call and reports it at the method invocation that contains
+     * the tree of the path
+     */
+    private void expensiveCall(Initialization init, TypeElement owner, Element method, String category, Object path) {
+        init.counts[CATEGORIES.indexOf(category)]++;
+        String api = owner.getQualifiedName() + "." + method.getSimpleName();
+        String in = init.member == init.initializing
+                ? init.initializing.getQualifiedName() + ".<clinit>"
+                : ((TypeElement) init.member.getEnclosingElement()).getQualifiedName() + "." + init.member.getSimpleName();
+        if (init.calls.length() != 0) init.calls.append(',');
+        init.calls.append("\n        {\"api\": ");
+        Util.appendJsonString(init.calls, api);
+        init.calls.append(", \"category\": ");
+        Util.appendJsonString(init.calls, category);
+        init.calls.append(", \"in\": ");
+        Util.appendJsonString(init.calls, in);
+        init.calls.append('}');
+        Object parent = trees.getParentPath(path);
+        Object call = parent != null && trees.kind(trees.getLeaf(parent)).equals("METHOD_INVOCATION") ? trees.getLeaf(parent) : trees.getLeaf(path);
+        if (reported.add(call)) {
+            trees.printMessage(Diagnostic.Kind.WARNING, "Startup cost: " + api + " in " + in + " runs when initializing " + init.entryPoint,
+                    call, trees.getCompilationUnit(path));
+        }
+    }
+}
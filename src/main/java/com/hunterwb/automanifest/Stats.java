@@ -0,0 +1,109 @@
+package com.hunterwb.automanifest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Time spent and work done by the processor in one compilation, written as
+ * JSON when {@code -Aautomanifest.stats} is given
+ */
+final class Stats {
+
+    static final String NAME = "META-INF/automanifest/stats.json";
+
+    private final String options;
+
+    long initNanos;
+
+    long indexReadNanos;
+
+    long manifestNanos;
+
+    long manifestBytesRead;
+
+    long manifestBytesWritten;
+
+    boolean manifestWritten;
+
+    private final List<String> visitors = new ArrayList<String>();
+
+    private final List<Round> rounds = new ArrayList<Round>();
+
+    Stats(String options) {
+        this.options = options;
+    }
+
+    /**
+     * Names the visitors in the order they are passed to the {@link RootScanner}
+     */
+    void addVisitor(String name) {
+        visitors.add(name);
+    }
+
+    Round newRound() {
+        Round round = new Round(visitors.size());
+        rounds.add(round);
+        return round;
+    }
+
+    void write(OutputStream outputStream) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"options\": ");
+        Util.appendJsonString(sb, options);
+        sb.append(",\n  \"initNanos\": ").append(initNanos);
+        sb.append(",\n  \"indexReadNanos\": ").append(indexReadNanos);
+        sb.append(",\n  \"rounds\": [");
+        for (int r = 0; r < rounds.size(); r++) {
+            Round round = rounds.get(r);
+            sb.append(r == 0 ? "\n" : ",\n");
+            sb.append("    {\n      \"rootElements\": ").append(round.rootElements);
+            sb.append(",\n      \"skippedElements\": ").append(round.skippedElements);
+            sb.append(",\n      \"scanNanos\": ").append(round.scanNanos);
+            sb.append(",\n      \"visitors\": [");
+            for (int v = 0; v < visitors.size(); v++) {
+                sb.append(v == 0 ? "\n" : ",\n");
+                sb.append("        {\"name\": ");
+                Util.appendJsonString(sb, visitors.get(v));
+                sb.append(", \"visited\": ").append(round.visited[v]);
+                sb.append(", \"nanos\": ").append(round.nanos[v]).append('}');
+            }
+            sb.append(visitors.isEmpty() ? "]\n    }" : "\n      ]\n    }");
+        }
+        sb.append(rounds.isEmpty() ? "]" : "\n  ]");
+        sb.append(",\n  \"manifest\": {\"nanos\": ").append(manifestNanos);
+        sb.append(", \"bytesRead\": ").append(manifestBytesRead);
+        sb.append(", \"bytesWritten\": ").append(manifestBytesWritten);
+        sb.append(", \"written\": ").append(manifestWritten);
+        sb.append("}\n}\n");
+        outputStream.write(sb.toString().getBytes(Util.UTF_8));
+    }
+
+    static final class Round {
+
+        int rootElements;
+
+        /**
+         * Root elements that were generated or rejected by the {@link NameFilter}
+         */
+        int skippedElements;
+
+        long scanNanos;
+
+        /**
+         * Number of elements passed to each visitor
+         */
+        final long[] visited;
+
+        /**
+         * Time spent inside each visitor, excluding the shared traversal
+         */
+        final long[] nanos;
+
+        private Round(int visitors) {
+            visited = new long[visitors];
+            nanos = new long[visitors];
+        }
+    }
+}
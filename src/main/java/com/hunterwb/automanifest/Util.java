@@ -1,19 +1,28 @@
 package com.hunterwb.automanifest;
 
 import javax.annotation.processing.ProcessingEnvironment;
-import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
 import javax.tools.StandardLocation;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.Arrays;
+import java.net.URI;
 import java.util.Map;
-import java.util.jar.Manifest;
 
 final class Util {
 
+    static final String UTF_8 = "UTF-8";
+
     private Util() {}
 
     static InputStream openResourceInput(ProcessingEnvironment env, String name) {
@@ -24,15 +33,91 @@ final class Util {
         }
     }
 
-    static OutputStream openResourceOutput(ProcessingEnvironment env, String name) throws IOException {
-        return env.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", name).openOutputStream();
+    /**
+     * Returns the directory of the class output or {@code null} if it is not
+     * on the file system
+     */
+    static File classOutputDirectory(ProcessingEnvironment env) {
+        try {
+            URI uri = env.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", ManifestFile.NAME).toUri();
+            if (!"file".equals(uri.getScheme())) return null;
+            return new File(uri).getParentFile().getParentFile();
+        } catch (IOException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    static OutputStream openResourceOutput(ProcessingEnvironment env, String name, Element... originatingElements) throws IOException {
+        return env.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", name, originatingElements).openOutputStream();
+    }
+
+    /**
+     * Returns the content of the resource or {@code null} if it does not exist
+     */
+    static byte[] readResource(ProcessingEnvironment env, String name) throws IOException {
+        InputStream inputStream = openResourceInput(env, name);
+        return inputStream == null ? null : readFullyClose(inputStream);
+    }
+
+    /**
+     * Returns the type with the binary name, or {@code null} if it does not exist
+     */
+    static TypeElement getTypeElement(Elements elements, String binaryName) {
+        TypeElement type = elements.getTypeElement(binaryName);
+        if (type == null && binaryName.indexOf('$') != -1) {
+            type = elements.getTypeElement(binaryName.replace('$', '.'));
+        }
+        return type;
+    }
+
+    /**
+     * Replaces the file with a temporary file in the same directory, so that
+     * readers see either the old or the new content
+     */
+    static void renameOver(File tmp, File file) throws IOException {
+        if (!tmp.renameTo(file)) {
+            // renaming onto an existing file fails on some platforms
+            if (!file.delete() || !tmp.renameTo(file)) throw new IOException("Could not replace " + file);
+        }
+    }
+
+    /**
+     * Writes the content to a temporary file next to the file, which then
+     * replaces it
+     */
+    static void replaceFile(File file, byte[] content) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        File tmp = File.createTempFile(file.getName(), ".tmp", parent);
+        try {
+            writeClose(content, new FileOutputStream(tmp));
+            renameOver(tmp, file);
+            tmp = null;
+        } finally {
+            if (tmp != null) tmp.delete();
+        }
+    }
+
+    /**
+     * Returns the content of the file or {@code null} if it does not exist
+     */
+    static byte[] readFile(File file) throws IOException {
+        InputStream inputStream;
+        try {
+            inputStream = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        return readFullyClose(inputStream);
     }
 
-    static Manifest readManifestClose(InputStream inputStream) throws IOException {
-        Manifest m = null;
+    static byte[] readFullyClose(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
         IOException e = null;
         try {
-            m = new Manifest(inputStream);
+            copy(inputStream, out);
         } catch (IOException readException) {
             e = readException;
         }
@@ -42,13 +127,30 @@ final class Util {
             if (e == null) e = closeException;
         }
         if (e != null) throw e;
-        return m;
+        return out.toByteArray();
+    }
+
+    static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = new byte[8192];
+        long total = 0;
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+            total += n;
+        }
+        return total;
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {}
     }
 
-    static void writeManifestClose(Manifest m, OutputStream outputStream) throws IOException {
+    static void writeClose(byte[] b, OutputStream outputStream) throws IOException {
         IOException e = null;
         try {
-            m.write(outputStream);
+            outputStream.write(b);
         } catch (IOException writeException) {
             e = writeException;
         }
@@ -60,16 +162,65 @@ final class Util {
         if (e != null) throw e;
     }
 
-    static String[] nameComponents(PackageElement p) {
-        return p.isUnnamed() ? new String[0] : p.getQualifiedName().toString().split("\\.", -1);
-    }
-
     static String getStackTraceAsString(Throwable throwable) {
         StringWriter stringWriter = new StringWriter();
         throwable.printStackTrace(new PrintWriter(stringWriter));
         return stringWriter.toString();
     }
 
+    static void appendJsonString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * The bytes of a string of ASCII characters
+     */
+    static byte[] ascii(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) s.charAt(i);
+        }
+        return b;
+    }
+
+    /**
+     * Lower case hex digits of the bytes
+     */
+    static String hex(byte[] b) {
+        StringBuilder sb = new StringBuilder(b.length * 2);
+        for (byte x : b) {
+            sb.append(Character.forDigit((x >> 4) & 0xF, 16)).append(Character.forDigit(x & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
     static String joinToString(Object[] array, char delimiter) {
         if (array.length == 0) return "";
         StringBuilder sb = new StringBuilder();
@@ -89,8 +240,21 @@ final class Util {
         return i;
     }
 
-    static <T> T[] resize(T[] array, int length) {
-        return length == array.length ? array : Arrays.copyOf(array, length);
+    /**
+     * Length of the common prefix of two qualified names that ends at a name
+     * component boundary, without splitting them into components
+     */
+    static int packageMatchLength(CharSequence a, CharSequence b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        if ((i == a.length() || a.charAt(i) == '.') && (i == b.length() || b.charAt(i) == '.')) {
+            return i;
+        }
+        while (i > 0 && a.charAt(--i) != '.') {}
+        return i;
     }
 
     static <T> T requireNonNull(T obj) {
@@ -0,0 +1,21 @@
+package com.hunterwb.automanifest;
+
+public final class AppendJsonStringTest {
+
+    public void testAll() {
+        check("", "\"\"");
+        check("a.b", "\"a.b\"");
+        check("C:\\x", "\"C:\\\\x\"");
+        check("say \"hi\"", "\"say \\\"hi\\\"\"");
+        check("a\nb\tc", "\"a\\nb\\tc\"");
+        check("\u0001", "\"\\u0001\"");
+        check("é", "\"é\"");
+    }
+
+    private static void check(String s, String expected) {
+        StringBuilder sb = new StringBuilder();
+        Util.appendJsonString(sb, s);
+        String actual = sb.toString();
+        assert actual.equals(expected) : actual;
+    }
+}
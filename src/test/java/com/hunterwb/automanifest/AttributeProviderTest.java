@@ -0,0 +1,81 @@
+package com.hunterwb.automanifest;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+public final class AttributeProviderTest {
+
+    /**
+     * Lists the constant fields of the {@code Flags} classes, registered in
+     * the test resources
+     */
+    public static final class FeatureFlags extends AttributeProvider {
+
+        private final Set<String> flags = new TreeSet<String>();
+
+        @Override public String attributeName() {
+            return "Feature-Flags";
+        }
+
+        @Override public Set<ElementKind> elementKinds() {
+            return EnumSet.of(ElementKind.FIELD);
+        }
+
+        @Override public Collection<String> namePatterns() {
+            return Collections.singleton("**.Flags.*");
+        }
+
+        @Override public void visit(Element element) {
+            if (element.getModifiers().contains(Modifier.FINAL)) {
+                contribute(element.getSimpleName().toString());
+            }
+        }
+
+        @Override public void add(String value) {
+            flags.add(value);
+        }
+
+        @Override public String getValue() {
+            return flags.isEmpty() ? null : Util.joinToString(flags.toArray(), ' ');
+        }
+    }
+
+    public void testAll() throws IOException {
+        File dir = TestCompiler.createTempDirectory();
+        try {
+            DiagnosticCollector<JavaFileObject> diagnostics = TestCompiler.compile(dir, Arrays.asList(
+                    TestCompiler.source("a.Main", "package a; public class Main { static final boolean NOT_A_FLAG = true;"
+                            + " public static void main(String[] args) {} }"),
+                    TestCompiler.source("a.Flags", "package a; public class Flags { public static final boolean FAST = true;"
+                            + " public static final boolean SAFE = false; static boolean mutable; }"),
+                    TestCompiler.source("b.Flags", "package b; public class Flags { public static final boolean NEW_UI = true; }")),
+                    "-Aautomanifest=Main-Class,Feature-Flags,Other-Name");
+            assert TestCompiler.readManifest(dir).getMainAttributes().getValue("Feature-Flags").equals("FAST NEW_UI SAFE");
+            boolean warned = false;
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+                if (d.getMessage(null).equals("Unrecognized name: Other-Name")) warned = true;
+            }
+            assert warned : diagnostics.getDiagnostics();
+
+            // the contributions of the flags that are not recompiled are kept
+            TestCompiler.compile(dir, Collections.singletonList(
+                    TestCompiler.source("b.Flags", "package b; public class Flags { public static final boolean OLD_UI = true; }")),
+                    "-Aautomanifest=Main-Class,Feature-Flags,Other-Name");
+            assert TestCompiler.readManifest(dir).getMainAttributes().getValue("Feature-Flags").equals("FAST OLD_UI SAFE");
+        } finally {
+            TestCompiler.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.hunterwb.automanifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+public final class ClassFileScannerTest {
+
+    public void testAll() throws IOException {
+        // the classes of this project, which contain a single main method
+        File classes = new File(Main.class.getProtectionDomain().getCodeSource().getLocation().getPath());
+        for (int threads : new int[]{1, 4}) {
+            ClassFileScanner.Result result = new ClassFileScanner(Arrays.asList("main", "premain"), null, threads).scan(classes);
+            assert result.packages.equals(Collections.singleton("com.hunterwb.automanifest")) : result.packages;
+            Set<String> main = result.classNames.get("main");
+            assert main.equals(Collections.singleton(Main.class.getName())) : main;
+            Set<String> premain = result.classNames.get("premain");
+            assert premain.isEmpty() : premain;
+        }
+        checkFilter();
+    }
+
+    /**
+     * The classes are filtered like the root elements of the processor
+     */
+    private void checkFilter() throws IOException {
+        File dir = TestCompiler.createTempDirectory();
+        try {
+            TestCompiler.compile(dir, Arrays.asList(
+                    TestCompiler.source("a.App", "package a; public class App { public static void main(String[] args) {} }"),
+                    TestCompiler.source("a.Tools", "package a; public class Tools { public static class Cli { public static void main(String[] args) {} } }"),
+                    TestCompiler.source("a.fixtures.Demo", "package a.fixtures; public class Demo { public static void main(String[] args) {} }")),
+                    "-Aautomanifest=Main-Class", "-Aautomanifest.exclude=a.Tools,**.fixtures");
+            String mainClass = TestCompiler.readManifest(dir).getMainAttributes().getValue("Main-Class");
+            assert "a.App".equals(mainClass) : mainClass;
+
+            check(dir, null, "a.Tools,**.fixtures", "[a]", "[a.App]");
+            check(dir, null, "a.Tools.Cli", "[a, a.fixtures]", "[a.App, a.fixtures.Demo]");
+            check(dir, "a.App,a.Tools", null, "[a]", "[a.App, a.Tools$Cli]");
+            check(dir, null, null, "[a, a.fixtures]", "[a.App, a.Tools$Cli, a.fixtures.Demo]");
+        } finally {
+            TestCompiler.delete(dir);
+        }
+    }
+
+    private static void check(File dir, String include, String exclude, String packages, String main) throws IOException {
+        ClassFileScanner.Result result = new ClassFileScanner(Collections.singletonList("main"), NameFilter.of(include, exclude), 1).scan(dir);
+        assert result.packages.toString().equals(packages) : result.packages;
+        assert result.classNames.get("main").toString().equals(main) : result.classNames;
+    }
+}
@@ -0,0 +1,36 @@
+package com.hunterwb.automanifest;
+
+import javax.tools.JavaFileObject;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public final class ClassListTest {
+
+    public void testAll() throws IOException {
+        File dir = TestCompiler.createTempDirectory();
+        try {
+            List<JavaFileObject> sources = new ArrayList<JavaFileObject>();
+            sources.add(TestCompiler.source("a.Main", "package a; @b.Marker public class Main extends Base implements Comparable<Main> {"
+                    + " static Config config; public static void main(String[] args) throws b.Failure { new Unused(); }"
+                    + " public int compareTo(Main o) { return 0; } java.util.List<? extends b.Item<Nested>> items() { return null; }"
+                    + " static class Nested {} }"));
+            sources.add(TestCompiler.source("a.Base", "package a; public class Base<T extends Base<T>> {}"));
+            sources.add(TestCompiler.source("a.Config", "package a; public class Config { Config[] children; }"));
+            sources.add(TestCompiler.source("a.Unused", "package a; public class Unused {}"));
+            sources.add(TestCompiler.source("b.Marker", "package b; public @interface Marker {}"));
+            sources.add(TestCompiler.source("b.Failure", "package b; public class Failure extends Exception {}"));
+            sources.add(TestCompiler.source("b.Item", "package b; public interface Item<T> {}"));
+            TestCompiler.compile(dir, sources, "-Aautomanifest=Main-Class", "-Aautomanifest.classlist");
+            String classList = TestCompiler.read(new File(dir, ClassList.NAME));
+            List<String> classNames = Arrays.asList(classList.split("\n"));
+            assert classNames.get(0).equals("a/Main") : classNames;
+            assert classNames.size() == 7 : classNames;
+            assert classNames.containsAll(Arrays.asList("a/Base", "a/Config", "a/Main$Nested", "b/Marker", "b/Failure", "b/Item")) : classNames;
+        } finally {
+            TestCompiler.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.hunterwb.automanifest;
+
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.Element;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+
+public final class ConcurrentOutputTest {
+
+    private static final int COMPILATIONS = 6;
+
+    public void testAll() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(COMPILATIONS);
+        try {
+            for (int i = 0; i < 5; i++) {
+                check(executor);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        checkDeletedType();
+        checkOriginatingElements();
+        checkHashCollision();
+        checkClaimReleased();
+    }
+
+    /**
+     * The claim of a compilation is released once the class files of its
+     * types are written, although an unannotated {@code package-info} has no
+     * class file, and also when no class files are written
+     */
+    private void checkClaimReleased() throws Exception {
+        final File dir = TestCompiler.createTempDirectory();
+        try {
+            final List<String> claimsAtLastClass = new ArrayList<String>();
+            final AutoManifest processor = new AutoManifest();
+            Processor listening = (Processor) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Processor.class}, new InvocationHandler() {
+                ProcessingEnvironment env;
+
+                @Override public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("init")) env = (ProcessingEnvironment) args[0];
+                    Object result;
+                    try {
+                        result = method.invoke(processor, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    // registered after the claim, so told after it about the same class file
+                    if (method.getName().equals("process") && ((RoundEnvironment) args[1]).processingOver()) {
+                        assert ClassFileListener.register(env, new ClassFileListener.Callback() {
+                            @Override public void written(String qualifiedName) {
+                                claimsAtLastClass.clear();
+                                claimsAtLastClass.addAll(claimFiles(dir));
+                            }
+
+                            @Override public void ended() {}
+                        });
+                    }
+                    return result;
+                }
+            });
+            List<JavaFileObject> sources = Arrays.asList(
+                    TestCompiler.source("com.ex.A", "package com.ex; public class A { public static void main(String[] args) {} }"),
+                    TestCompiler.source("com.ex.package-info", "package com.ex;"));
+            TestCompiler.compile(listening, dir, sources, "-Aautomanifest=Main-Class");
+            assert claimsAtLastClass.isEmpty() : claimsAtLastClass;
+            assert claimFiles(dir).isEmpty() : claimFiles(dir);
+
+            TestCompiler.compile(dir, sources, "-proc:only", "-Aautomanifest=Main-Class");
+            assert claimFiles(dir).isEmpty() : claimFiles(dir);
+        } finally {
+            TestCompiler.delete(dir);
+        }
+    }
+
+    /**
+     * The claim files of the compilations into the directory
+     */
+    private static List<String> claimFiles(File dir) {
+        String prefix;
+        try {
+            String path = dir.getCanonicalPath();
+            prefix = "automanifest-" + Util.hex(MessageDigest.getInstance("SHA-256").digest(path.getBytes(Util.UTF_8))) + ".lock-";
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        List<String> names = new ArrayList<String>();
+        for (String name : new File(System.getProperty("java.io.tmpdir")).list()) {
+            if (name.startsWith(prefix)) names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * Directories whose paths have the same hash code are locked separately
+     */
+    private void checkHashCollision() throws Exception {
+        File dir = TestCompiler.createTempDirectory();
+        final File a = new File(dir, "Aa");
+        final File b = new File(dir, "BB");
+        assert a.getCanonicalPath().hashCode() == b.getCanonicalPath().hashCode();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        OutputLock lock = OutputLock.acquire(a);
+        try {
+            Future<Void> other = executor.submit(new Callable<Void>() {
+                @Override public Void call() throws IOException {
+                    OutputLock.acquire(b).release();
+                    return null;
+                }
+            });
+            other.get(10, TimeUnit.SECONDS);
+        } finally {
+            lock.release();
+            executor.shutdown();
+            TestCompiler.delete(dir);
+        }
+    }
+
+    /**
+     * A deleted type that was compiled recently is not kept once its
+     * compilation ended
+     */
+    private void checkDeletedType() throws IOException {
+        File dir = TestCompiler.createTempDirectory();
+        try {
+            JavaFileObject a = TestCompiler.source("com.ex.A", "package com.ex; public class A { public static void main(String[] args) {} }");
+            JavaFileObject b = TestCompiler.source("com.ex.B", "package com.ex; public class B {}");
+            compile(dir, a, b);
+            assert new File(dir, "com/ex/A.class").delete();
+            boolean warned = false;
+            for (Diagnostic<? extends JavaFileObject> d : compile(dir, b).getDiagnostics()) {
+                if (d.getMessage(null).contains("Found no main method")) warned = true;
+            }
+            assert warned;
+            String index = TestCompiler.read(new File(dir, Index.NAME));
+            assert !index.contains("com.ex.A") : index;
+            assert index.contains("com.ex.B") : index;
+        } finally {
+            TestCompiler.delete(dir);
+        }
+    }
+
+    /**
+     * Compiles the parts of a module concurrently into the same directory,
+     * each with its own processor instance as in separate processes
+     */
+    private void check(ExecutorService executor) throws Exception {
+        final File dir = TestCompiler.createTempDirectory();
+        try {
+            new File(dir, "META-INF").mkdir();
+            Util.writeClose("Manifest-Version: 1.0\r\nExisting: kept\r\n\r\n".getBytes(Util.UTF_8), new FileOutputStream(new File(dir, ManifestFile.NAME)));
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < COMPILATIONS; i++) {
+                final String className = "com.example.part" + i + ".Part";
+                final String main = i == 0 ? "public static void main(String[] args) {}" : "";
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override public Void call() throws Exception {
+                        compile(dir, className, main);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            Attributes attributes = TestCompiler.readManifest(dir).getMainAttributes();
+            assert "kept".equals(attributes.getValue("Existing")) : attributes;
+            assert "com.example.part0.Part".equals(attributes.getValue("Main-Class")) : attributes;
+            assert "com.example".equals(attributes.getValue("Automatic-Module-Name")) : attributes;
+            String index = TestCompiler.read(new File(dir, Index.NAME));
+            for (int i = 0; i < COMPILATIONS; i++) {
+                assert index.contains("com.example.part" + i + ".Part\tpackage\tcom.example.part" + i + "\n") : index;
+            }
+            String[] names = new File(dir, "META-INF").list();
+            assert names.length == 2 : Arrays.toString(names);
+        } finally {
+            TestCompiler.delete(dir);
+        }
+    }
+
+    /**
+     * The resources replaced on the file system are still created through the
+     * filer with the root elements, which Gradle needs to track them
+     */
+    private void checkOriginatingElements() throws IOException {
+        File dir = TestCompiler.createTempDirectory();
+        try {
+            final Map<String, Integer> created = new TreeMap<String, Integer>();
+            final AutoManifest processor = new AutoManifest();
+            Processor recording = (Processor) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Processor.class}, new InvocationHandler() {
+                @Override public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("init")) args[0] = recordingEnvironment((ProcessingEnvironment) args[0], created);
+                    try {
+                        return method.invoke(processor, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+            });
+            TestCompiler.compile(recording, dir,
+                    Collections.singletonList(TestCompiler.source("com.ex.A", "package com.ex; public class A { public static void main(String[] args) {} }")),
+                    "-Aautomanifest=Main-Class", "-Aautomanifest.entryPoints", "-Aautomanifest.moduleInfo");
+            assert created.toString().equals("{" + ManifestFile.NAME + "=1, " + Index.NAME + "=1, " + EntryPoints.NAME + "=1, " + ModuleInfo.NAME + "=1}") : created;
+            assert new File(dir, ModuleInfo.NAME).isFile();
+        } finally {
+            TestCompiler.delete(dir);
+        }
+    }
+
+    /**
+     * Returns the environment whose filer records the number of originating
+     * elements of every created resource, like the one of Gradle
+     */
+    private static ProcessingEnvironment recordingEnvironment(final ProcessingEnvironment env, final Map<String, Integer> created) {
+        final Filer filer = (Filer) Proxy.newProxyInstance(ConcurrentOutputTest.class.getClassLoader(), new Class<?>[]{Filer.class}, new InvocationHandler() {
+            @Override public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("createResource")) created.put((String) args[2], ((Element[]) args[3]).length);
+                try {
+                    return method.invoke(env.getFiler(), args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        });
+        return (ProcessingEnvironment) Proxy.newProxyInstance(ConcurrentOutputTest.class.getClassLoader(), new Class<?>[]{ProcessingEnvironment.class}, new InvocationHandler() {
+            @Override public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getFiler")) return filer;
+                try {
+                    return method.invoke(env, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        });
+    }
+
+    private void compile(File dir, String className, String main) {
+        int dot = className.lastIndexOf('.');
+        String source = "package " + className.substring(0, dot) + "; public class " + className.substring(dot + 1) + " { " + main + " }";
+        compile(dir, TestCompiler.source(className, source));
+    }
+
+    private static DiagnosticCollector<JavaFileObject> compile(File dir, JavaFileObject... sources) {
+        return TestCompiler.compile(dir, Arrays.asList(sources), "-Aautomanifest=Main-Class,Automatic-Module-Name");
+    }
+}
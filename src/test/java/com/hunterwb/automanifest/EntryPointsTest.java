@@ -0,0 +1,60 @@
+package com.hunterwb.automanifest;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class EntryPointsTest {
+
+    public void testAll() throws IOException {
+        Map<String, Integer> methods = new LinkedHashMap<String, Integer>();
+        methods.put("z.Run", EntryPoints.MAIN);
+        methods.put("a.b.Run", EntryPoints.MAIN | EntryPoints.AGENTMAIN);
+        methods.put("a.Tools$Run", EntryPoints.MAIN);
+        methods.put("a.Agent", EntryPoints.PREMAIN);
+        methods.put("é.Été", EntryPoints.MAIN);
+        methods.put("b.Runner", EntryPoints.MAIN);
+        EntryPoints entryPoints = EntryPoints.read(new ByteArrayInputStream(EntryPoints.write(methods)));
+        assert entryPoints.size() == 6;
+        List<String> classNames = new ArrayList<String>();
+        for (int i = 0; i < entryPoints.size(); i++) {
+            classNames.add(entryPoints.className(i));
+            assert entryPoints.indexOf(entryPoints.className(i)) == i;
+        }
+        assert classNames.equals(Arrays.asList("a.Agent", "a.Tools$Run", "a.b.Run", "b.Runner", "z.Run", "é.Été")) : classNames;
+        assert entryPoints.methods("a.b.Run") == (EntryPoints.MAIN | EntryPoints.AGENTMAIN);
+        assert entryPoints.methods("a.b") == 0;
+        assert entryPoints.indexOf("a.b.Runs") == -1;
+        assert entryPoints.findBySimpleName("Run").equals(Arrays.asList("a.Tools$Run", "a.b.Run", "z.Run")) : entryPoints.findBySimpleName("Run");
+        assert entryPoints.findBySimpleName("Été").equals(Collections.singletonList("é.Été"));
+        assert entryPoints.findBySimpleName("R").isEmpty();
+        assert entryPoints.findBySimpleName("Zzz").isEmpty();
+        assert entryPoints.classNames(EntryPoints.PREMAIN | EntryPoints.AGENTMAIN).equals(Arrays.asList("a.Agent", "a.b.Run"));
+
+        EntryPoints empty = EntryPoints.of(ByteBuffer.wrap(EntryPoints.write(Collections.<String, Integer>emptyMap())));
+        assert empty.size() == 0 && empty.indexOf("a.Main") == -1 && empty.findBySimpleName("Main").isEmpty();
+
+        File dir = TestCompiler.createTempDirectory();
+        try {
+            TestCompiler.compile(dir, Arrays.asList(
+                    TestCompiler.source("a.One", "package a; public class One { public static void main(String[] args) {} }"),
+                    TestCompiler.source("a.Two", "package a; public class Two { public static void main(String[] args) {}"
+                            + " public static void agentmain(String args) {} }"),
+                    TestCompiler.source("a.None", "package a; public class None { public void main(String[] args) {} }")),
+                    "-Aautomanifest=Main-Class", "-Aautomanifest.entryPoints");
+            entryPoints = EntryPoints.open(new File(dir, EntryPoints.NAME));
+            assert entryPoints.size() == 2;
+            assert entryPoints.methods("a.One") == EntryPoints.MAIN;
+            assert entryPoints.methods("a.Two") == (EntryPoints.MAIN | EntryPoints.AGENTMAIN);
+        } finally {
+            TestCompiler.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.hunterwb.automanifest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.zip.DeflaterOutputStream;
+
+public final class GitRepositoryTest {
+
+    public void testAll() throws Exception {
+        File root = TestCompiler.createTempDirectory();
+        try {
+            test(root);
+        } finally {
+            TestCompiler.delete(root);
+        }
+    }
+
+    private static void test(File root) throws Exception {
+        File git = new File(root, ".git");
+        File file = new File(root, "a.txt");
+        write(file, bytes("hello\n"));
+        byte[] blob = hash("blob", bytes("hello\n"));
+        ByteArrayOutputStream tree = new ByteArrayOutputStream();
+        tree.write(bytes("100644 a.txt\0"));
+        tree.write(blob);
+        String commitContent = "tree " + Util.hex(hash("tree", tree.toByteArray())) + "\nauthor a <a> 0 +0000\ncommitter a <a> 0 +0000\n\nm\n";
+        byte[] commit = object("commit", bytes(commitContent));
+        String revision = Util.hex(sha1(commit));
+
+        write(new File(git, "objects/" + revision.substring(0, 2) + '/' + revision.substring(2)), deflate(commit));
+        write(new File(git, "HEAD"), bytes("ref: refs/heads/main\n"));
+        write(new File(git, "packed-refs"), bytes("# pack-refs with: peeled fully-peeled sorted\n" + revision + " refs/heads/main\n"));
+        writeIndex(new File(git, "index"), file, blob);
+
+        GitRepository repository = GitRepository.find(new File(root, "target/classes"));
+        assert repository != null;
+        assert revision.equals(repository.revision) : repository.revision;
+        assert "main".equals(repository.branch) : repository.branch;
+        assert !repository.isDirty();
+
+        // an edit is seen although the cached repository is reused
+        write(file, bytes("hello, world\n"));
+        assert GitRepository.find(root) == repository;
+        assert repository.isDirty();
+        write(file, bytes("hello\n"));
+
+        // same size but modified, so only the hash tells
+        long lastModified = file.lastModified();
+        assert file.setLastModified(lastModified - 5000);
+        assert !GitRepository.read(git, root).isDirty();
+        write(file, bytes("hellO\n"));
+        assert file.setLastModified(lastModified - 5000);
+        assert GitRepository.read(git, root).isDirty();
+        write(file, bytes("hello\n"));
+        assert file.setLastModified(lastModified);
+
+        write(new File(git, "HEAD"), bytes(revision + '\n'));
+        repository = GitRepository.read(git, root);
+        assert revision.equals(repository.revision) : repository.revision;
+        assert repository.branch == null : repository.branch;
+
+        // the commit only in a pack, found through the pack index
+        assert new File(git, "objects/" + revision.substring(0, 2) + '/' + revision.substring(2)).delete();
+        writePack(new File(git, "objects/pack/pack-test"), sha1(commit), bytes(commitContent));
+        assert !GitRepository.read(git, root).isDirty();
+
+        // checked out with CRLF line endings, which git converts back when adding
+        write(file, bytes("hello\r\n"));
+        writeIndex(new File(git, "index"), file, blob);
+        assert file.setLastModified(file.lastModified() - 5000);
+        File config = new File(git, "config");
+        write(config, bytes("[core]\n\tautocrlf = false\n"));
+        assert GitRepository.read(git, root).isDirty();
+        write(config, bytes("[core]\n\tautoCRLF = true ; on Windows\n"));
+        assert !GitRepository.read(git, root).isDirty();
+        write(config, bytes("[core]\n\tautocrlf = false\n"));
+        File attributes = new File(root, ".gitattributes");
+        write(attributes, bytes("* text=auto\n*.bin binary\n"));
+        assert !GitRepository.read(git, root).isDirty();
+        write(attributes, bytes("* text=auto\n/a.[st]xt -text\n"));
+        assert GitRepository.read(git, root).isDirty();
+        write(attributes, bytes("**/*.txt eol=crlf\n"));
+        assert !GitRepository.read(git, root).isDirty();
+
+        // the clean filter of Git LFS cannot be applied, so the attribute is left out
+        write(attributes, bytes("*.txt filter=lfs diff=lfs merge=lfs -text\n"));
+        Map<Attributes.Name, Object> entries = new LinkedHashMap<Attributes.Name, Object>();
+        entries.put(new Attributes.Name(Options.BUILD_DIRTY), Options.Git.DIRTY);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GitRepository.resolve(entries, root, new ConsoleMessager(new PrintStream(out)));
+        assert entries.isEmpty() : entries;
+        assert out.toString(Util.UTF_8).contains("filter lfs") : out;
+        assert attributes.delete();
+
+        assert file.delete();
+        assert GitRepository.read(git, root).isDirty();
+    }
+
+    private static void writeIndex(File index, File file, byte[] blob) throws IOException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(b);
+        out.write(bytes("DIRC"));
+        out.writeInt(2);
+        out.writeInt(1);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeInt((int) (file.lastModified() / 1000));
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeInt(0100644);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeInt((int) file.length());
+        out.write(blob);
+        out.writeShort("a.txt".length());
+        out.write(bytes("a.txt\0\0\0\0\0"));
+        write(index, b.toByteArray());
+        // not racily clean
+        assert index.setLastModified(file.lastModified() + 2000);
+    }
+
+    private static void writePack(File prefix, byte[] hash, byte[] content) throws IOException {
+        ByteArrayOutputStream pack = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(pack);
+        out.write(bytes("PACK"));
+        out.writeInt(2);
+        out.writeInt(1);
+        int size = content.length;
+        out.write(0x80 | 1 << 4 | size & 0x0F);
+        for (size >>>= 4; size != 0; size >>>= 7) {
+            out.write((size > 0x7F ? 0x80 : 0) | size & 0x7F);
+        }
+        out.write(deflate(content));
+        write(new File(prefix.getPath() + ".pack"), pack.toByteArray());
+
+        ByteArrayOutputStream idx = new ByteArrayOutputStream();
+        out = new DataOutputStream(idx);
+        out.writeInt(0xff744f63);
+        out.writeInt(2);
+        for (int i = 0; i < 256; i++) {
+            out.writeInt(i < (hash[0] & 0xFF) ? 0 : 1);
+        }
+        out.write(hash);
+        out.writeInt(0);
+        out.writeInt(12);
+        out.write(new byte[40]);
+        write(new File(prefix.getPath() + ".idx"), idx.toByteArray());
+    }
+
+    private static byte[] object(String type, byte[] content) throws IOException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        b.write(bytes(type + ' ' + content.length + '\0'));
+        b.write(content);
+        return b.toByteArray();
+    }
+
+    private static byte[] hash(String type, byte[] content) throws Exception {
+        return sha1(object(type, content));
+    }
+
+    private static byte[] sha1(byte[] b) throws Exception {
+        return MessageDigest.getInstance("SHA-1").digest(b);
+    }
+
+    private static byte[] deflate(byte[] b) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeflaterOutputStream deflater = new DeflaterOutputStream(out);
+        deflater.write(b);
+        deflater.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] bytes(String s) throws IOException {
+        return s.getBytes(Util.UTF_8);
+    }
+
+    private static void write(File file, byte[] b) throws IOException {
+        file.getParentFile().mkdirs();
+        Util.writeClose(b, new FileOutputStream(file));
+    }
+}
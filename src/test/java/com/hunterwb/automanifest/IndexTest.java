@@ -0,0 +1,38 @@
+package com.hunterwb.automanifest;
+
+import javax.tools.JavaFileObject;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.jar.Attributes;
+
+public final class IndexTest {
+
+    public void testAll() throws IOException {
+        File dir = TestCompiler.createTempDirectory();
+        try {
+            JavaFileObject b = TestCompiler.source("a.y.B", "package a.y; public class B {}");
+            TestCompiler.compile(dir, Arrays.asList(
+                    TestCompiler.source("a.x.A", "package a.x; public class A { public static void main(String[] args) {} }"), b),
+                    "-Aautomanifest=Main-Class,Automatic-Module-Name");
+
+            // the contributions of A are kept when only B is recompiled
+            TestCompiler.compile(dir, Collections.singletonList(b), "-Aautomanifest=Main-Class,Automatic-Module-Name");
+            Attributes attributes = TestCompiler.readManifest(dir).getMainAttributes();
+            assert "a.x.A".equals(attributes.getValue("Main-Class")) : attributes;
+            assert "a".equals(attributes.getValue("Automatic-Module-Name")) : attributes;
+            String index = TestCompiler.read(new File(dir, Index.NAME));
+            assert index.contains("a.x.A\t") && index.contains("a.y.B\t") : index;
+
+            // an index recorded for other attributes is discarded
+            TestCompiler.compile(dir, Collections.singletonList(b), "-Aautomanifest=Automatic-Module-Name");
+            attributes = TestCompiler.readManifest(dir).getMainAttributes();
+            assert "a.y".equals(attributes.getValue("Automatic-Module-Name")) : attributes;
+            index = TestCompiler.read(new File(dir, Index.NAME));
+            assert !index.contains("a.x.A") && index.contains("a.y.B\t") : index;
+        } finally {
+            TestCompiler.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.hunterwb.automanifest;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public final class JarAuditorTest {
+
+    private static final Options OPTIONS = Options.parse("Main-Class,Automatic-Module-Name,Build-Jdk-Spec,X-Team:core");
+
+    public void testAll() throws IOException {
+        File dir = TestCompiler.createTempDirectory();
+        try {
+            File source = new File(dir, "Main.java");
+            Util.writeClose("package a.b; public class Main { public static void main(String[] args) {} }".getBytes(Util.UTF_8), new FileOutputStream(source));
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            int status = compiler.run(null, null, null, "-d", dir.getPath(), source.getPath());
+            assert status == 0 : status;
+            byte[] mainClass = Util.readFullyClose(new FileInputStream(new File(dir, "a/b/Main.class")));
+
+            File jars = new File(dir, "jars");
+            new File(jars, "sub").mkdirs();
+            writeJar(new File(jars, "good.jar"), "Main-Class: a.b.Main\r\nAutomatic-Module-Name: a.b\r\nBuild-Jdk-Spec: 1.6\r\nX-Team: core\r\n",
+                    mainClass, ZipEntry.DEFLATED);
+            writeJar(new File(jars, "bad.jar"), "Main-Class: a.Other\r\nAutomatic-Module-Name: a.b\r\nX-Team: other\r\n",
+                    mainClass, ZipEntry.STORED);
+            writeJar(new File(jars, "sub/empty.jar"), null, null, ZipEntry.DEFLATED);
+
+            List<JarAuditor.Report> reports = audit(jars, false, 1);
+            check(reports, JarAuditor.Status.MISMATCHED, JarAuditor.Status.MATCHED, JarAuditor.Status.FAILED);
+            String text = reports.get(0).text;
+            assert text.equals("-Main-Class: a.Other\n+Main-Class: a.b.Main\n+Build-Jdk-Spec: " + System.getProperty("java.specification.version")
+                    + "\n-X-Team: other\n+X-Team: core\n") : text;
+            text = reports.get(2).text;
+            assert text.contains("warning: Found no main method") && text.contains("error: Cannot determine Main-Class") : text;
+
+            check(audit(jars, true, 4), JarAuditor.Status.FIXED, JarAuditor.Status.MATCHED, JarAuditor.Status.FAILED);
+            check(audit(jars, false, 4), JarAuditor.Status.MATCHED, JarAuditor.Status.MATCHED, JarAuditor.Status.FAILED);
+            JarFile jarFile = new JarFile(new File(jars, "bad.jar"));
+            try {
+                Attributes attributes = jarFile.getManifest().getMainAttributes();
+                assert attributes.getValue("Main-Class").equals("a.b.Main") : attributes;
+                assert attributes.getValue("X-Team").equals("core") : attributes;
+                assert jarFile.getEntry("a/b/Main.class").getSize() == mainClass.length;
+            } finally {
+                jarFile.close();
+            }
+        } finally {
+            TestCompiler.delete(dir);
+        }
+    }
+
+    private static List<JarAuditor.Report> audit(File jars, boolean fix, int threads) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ConsoleMessager messager = new ConsoleMessager(new PrintStream(out));
+        List<JarAuditor.Report> reports = new JarAuditor(OPTIONS, null, fix, threads).audit(jars, new PrintStream(out), messager);
+        assert messager.errors() == 1 : out;
+        return reports;
+    }
+
+    private static void check(List<JarAuditor.Report> reports, JarAuditor.Status... statuses) {
+        assert reports.size() == statuses.length : reports.size();
+        for (int i = 0; i < statuses.length; i++) {
+            assert reports.get(i).status == statuses[i] : reports.get(i).jar + " " + reports.get(i).status + " " + reports.get(i).text;
+        }
+    }
+
+    private static void writeJar(File jar, String mainSection, byte[] mainClass, int method) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(jar));
+        try {
+            if (mainSection != null) {
+                zip.putNextEntry(new ZipEntry(ManifestFile.NAME));
+                zip.write(("Manifest-Version: 1.0\r\n" + mainSection + "\r\n").getBytes(Util.UTF_8));
+                zip.closeEntry();
+            }
+            if (mainClass != null) {
+                ZipEntry entry = new ZipEntry("a/b/Main.class");
+                entry.setMethod(method);
+                if (method == ZipEntry.STORED) {
+                    CRC32 crc = new CRC32();
+                    crc.update(mainClass);
+                    entry.setSize(mainClass.length);
+                    entry.setCompressedSize(mainClass.length);
+                    entry.setCrc(crc.getValue());
+                }
+                zip.putNextEntry(entry);
+                zip.write(mainClass);
+                zip.closeEntry();
+            }
+            zip.putNextEntry(new ZipEntry("readme.txt"));
+            zip.closeEntry();
+        } finally {
+            zip.close();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.hunterwb.automanifest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public final class JarInjectorTest {
+
+    private static final String MANIFEST = "Manifest-Version: 1.0\r\nMain-Class: a.Main\r\n\r\n";
+
+    public void testAll() throws IOException {
+        File jar = File.createTempFile("automanifest", ".jar");
+        try {
+            ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(jar));
+            try {
+                zip.setComment("comment");
+                put(zip, "META-INF/", null);
+                put(zip, "a/Main.class", "deflated");
+                ZipEntry stored = new ZipEntry("b.txt");
+                stored.setMethod(ZipEntry.STORED);
+                stored.setSize(6);
+                stored.setCompressedSize(6);
+                stored.setCrc(0x5643F90BL); // "stored"
+                put(zip, stored, "stored");
+            } finally {
+                zip.close();
+            }
+            check(jar, MANIFEST, true);
+            check(jar, MANIFEST, false);
+            check(jar, MANIFEST.replace("a.Main", "b.Main"), true);
+        } finally {
+            jar.delete();
+        }
+    }
+
+    private static void check(File jar, String manifest, boolean written) throws IOException {
+        JarInjector injector = new JarInjector(jar);
+        try {
+            boolean actual = injector.writeManifest(manifest.getBytes(Util.UTF_8));
+            assert actual == written : actual;
+        } finally {
+            injector.close();
+        }
+        JarFile jarFile = new JarFile(jar);
+        try {
+            assert jarFile.size() == 4 : jarFile.size();
+            assert jarFile.getComment().equals("comment") : jarFile.getComment();
+            String mainClass = jarFile.getManifest().getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+            assert manifest.contains(mainClass) : mainClass;
+            assert read(jarFile, "a/Main.class").equals("deflated");
+            assert read(jarFile, "b.txt").equals("stored");
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    private static void put(ZipOutputStream zip, String name, String content) throws IOException {
+        put(zip, new ZipEntry(name), content);
+    }
+
+    private static void put(ZipOutputStream zip, ZipEntry entry, String content) throws IOException {
+        zip.putNextEntry(entry);
+        if (content != null) zip.write(content.getBytes(Util.UTF_8));
+        zip.closeEntry();
+    }
+
+    private static String read(ZipFile zipFile, String name) throws IOException {
+        return new String(Util.readFullyClose(zipFile.getInputStream(zipFile.getEntry(name))), Util.UTF_8);
+    }
+}
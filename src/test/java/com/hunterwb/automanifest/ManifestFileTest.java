@@ -0,0 +1,81 @@
+package com.hunterwb.automanifest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+
+public final class ManifestFileTest {
+
+    private static final ConsoleMessager MESSAGER = new ConsoleMessager(new PrintStream(new ByteArrayOutputStream()));
+
+    public void testAll() throws IOException {
+        File dir = TestCompiler.createTempDirectory();
+        try {
+            for (String eol : new String[] {"\n", "\r\n", "\r"}) {
+                check(new File(dir, "MANIFEST.MF"), eol, false);
+                check(new File(dir, "MANIFEST.MF"), eol, true);
+            }
+        } finally {
+            TestCompiler.delete(dir);
+        }
+    }
+
+    /**
+     * Patches a manifest with per-entry sections, either replaced by renaming
+     * or truncated and rewritten like through the filer
+     */
+    private static void check(final File file, String eol, final boolean replacesInput) throws IOException {
+        byte[] entrySections = Util.ascii("Name: a/B.class" + eol + "X: y" + eol + eol + "Name: c" + eol + "Z: w" + eol);
+        ByteArrayOutputStream original = new ByteArrayOutputStream();
+        original.write(Util.ascii("Manifest-Version: 1.0" + eol + "Main-Class: a.Old" + eol + eol));
+        original.write(entrySections);
+        Util.writeClose(original.toByteArray(), new FileOutputStream(file));
+
+        Map<Attributes.Name, Object> entries = new LinkedHashMap<Attributes.Name, Object>();
+        entries.put(Attributes.Name.MAIN_CLASS, "a.New");
+        ManifestFile.Output output = new ManifestFile.Output() {
+            @Override public OutputStream open() throws IOException {
+                return new FileOutputStream(file);
+            }
+
+            @Override public boolean replacesInput() {
+                return true;
+            }
+        };
+
+        Stats stats = new Stats("");
+        assert patch(file, output, replacesInput, entries, stats);
+        byte[] patched = Util.readFile(file);
+        Map<Attributes.Name, String> mainSection = new LinkedHashMap<Attributes.Name, String>();
+        mainSection.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        byte[] expectedMainSection = ManifestFile.writeMainSection(mainSection, entries, MESSAGER);
+        assert Arrays.equals(Arrays.copyOf(patched, expectedMainSection.length), expectedMainSection) : new String(patched, Util.UTF_8);
+        assert Arrays.equals(Arrays.copyOfRange(patched, expectedMainSection.length, patched.length), entrySections) : new String(patched, Util.UTF_8);
+        assert stats.manifestWritten;
+        assert stats.manifestBytesRead == original.size() : stats.manifestBytesRead;
+        assert stats.manifestBytesWritten == patched.length : stats.manifestBytesWritten;
+
+        // left untouched when the main section is unchanged
+        long lastModified = file.lastModified() - 10000;
+        assert file.setLastModified(lastModified);
+        stats = new Stats("");
+        assert !patch(file, output, replacesInput, entries, stats);
+        assert Arrays.equals(Util.readFile(file), patched);
+        assert file.lastModified() == lastModified;
+        assert !stats.manifestWritten;
+    }
+
+    private static boolean patch(File file, ManifestFile.Output output, boolean replacesInput, Map<Attributes.Name, Object> entries, Stats stats) throws IOException {
+        return replacesInput
+                ? ManifestFile.patch(new FileInputStream(file), output, entries, MESSAGER, stats)
+                : ManifestFile.patch(file, entries, MESSAGER, stats);
+    }
+}
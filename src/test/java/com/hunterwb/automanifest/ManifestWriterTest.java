@@ -0,0 +1,56 @@
+package com.hunterwb.automanifest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+
+public final class ManifestWriterTest {
+
+    public void testAll() throws IOException {
+        check("");
+        check("a");
+        check(repeat("a", 66));
+        check(repeat("a", 67));
+        check(repeat("a", 200));
+        check(repeat("é", 100));
+        check("a" + repeat("€", 100));
+    }
+
+    private static void check(String value) throws IOException {
+        Map<Attributes.Name, String> section = new LinkedHashMap<Attributes.Name, String>();
+        section.put(new Attributes.Name("Key"), value);
+        section.put(new Attributes.Name("Other"), "value");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ManifestWriter(out).writeSection(section);
+        byte[] b = out.toByteArray();
+
+        int lineStart = 0;
+        for (int i = 0; i < b.length; i++) {
+            if (b[i] == '\n') {
+                int lineLength = i - 1 - lineStart;
+                assert lineLength <= 72 : lineLength;
+                lineStart = i + 1;
+            }
+        }
+
+        Map<Attributes.Name, String> read = new ManifestReader(new ByteArrayInputStream(b)).readMainSection();
+        assert read.equals(section) : read;
+        assert read.keySet().iterator().next().toString().equals("Key");
+
+        ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+        new ManifestWriter(out2).writeSection(read);
+        assert Arrays.equals(b, out2.toByteArray());
+    }
+
+    private static String repeat(String s, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+}
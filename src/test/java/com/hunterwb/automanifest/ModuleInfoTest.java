@@ -0,0 +1,161 @@
+package com.hunterwb.automanifest;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+public final class ModuleInfoTest {
+
+    public void testAll() throws Exception {
+        File dir = TestCompiler.createTempDirectory();
+        try {
+            new File(dir, "META-INF/services").mkdirs();
+            Util.writeClose("a.b.c.Impl # the only one\nx.Outside\n".getBytes(Util.UTF_8), new FileOutputStream(new File(dir, "META-INF/services/a.b.Api")));
+            DiagnosticCollector<JavaFileObject> diagnostics = TestCompiler.compile(dir, Arrays.asList(
+                    TestCompiler.source("a.b.Main", "package a.b; public class Main { public static void main(String[] args) {} }"),
+                    TestCompiler.source("a.b.Api", "package a.b; public interface Api {}"),
+                    TestCompiler.source("a.b.c.Impl", "package a.b.c; public class Impl implements a.b.Api {}")),
+                    "-Aautomanifest=Main-Class", "-Aautomanifest.moduleInfo=java.sql,uses:a.b.Api");
+            boolean warned = false;
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+                if (d.getMessage(null).contains("x.Outside")) warned = true;
+            }
+            assert warned : diagnostics.getDiagnostics();
+
+            Object descriptor = readDescriptor(dir);
+            if (descriptor == null) return; // Java 8 and earlier
+            assert invoke(descriptor, "name").equals("a.b");
+            assert invoke(descriptor, "isOpen").equals(true);
+            assert new TreeSet<Object>((Set<?>) invoke(descriptor, "packages")).toString().equals("[a.b, a.b.c]");
+            assert invoke(descriptor, "mainClass").toString().equals("Optional[a.b.Main]");
+            assert invoke(descriptor, "uses").toString().equals("[a.b.Api]");
+            String requires = invoke(descriptor, "requires").toString();
+            assert requires.contains("java.sql") && requires.contains("java.base") : requires;
+            String provides = invoke(descriptor, "provides").toString();
+            assert provides.contains("a.b.Api") && provides.contains("a.b.c.Impl") && !provides.contains("x.Outside") : provides;
+            assert invoke(descriptor, "exports").toString().contains("a.b.c");
+
+            // the packages of the classes that are not recompiled are kept
+            TestCompiler.compile(dir, Collections.singletonList(
+                    TestCompiler.source("a.b.Main", "package a.b; public class Main { public static void main(String[] args) {} }")),
+                    "-Aautomanifest=Main-Class", "-Aautomanifest.moduleInfo");
+            descriptor = readDescriptor(dir);
+            assert new TreeSet<Object>((Set<?>) invoke(descriptor, "packages")).toString().equals("[a.b, a.b.c]");
+            requires = invoke(descriptor, "requires").toString();
+            assert !requires.contains("java.sql") : requires;
+        } finally {
+            TestCompiler.delete(dir);
+        }
+        checkExcluded();
+        checkDependencies();
+    }
+
+    /**
+     * The packages skipped by the attributes are still in the module, which
+     * can be run
+     */
+    private void checkExcluded() throws Exception {
+        File dir = TestCompiler.createTempDirectory();
+        try {
+            TestCompiler.compile(dir, Arrays.asList(
+                    TestCompiler.source("m.a.Main", "package m.a; public class Main { public static void main(String[] args) { System.out.print(m.b.Helper.NAME); } }"),
+                    TestCompiler.source("m.b.Helper", "package m.b; public class Helper { public static final String NAME = new String(\"helper\"); }")),
+                    "-Aautomanifest=Main-Class", "-Aautomanifest.exclude=m.b", "-Aautomanifest.moduleInfo");
+            Object descriptor = readDescriptor(dir);
+            if (descriptor == null) return; // Java 8 and earlier
+            assert invoke(descriptor, "name").equals("m");
+            assert new TreeSet<Object>((Set<?>) invoke(descriptor, "packages")).toString().equals("[m.a, m.b]");
+            String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+            Process process = new ProcessBuilder(java, "-p", dir.getPath(), "-m", "m").redirectErrorStream(true).start();
+            String output = new String(Util.readFullyClose(process.getInputStream()), Util.UTF_8);
+            assert process.waitFor() == 0 : output;
+            assert output.equals("helper") : output;
+        } finally {
+            TestCompiler.delete(dir);
+        }
+    }
+
+    /**
+     * The modules and services used by the code are required, which the
+     * module needs to run, and a package on the class path is reported
+     */
+    private void checkDependencies() throws Exception {
+        File dir = TestCompiler.createTempDirectory();
+        try {
+            TestCompiler.compile(dir, Collections.singletonList(
+                    TestCompiler.source("x.lib.Lib", "package x.lib; public class Lib { public static void run() {} }")));
+            List<JavaFileObject> sources = Arrays.asList(
+                    TestCompiler.source("d.Main", "package d; import java.util.logging.Logger; public class Main {"
+                            + " static final Logger LOG = Logger.getLogger(\"d\");"
+                            + " public static void main(String[] args) {"
+                            + " for (Plugin p : java.util.ServiceLoader.load(Plugin.class)) {}"
+                            + " if (args.length != 0) x.lib.Lib.run();"
+                            + " System.out.print(LOG.getName()); } }"),
+                    TestCompiler.source("d.Plugin", "package d; public interface Plugin {}"));
+            DiagnosticCollector<JavaFileObject> diagnostics = TestCompiler.compile(dir, sources, "-Aautomanifest=Main-Class", "-Aautomanifest.moduleInfo");
+            assert warnings(diagnostics).equals(Collections.singletonList("Not requiring the module of the package x.lib used by the compiled classes,"
+                    + " which is not known, add it to automanifest.moduleInfo")) : diagnostics.getDiagnostics();
+
+            Object descriptor = readDescriptor(dir);
+            if (descriptor == null) return; // Java 8 and earlier
+            String requires = invoke(descriptor, "requires").toString();
+            assert requires.contains("java.logging") && !requires.contains("x.lib") : requires;
+            assert invoke(descriptor, "uses").toString().equals("[d.Plugin]");
+            String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+            Process process = new ProcessBuilder(java, "-p", dir.getPath(), "-m", "d").redirectErrorStream(true).start();
+            String output = new String(Util.readFullyClose(process.getInputStream()), Util.UTF_8);
+            assert process.waitFor() == 0 : output;
+            assert output.equals("d") : output;
+
+            // the dependencies of the classes that are not recompiled are kept
+            TestCompiler.compile(dir, sources.subList(1, 2), "-Aautomanifest=Main-Class", "-Aautomanifest.moduleInfo");
+            descriptor = readDescriptor(dir);
+            requires = invoke(descriptor, "requires").toString();
+            assert requires.contains("java.logging") && !requires.contains("x.lib") : requires;
+            assert invoke(descriptor, "uses").toString().equals("[d.Plugin]");
+        } finally {
+            TestCompiler.delete(dir);
+        }
+    }
+
+    private static List<String> warnings(DiagnosticCollector<JavaFileObject> diagnostics) {
+        List<String> warnings = new ArrayList<String>();
+        for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+            if (d.getKind() == Diagnostic.Kind.WARNING) warnings.add(d.getMessage(null));
+        }
+        return warnings;
+    }
+
+    /**
+     * Reads the {@code ModuleDescriptor}, or returns {@code null} before Java 9
+     */
+    private static Object readDescriptor(File dir) throws Exception {
+        byte[] b = Util.readFullyClose(new FileInputStream(new File(dir, ModuleInfo.NAME)));
+        assert (b[0] & 0xFF) == 0xCA && (b[1] & 0xFF) == 0xFE;
+        Class<?> descriptorClass;
+        try {
+            descriptorClass = Class.forName("java.lang.module.ModuleDescriptor");
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+        return descriptorClass.getMethod("read", InputStream.class).invoke(null, new ByteArrayInputStream(b));
+    }
+
+    private static Object invoke(Object target, String methodName) throws Exception {
+        Method method = target.getClass().getMethod(methodName);
+        method.setAccessible(true);
+        return method.invoke(target);
+    }
+}
@@ -0,0 +1,79 @@
+package com.hunterwb.automanifest;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public final class NameFilterTest {
+
+    public void testAll() throws IOException {
+        assert NameFilter.of(null, null) == null;
+        assert NameFilter.of(" , ", "") == null;
+
+        NameFilter f = NameFilter.of(null, "a.test,**.example.**,*.*Fixture,b.T?");
+        check(f, "a", "a.Main", true);
+        check(f, "a.test", "a.test.Main", false);
+        check(f, "a.test.sub", "a.test.sub.Main", true);
+        check(f, "a.b.example.c", "a.b.example.c.Main", false);
+        check(f, "a.b.example", "a.b.example.Main", false);
+        check(f, "a.b.examples", "a.b.examples.Main", true);
+        check(f, "a", "a.MainFixture", false);
+        check(f, "a", "a.Main.Fixture", true);
+        check(f, "b", "b.T1", false);
+        check(f, "b", "b.T12", true);
+
+        NameFilter i = NameFilter.of("com.example.**", null);
+        assert i.includes("com.example.app", "com.example.app.Main");
+        assert !i.includes("com.other", "com.other.Main");
+        assert !i.excludes("com.other", "com.other.Main");
+
+        NameFilter s = NameFilter.of(null, "a$b.C+");
+        check(s, "a$b", "a$b.C+", false);
+        check(s, "aab", "aab.CC", true);
+
+        checkSkipGenerated();
+    }
+
+    /**
+     * A generated type with a main method is not another candidate for the
+     * {@code Main-Class}
+     */
+    private void checkSkipGenerated() throws IOException {
+        List<JavaFileObject> sources = Arrays.asList(
+                TestCompiler.source("a.App", "package a; public class App { public static void main(String[] args) {} }"),
+                TestCompiler.source("a.Gen", "package a; @javax.annotation.processing.Generated(\"gen\") public class Gen { public static void main(String[] args) {} }"));
+        File dir = TestCompiler.createTempDirectory();
+        try {
+            List<String> warnings = warnings(TestCompiler.compile(dir, sources, "-Aautomanifest=Main-Class").getDiagnostics());
+            assert warnings.equals(Arrays.asList("Found multiple main methods: [a.App, a.Gen]")) : warnings;
+        } finally {
+            TestCompiler.delete(dir);
+        }
+        dir = TestCompiler.createTempDirectory();
+        try {
+            List<String> warnings = warnings(TestCompiler.compile(dir, sources, "-Aautomanifest=Main-Class", "-Aautomanifest.skipGenerated").getDiagnostics());
+            assert warnings.isEmpty() : warnings;
+            String mainClass = TestCompiler.readManifest(dir).getMainAttributes().getValue("Main-Class");
+            assert "a.App".equals(mainClass) : mainClass;
+        } finally {
+            TestCompiler.delete(dir);
+        }
+    }
+
+    private static List<String> warnings(List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+        List<String> warnings = new ArrayList<String>();
+        for (Diagnostic<? extends JavaFileObject> d : diagnostics) {
+            if (d.getKind() == Diagnostic.Kind.WARNING) warnings.add(d.getMessage(null));
+        }
+        return warnings;
+    }
+
+    private static void check(NameFilter f, String packageName, String name, boolean expected) {
+        boolean actual = f.includes(packageName, name) && !f.excludes(packageName, name);
+        assert actual == expected : name;
+    }
+}
@@ -0,0 +1,59 @@
+package com.hunterwb.automanifest;
+
+import javax.tools.JavaFileObject;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public final class NativeImageConfigTest {
+
+    public void testAll() throws IOException {
+        List<JavaFileObject> sources = new ArrayList<JavaFileObject>();
+        sources.add(TestCompiler.source("com.example.app.Main", "package com.example.app; public class Main { public static void main(String[] args) {} }"));
+        sources.add(TestCompiler.source("com.example.app.Agent", "package com.example.app; public class Agent {"
+                + " public static void premain(String args, java.lang.instrument.Instrumentation inst) {}"
+                + " public static void agentmain(String args) {} static void agentmain(String args, Object o) {} }"));
+        File dir = TestCompiler.createTempDirectory();
+        try {
+            TestCompiler.compile(dir, sources, "-Aautomanifest=Main-Class,Premain-Class,Agent-Class,Automatic-Module-Name", "-Aautomanifest.nativeImage");
+            String properties = TestCompiler.read(new File(dir, "META-INF/native-image/com.example/app/native-image.properties"));
+            assert properties.equals("Args = -H:Class=com.example.app.Main -H:Name=app\n") : properties;
+            String reflectConfig = TestCompiler.read(new File(dir, "META-INF/native-image/com.example/app/reflect-config.json"));
+            assert reflectConfig.equals("[\n  {\"name\":\"com.example.app.Agent\",\"methods\":["
+                    + "{\"name\":\"premain\",\"parameterTypes\":[\"java.lang.String\",\"java.lang.instrument.Instrumentation\"]},"
+                    + "{\"name\":\"agentmain\",\"parameterTypes\":[\"java.lang.String\"]}]}\n]\n") : reflectConfig;
+
+            // the agent was removed and its class file deleted, so the configuration of the earlier build is emptied
+            assert new File(dir, "com/example/app/Agent.class").delete();
+            TestCompiler.compile(dir, sources.subList(0, 1), "-Aautomanifest=Main-Class,Premain-Class,Agent-Class,Automatic-Module-Name", "-Aautomanifest.nativeImage");
+            reflectConfig = TestCompiler.read(new File(dir, "META-INF/native-image/com.example/app/reflect-config.json"));
+            assert reflectConfig.equals("[]\n") : reflectConfig;
+        } finally {
+            TestCompiler.delete(dir);
+        }
+
+        // the same agent class in Agent-Class and Launcher-Agent-Class is registered once
+        dir = TestCompiler.createTempDirectory();
+        try {
+            TestCompiler.compile(dir, sources, "-Aautomanifest=Main-Class,Agent-Class,Launcher-Agent-Class,Automatic-Module-Name", "-Aautomanifest.nativeImage");
+            String reflectConfig = TestCompiler.read(new File(dir, "META-INF/native-image/com.example/app/reflect-config.json"));
+            assert reflectConfig.equals("[\n  {\"name\":\"com.example.app.Agent\",\"methods\":["
+                    + "{\"name\":\"agentmain\",\"parameterTypes\":[\"java.lang.String\"]}]}\n]\n") : reflectConfig;
+        } finally {
+            TestCompiler.delete(dir);
+        }
+
+        sources.remove(1);
+        dir = TestCompiler.createTempDirectory();
+        try {
+            TestCompiler.compile(dir, sources, "-Aautomanifest=Main-Class", "-Aautomanifest.nativeImage=org.example/tool");
+            String properties = TestCompiler.read(new File(dir, "META-INF/native-image/org.example/tool/native-image.properties"));
+            assert properties.equals("Args = -H:Class=com.example.app.Main -H:Name=tool\n") : properties;
+            String reflectConfig = TestCompiler.read(new File(dir, "META-INF/native-image/org.example/tool/reflect-config.json"));
+            assert reflectConfig.equals("[]\n") : reflectConfig;
+        } finally {
+            TestCompiler.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.hunterwb.automanifest;
+
+public final class PackageMatchLengthTest {
+
+    public void testAll() {
+        check("", "", "");
+        check("", "a", "");
+        check("a", "a", "a");
+        check("a", "b", "");
+        check("a", "ab", "");
+        check("a", "a.b", "a");
+        check("a.b", "a.b", "a.b");
+        check("a.b", "a.c", "a");
+        check("a.bc", "a.bd", "a");
+        check("a.b", "a.bc", "a");
+        check("a.b.c", "a.b.d.e", "a.b");
+        check("ab.c", "ac.c", "");
+    }
+
+    private static void check(String a, String b, String expected) {
+        int actual1 = Util.packageMatchLength(a, b);
+        assert actual1 == expected.length() : actual1;
+        int actual2 = Util.packageMatchLength(b, a);
+        assert actual2 == expected.length() : actual2;
+    }
+}
@@ -0,0 +1,57 @@
+package com.hunterwb.automanifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public final class ReuseTest {
+
+    private final AutoManifest processor = new AutoManifest();
+
+    public void testAll() throws Exception {
+        check("a.A");
+        check("b.B");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 8; i++) {
+                final String className = "c" + i + ".C";
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override public Void call() throws Exception {
+                        check(className);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Compiles a class with a main method with the shared processor instance
+     */
+    private void check(String className) throws IOException {
+        File dir = TestCompiler.createTempDirectory();
+        try {
+            int dot = className.lastIndexOf('.');
+            String source = "package " + className.substring(0, dot) + "; public class " + className.substring(dot + 1)
+                    + " { public static void main(String[] args) {} }";
+            TestCompiler.compile(processor, dir, Collections.singletonList(TestCompiler.source(className, source)),
+                    "-Aautomanifest=Main-Class,Automatic-Module-Name");
+            String mainClass = TestCompiler.readManifest(dir).getMainAttributes().getValue("Main-Class");
+            assert className.equals(mainClass) : mainClass;
+        } finally {
+            TestCompiler.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.hunterwb.automanifest;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.jar.Attributes;
+
+public final class RootScannerTest {
+
+    public void testAll() throws IOException {
+        File dir = TestCompiler.createTempDirectory();
+        try {
+            DiagnosticCollector<JavaFileObject> diagnostics = TestCompiler.compile(dir, Arrays.asList(
+                    TestCompiler.source("a.b.App", "package a.b; public class App { public void main(String[] args) {}"
+                            + " public static class Cli { public static void main(String[] args) {} } }"),
+                    TestCompiler.source("a.b.Agent", "package a.b; public class Agent {"
+                            + " public static void premain(String args, java.lang.instrument.Instrumentation inst) {}"
+                            + " public static void agentmain(String args) {} }"),
+                    TestCompiler.source("a.b.c.Other", "package a.b.c; public class Other { public static void main(String arg) {}"
+                            + " static void main(String[] args) {} public static int agentmain(String args) { return 0; }"
+                            + " public void premain(String args) {} }")),
+                    "-Aautomanifest=Automatic-Module-Name,Main-Class,Premain-Class,Agent-Class");
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+                assert d.getKind() != Diagnostic.Kind.WARNING : d;
+            }
+            Attributes attributes = TestCompiler.readManifest(dir).getMainAttributes();
+            assert "a.b".equals(attributes.getValue("Automatic-Module-Name")) : attributes;
+            assert "a.b.App$Cli".equals(attributes.getValue("Main-Class")) : attributes;
+            assert "a.b.Agent".equals(attributes.getValue("Premain-Class")) : attributes;
+            assert "a.b.Agent".equals(attributes.getValue("Agent-Class")) : attributes;
+        } finally {
+            TestCompiler.delete(dir);
+        }
+    }
+}
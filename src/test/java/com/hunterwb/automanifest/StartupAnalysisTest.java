@@ -0,0 +1,70 @@
+package com.hunterwb.automanifest;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public final class StartupAnalysisTest {
+
+    public void testAll() throws IOException {
+        File dir = TestCompiler.createTempDirectory();
+        try {
+            DiagnosticCollector<JavaFileObject> diagnostics = TestCompiler.compile(dir, Arrays.asList(
+                    TestCompiler.source("a.Main", "package a; public class Main extends Base {"
+                            + " static final Config CONFIG = Config.load(); static final int CONSTANT = Lazy.CONSTANT;"
+                            + " static final Runnable LATER = new Runnable() { public void run() { new Lazy(); } };"
+                            + " public static void main(String[] args) { new Lazy(); } }"),
+                    TestCompiler.source("a.Base", "package a; class Base { static { java.util.ServiceLoader.load(Runnable.class); } }"),
+                    TestCompiler.source("a.Config", "package a; class Config {"
+                            + " static final java.util.regex.Pattern P = java.util.regex.Pattern.compile(\"x+\");"
+                            + " static Config load() { return new Config(Registry.NAMES.size()); } Config(int n) {} }"),
+                    TestCompiler.source("a.Registry", "package a; class Registry { static final java.util.List<String> NAMES = new java.util.ArrayList<String>(); }"),
+                    TestCompiler.source("a.Lazy", "package a; class Lazy { static final int CONSTANT = 1; static { \"x\".replaceAll(\"a\", \"b\"); } }")),
+                    "-Aautomanifest=Main-Class", "-Aautomanifest.startup");
+            List<String> warnings = new ArrayList<String>();
+            List<String> calls = new ArrayList<String>();
+            String note = null;
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+                String message = d.getMessage(null);
+                if (d.getKind() == Diagnostic.Kind.WARNING) {
+                    warnings.add(message);
+                    // the warning is at the call and not at the member making it
+                    calls.add(d.getSource().getCharContent(false).subSequence((int) d.getStartPosition(), (int) d.getEndPosition()).toString());
+                }
+                if (message.startsWith("Main-Class a.Main initializes")) note = message;
+            }
+            assert warnings.size() == 2 : warnings;
+            assert warnings.get(0).contains("java.util.ServiceLoader.load in a.Base.<clinit>") : warnings;
+            assert warnings.get(1).contains("java.util.regex.Pattern.compile in a.Config.P") : warnings;
+            assert calls.equals(Arrays.asList("java.util.ServiceLoader.load(Runnable.class)", "java.util.regex.Pattern.compile(\"x+\")")) : calls;
+            assert ("Main-Class a.Main initializes 4 compiled classes (a.Base a.Main a.Config a.Registry) and 3 other classes,"
+                    + " with 1 serviceLoader call, 1 regex call").equals(note) : note;
+
+            String json = TestCompiler.read(new File(dir, StartupAnalysis.NAME));
+            assert json.contains("{\"name\": \"a.Registry\", \"initializedBy\": \"a.Main\"}") : json;
+            assert json.contains("\"externalClasses\": [\"java.util.ArrayList\", \"java.util.ServiceLoader\", \"java.util.regex.Pattern\"]") : json;
+            assert json.contains("\"cost\": {\"classes\": 7, \"reflection\": 0, \"serviceLoader\": 1, \"regex\": 1}") : json;
+            assert !json.contains("a.Lazy") : json;
+        } finally {
+            TestCompiler.delete(dir);
+        }
+
+        // other compilers do not have the trees
+        ProcessingEnvironment env = (ProcessingEnvironment) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ProcessingEnvironment.class},
+                new InvocationHandler() {
+                    @Override public Object invoke(Object proxy, Method method, Object[] args) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        assert StartupAnalysis.create(env) == null;
+    }
+}
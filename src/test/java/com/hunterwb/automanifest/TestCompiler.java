@@ -0,0 +1,89 @@
+package com.hunterwb.automanifest;
+
+import javax.annotation.processing.Processor;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Manifest;
+
+/**
+ * Compiles sources held in memory with the processor into temporary
+ * directories, for the tests that run it like a build would
+ */
+final class TestCompiler {
+
+    private TestCompiler() {}
+
+    static File createTempDirectory() throws IOException {
+        File dir = File.createTempFile("automanifest", "");
+        if (!dir.delete() || !dir.mkdir()) throw new IOException("Could not create " + dir);
+        return dir;
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    static JavaFileObject source(String className, String content) {
+        return new Source(className, content);
+    }
+
+    /**
+     * Compiles the sources into the directory with a new processor, the
+     * directory also being the class path as in an incremental build
+     */
+    static DiagnosticCollector<JavaFileObject> compile(File dir, List<? extends JavaFileObject> sources, String... options) {
+        return compile(new AutoManifest(), dir, sources, options);
+    }
+
+    static DiagnosticCollector<JavaFileObject> compile(Processor processor, File dir, List<? extends JavaFileObject> sources, String... options) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        List<String> arguments = new ArrayList<String>(Arrays.asList("-d", dir.getPath(), "-cp", dir.getPath()));
+        arguments.addAll(Arrays.asList(options));
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics, arguments, null, sources);
+        task.setProcessors(Collections.singleton(processor));
+        boolean success = task.call();
+        assert success : diagnostics.getDiagnostics();
+        return diagnostics;
+    }
+
+    static String read(File file) throws IOException {
+        return new String(Util.readFullyClose(new FileInputStream(file)), Util.UTF_8);
+    }
+
+    static Manifest readManifest(File dir) throws IOException {
+        return new Manifest(new ByteArrayInputStream(Util.readFullyClose(new FileInputStream(new File(dir, ManifestFile.NAME)))));
+    }
+
+    private static final class Source extends SimpleJavaFileObject {
+
+        private final String content;
+
+        Source(String className, String content) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.content = content;
+        }
+
+        @Override public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return content;
+        }
+    }
+}